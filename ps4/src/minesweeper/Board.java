@@ -3,41 +3,153 @@
  */
 package minesweeper;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.SplittableRandom;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongConsumer;
+import java.util.concurrent.locks.StampedLock;
+import java.util.stream.IntStream;
 
 /**
  * note that we only ever keep track of status and where bombs are
- * so we dynamically calcualte integers and board state; instead of keep a history
+ * (plus a cache of how many mines surround each square, derived from the mines)
+ * so we dynamically calcualte the board state; instead of keep a history
  * prevents concurrency and update issues
  * 
  * Thread-safety argument:
- * All state-modifying functions are using the private lock!
- * 
+ * The board is cut into TILE_SIZE x TILE_SIZE tiles, each with its own lock,
+ * so players digging in distant parts of a large board do not wait for each other.
+ *   - once the board is constructed, a square's byte (status, mine and mine count) is only changed atomically,
+ *     through SQUARE (compareAndSet, getAndAdd, getAndBitwiseAnd), so no change to one part of it is lost
+ *     to a change to another part
+ *   - flag and deflag only change one square, from untouched to flagged or back, so they take no tile lock:
+ *     each is a compareAndSet of the square's status, which fails if the square is not in the state it
+ *     started from; a dig going from untouched to dug is a compareAndSet too, so a dig and a flag racing
+ *     for the same square never both win; they are still serialised afterwards, on the change log's
+ *     monitor when they append the square (and on the store's, when the board is persistent), though
+ *     only for the length of that append
+ *   - a square's mine and mine count are only changed while holding the write lock of its tile, and only
+ *     read while holding it, or optimistically (see renderBand and readSymbol): the reader takes the tile's
+ *     stamp, reads, and keeps what it read only if no writer locked the tile in the meantime,
+ *     so a long render never holds up digs, and never shows half of a dig either (a lone flag or deflag
+ *     only changes one byte, so there is no half of it to show)
+ *   - digging a square may remove its mine, which changes its neighbours' mine counts, so dig holds
+ *     the locks of every tile touching the 3x3 neighbourhood of the square (its "region", at most 4 tiles)
+ *   - a thread only ever *blocks* on tile locks (read or write) while holding no other tile lock, and then
+ *     takes them in ascending tile index order; a cascade that runs into a further tile only uses tryLock,
+ *     and leaves squares it could not lock for a second round. So there can be no deadlock.
+ *   - dig's cascade is a flood fill over a queue confined to the digging thread
+ *   - a change first writes its squares, then marks their bands dirty, then appends them to the
+ *     change log, which increments version (under the log's own lock, so versions and log agree);
+ *     render() reads version, then clears the dirty bits, then reads the squares of those bands.
+ *     So a Rendering labelled with version v shows at least every change up to v (it may show
+ *     later ones too, but then version has moved on and the bands are still dirty, or were
+ *     already re-rendered after the change), and patching only the dirty bands is enough.
+ *   - renders are serialized on renderLock, and the latest one is published through a volatile field
+ *   - changesSince() reads the log first and the squares after, so a square that changes again
+ *     meanwhile is reported with a symbol at least as new as the version it is reported at
+ *   - listeners are kept in a thread-safe copy-on-write list, and called after the change is in the log
+ *   - the store (if any) is told of every square a move changes, after the change, and reads the square's
+ *     state itself under its own lock; so the last state it logs for a square is the square's latest,
+ *     even when two flags and deflags of it race without a lock
+ *   - lock wait and hold times go into thread-safe LatencyHistograms
  *   
 */
 
 public class Board {
 
-    // Three arrays to track the state of each square
+    // One byte tracks the whole state of each square, packed as
+    //
+    //   bit   7   6 5      4      3 2 1 0
+    //       [ 0 | status | mine | number of adjacent mines ]
+    //
+    // squares are stored row by row (index y * width + x), so a row of the board is a
+    // contiguous run of bytes, in the same order toString walks them
+    private final byte[] squares;
+    // atomic access to the elements of squares, see the thread-safety argument
+    private static final VarHandle SQUARE = MethodHandles.arrayElementVarHandle(byte[].class);
 
-    // true if square has mine
-    private final boolean[][] hasMine;
     //Each square is either flagged , dug , or untouched
-
     // NOTE: 0 is flagged, 1 is dug, 2 is untouched
+    private static final int FLAGGED = 0;
+    private static final int DUG = 1;
+    private static final int UNTOUCHED = 2;
+    private static final int STATUS_SHIFT = 5;
+    private static final int STATUS_MASK = 0x3 << STATUS_SHIFT;
 
-    private final int[][] status; // true if square has been flagged
+    // true if square has mine
+    private static final int MINE = 0x10;
+    private static final int MINE_SHIFT = 4;
+
+    // number of mines among the (up to 8) neighbours of the square
+    // always equal to counting the mines around the square; kept up to date when a mine is removed
+    // so rendering and cascades read one byte instead of scanning 8 neighbours
+    private static final int COUNT_MASK = 0x0F;
 
     //exclusive range of width, zero indexed
     //actual index goes from 0 to width-1
     public final int width;
     public final int height;
 
-    //use a single private lock when doing actions
-    // note that we dont make this a static variable
-    // if this is static, then all instances of Board will share the same lock!
-    // we want to allow for multiple boards, so we use a single instance-specific lock
-    private final Object lock = new Object();
+    // side length of a square tile of squares sharing one lock
+    // big enough that a typical cascade stays in one or two tiles, small enough that
+    // players spread over a large board rarely land in the same tile
+    static final int TILE_SIZE = 64;
+
+    //number of tiles along each axis, rounded up so the last tiles may be partial
+    private final int tilesX;
+    private final int tilesY;
+
+    // one private lock per tile, indexed by tileY * tilesX + tileX
+    // note that we dont make these static: every board has its own locks
+    // StampedLock rather than synchronized, because cascades need tryLock, and renders read optimistically
+    // (a StampedLock is not reentrant, but every dig keeps track of the tiles it holds anyway)
+    // flag and deflag do not need them (they only wait on the change log), see the thread-safety argument
+    private final StampedLock[] tileLocks;
+    // how long digs and batches of moves wait for the tile locks they write, and then hold them
+    // (cascade rounds taking locks without waiting, and renders reading, are not counted)
+    private final LatencyHistogram lockWaits = new LatencyHistogram();
+    private final LatencyHistogram lockHolds = new LatencyHistogram();
+
+    // which squares changed at each version, for clients catching up with changesSince()
+    // also holds the version, incremented every time a dig, flag or deflag changes a square
+    private final ChangeLog changeLog;
+
+    // the change log keeps at most this many entries, and at least one per square of small boards
+    static final int MAX_CHANGE_LOG = 1 << 16;
+    private static final int MIN_CHANGE_LOG = 1024;
+
+    // called with the new version after every change, see addListener
+    // copy-on-write: listeners come and go rarely, changes happen all the time
+    private final List<LongConsumer> listeners = new CopyOnWriteArrayList<>();
+
+    // the rendering is split into bands of ROWS_PER_BAND rows (the last band may be shorter),
+    // so that after a change only the bands it touched are rendered again
+    // (an even number, so that every band but the last packs into whole bytes, see Rendering.packedBuffers)
+    // (it also divides TILE_SIZE, so that every band lies in a single row of tiles)
+    static final int ROWS_PER_BAND = 16;
+    private final int bands;
+
+    // one bit per band whose squares changed since the band was last rendered, 64 bands per long
+    private final AtomicLongArray dirtyBands;
+
+    // the latest rendering handed out, shared by every render() until the version changes
+    // null until the first render
+    private volatile Rendering cached;
+    // only one thread renders at a time, the others wait and then share its result
+    private final Object renderLock = new Object();
+    // optimistic tries at rendering a band before locking it, see renderBand
+    private static final int OPTIMISTIC_RENDERS = 3;
+
+    // told of every square whose status or mine changes, to make the board persistent
+    // null unless the board is attached to a BoardStore
+    private volatile BoardStore store;
 
     /**
     * Creates a new Minesweeper board with specified dimensions and mine locations.
@@ -47,33 +159,260 @@ public class Board {
     * @param height Board height (number of rows) 
     * @param mines Array of [x,y] coordinates where mines are located
     * @throws IndexOutOfBoundsException if mine coordinates are invalid
+    * @throws IllegalArgumentException if the board has more than Integer.MAX_VALUE squares
     */
     public Board(int width, int height, int[][] mines) {
-        this.width = width;
-        this.height = height;
-
-        //NOTE: first index is the outer dimension, last index is the inner dimension
-        // so this creates [width] number of 1D array (columns), and each column has [height] number of elements
-        hasMine = new boolean[width][height];
-        status = new int[width][height];
-        //default is to fill all with untouched
-        // note that Arrays fill only work for 1D array
-        // we use stream for this
-        Arrays.stream(status).forEach(row -> Arrays.fill(row, 2));
+        this(width, height, 0);
 
         // Place mines
         for (int[] mine : mines) {
             int x = mine[0];
             int y = mine[1];
-            // no checking here, assumes x and y are valid
-            // will be invalid indexing error if not valid anyway
-            hasMine[x][y] = true;
+            // with a flat array, (-1, 1) would silently land on the end of row 0, so check here
+            if (!isValid(x, y)) {
+                throw new IndexOutOfBoundsException("mine at (" + x + ", " + y + ") is not on the board");
+            }
+            // (a mine listed twice is still only one mine)
+            layMine(y * width + x);
         }
+        countMines();
     }
 
-    // Count number of mines around a square
-    private int countMines(int x, int y) {
-        int count = 0;
+    /**
+    * Creates a new Minesweeper board with specified dimensions and mine locations given as one bit per square,
+    * without an int[] per mine. Mines are set straight in the squares, and counted once they are all set.
+    * 
+    * @param width Board width (number of columns)
+    * @param height Board height (number of rows) 
+    * @param mines bit y * width + x is set iff there is a mine at (x, y)
+    * @throws IndexOutOfBoundsException if a bit past the last square is set
+    * @throws IllegalArgumentException if the board has more than Integer.MAX_VALUE squares
+    */
+    public Board(int width, int height, BitSet mines) {
+        this(width, height, 0);
+        if (mines.length() > squares.length) {
+            throw new IndexOutOfBoundsException("mine at square " + (mines.length() - 1) + " is not on the board");
+        }
+        for (int square = mines.nextSetBit(0); square >= 0; square = mines.nextSetBit(square + 1)) {
+            layMine(square);
+        }
+        countMines();
+    }
+
+    /*
+     * For BoardFile: a board of untouched squares without mines, for a loader to layMine() into and then
+     * countMines(), before the board is shared with any other thread.
+     * Throws IllegalArgumentException if the board has more than Integer.MAX_VALUE squares.
+     */
+    static Board blank(int width, int height) {
+        return new Board(width, height, 0);
+    }
+
+    /*
+     * During construction: set the MINE bit of a square, leaving its neighbours' counts to countMines().
+     * Requires 0 <= square < width * height.
+     */
+    void layMine(int square) {
+        squares[square] |= MINE;
+    }
+
+    /*
+     * During construction: set the mine count of every square, in parallel by row, once every mine is laid.
+     * Requires that no mine has been counted yet.
+     */
+    void countMines() {
+        IntStream.range(0, height).parallel().forEach(this::countRowMines);
+    }
+
+    /**
+    * Creates a new Minesweeper board with mines placed at random, each square having a mine with the
+    * given probability, independently of the others.
+    * 
+    * Mines are written straight into the board rather than listed first. Rows are generated in blocks of
+    * TILE_SIZE rows, in parallel, then every square counts its neighbouring mines in a second parallel pass.
+    * Each block draws from its own split of random, made in order before any generation, so the same seed
+    * gives the same board whatever the number of threads.
+    * 
+    * @param width Board width (number of columns)
+    * @param height Board height (number of rows) 
+    * @param probability chance that a square has a mine, requires 0 <= probability <= 1
+    * @param random source of randomness; only used by the calling thread, to make one split per block
+    * @return a new board, with every square untouched
+    * @throws IllegalArgumentException if the board has more than Integer.MAX_VALUE squares
+    */
+    public static Board random(int width, int height, double probability, SplittableRandom random) {
+        assert 0 <= probability && probability <= 1;
+        Board board = new Board(width, height, 0);
+        int blocks = (height + TILE_SIZE - 1) / TILE_SIZE;
+        SplittableRandom[] randoms = new SplittableRandom[blocks];
+        for (int block = 0; block < blocks; block++) {
+            randoms[block] = random.split();
+        }
+        IntStream.range(0, blocks).parallel().forEach(block -> {
+            int start = block * TILE_SIZE * width;
+            int end = Math.min(height, (block + 1) * TILE_SIZE) * width;
+            if (probability < SPARSE_PROBABILITY) {
+                board.placeSparseMines(start, end, probability, randoms[block]);
+            } else {
+                board.placeDenseMines(start, end, probability, randoms[block]);
+            }
+        });
+        // the mines no longer change, so each row can count them on its own
+        board.countMines();
+        return board;
+    }
+
+    // below this probability, jumping from mine to mine is cheaper than a random number per square
+    private static final double SPARSE_PROBABILITY = 0.1;
+
+    // Set the MINE bit of random squares in squares[start..end), during construction,
+    // jumping from one mine to the next with a geometrically distributed skip:
+    // floor(log(u) / log(1 - p)) is the number of squares without a mine before the next one
+    private void placeSparseMines(int start, int end, double probability, SplittableRandom random) {
+        if (probability == 0) {
+            return;
+        }
+        double logMiss = Math.log1p(-probability);
+        long square = start - 1L;
+        while (true) {
+            // 1 - nextDouble() is in (0, 1], so its log is finite; a huge skip is capped at end,
+            // so that square cannot overflow
+            double skip = Math.log(1 - random.nextDouble()) / logMiss;
+            square += 1 + (long) Math.min(skip, end);
+            if (square >= end) {
+                return;
+            }
+            squares[(int) square] |= MINE;
+        }
+    }
+
+    // Set the MINE bit of random squares in squares[start..end), during construction, one draw per square;
+    // each nextLong() is split into two 32-bit draws, compared with the probability scaled to 2^32
+    private void placeDenseMines(int start, int end, double probability, SplittableRandom random) {
+        long threshold = (long) (probability * (1L << 32));
+        for (int square = start; square < end; square += 2) {
+            long bits = random.nextLong();
+            if ((bits >>> 32) < threshold) {
+                squares[square] |= MINE;
+            }
+            if ((bits & 0xFFFFFFFFL) < threshold && square + 1 < end) {
+                squares[square + 1] |= MINE;
+            }
+        }
+    }
+
+    // Set the mine count of every square in row y, during construction, once every mine is placed
+    private void countRowMines(int y) {
+        int row = y * width;
+        // the rows above and below, or row itself again at the edge of the board, then not counted
+        int above = y > 0 ? row - width : row;
+        int below = y + 1 < height ? row + width : row;
+        int aboveWeight = y > 0 ? 1 : 0;
+        int belowWeight = y + 1 < height ? 1 : 0;
+        // mines in the columns left of, at and right of x, over rows y - 1 to y + 1
+        int left = 0;
+        int middle = mines(row) + aboveWeight * mines(above) + belowWeight * mines(below);
+        for (int x = 0; x < width; x++) {
+            int right = x + 1 < width
+                    ? mines(row + x + 1) + aboveWeight * mines(above + x + 1) + belowWeight * mines(below + x + 1)
+                    : 0;
+            int square = row + x;
+            squares[square] |= left + middle + right - mines(square);
+            left = middle;
+            middle = right;
+        }
+    }
+
+    // 1 if square has a mine, else 0
+    private int mines(int square) {
+        return (squares[square] & MINE) >> MINE_SHIFT;
+    }
+
+    /*
+     * Creates a board with the squares saved by BoardStore, at the version it was saved at.
+     * Throws IllegalArgumentException if a state is not one states() can return, e.g. a dug square
+     * that still has a mine (digging always removes it), so a corrupt store is not played on.
+     */
+    Board(int width, int height, byte[] states, long version) {
+        this(width, height, version);
+        if (states.length != squares.length) {
+            throw new IllegalArgumentException("expected " + squares.length + " squares, got " + states.length);
+        }
+        for (int square = 0; square < states.length; square++) {
+            byte state = states[square];
+            if ((state & ~(STATUS_MASK | MINE)) != 0 || (state & STATUS_MASK) >> STATUS_SHIFT > UNTOUCHED) {
+                throw new IllegalArgumentException("invalid state " + state + " of square " + square);
+            }
+            if ((state & STATUS_MASK) >> STATUS_SHIFT == DUG && (state & MINE) != 0) {
+                throw new IllegalArgumentException("dug square " + square + " still has a mine");
+            }
+            squares[square] = state;
+        }
+        countMines();
+    }
+
+    /*
+     * Creates a board of untouched squares without mines, at a version.
+     */
+    private Board(int width, int height, long version) {
+        this.width = width;
+        this.height = height;
+
+        //every square needs an int index
+        if ((long) width * height > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("board " + width + "x" + height + " has too many squares");
+        }
+        squares = new byte[width * height];
+        //default is to fill all with untouched, and no mines around
+        Arrays.fill(squares, (byte) (UNTOUCHED << STATUS_SHIFT));
+
+        changeLog = new ChangeLog(Math.min(MAX_CHANGE_LOG, Math.max(MIN_CHANGE_LOG, width * height)), version);
+        bands = (height + ROWS_PER_BAND - 1) / ROWS_PER_BAND;
+        dirtyBands = new AtomicLongArray((bands + 63) / 64);
+
+        assert TILE_SIZE % ROWS_PER_BAND == 0;
+        tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+        tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+        tileLocks = new StampedLock[tilesX * tilesY];
+        for (int i = 0; i < tileLocks.length; i++) {
+            tileLocks[i] = new StampedLock();
+        }
+    }
+
+    // Status of a square: FLAGGED, DUG or UNTOUCHED
+    private int status(int square) {
+        return (squares[square] & STATUS_MASK) >> STATUS_SHIFT;
+    }
+
+    // Change the status of a square from one value to another, atomically, with no tile lock needed
+    // returns false, changing nothing, if the square's status is not from
+    private boolean changeStatus(int square, int from, int to) {
+        while (true) {
+            byte state = (byte) SQUARE.getVolatile(squares, square);
+            if ((state & STATUS_MASK) >> STATUS_SHIFT != from) {
+                return false;
+            }
+            byte changed = (byte) ((state & ~STATUS_MASK) | (to << STATUS_SHIFT));
+            if (SQUARE.compareAndSet(squares, square, state, changed)) {
+                return true;
+            }
+            // another thread changed the square meanwhile: its status, or its mine count (a neighbour's
+            // mine was dug up), so look again
+        }
+    }
+
+    private boolean hasMine(int square) {
+        return (squares[square] & MINE) != 0;
+    }
+
+    // Number of mines around a square, from the cache
+    private int countMines(int square) {
+        return squares[square] & COUNT_MASK;
+    }
+
+    // Add delta to the mine count of every neighbour of (x, y)
+    // called with -1 when a mine is dug up (construction counts mines with countMines() instead)
+    private void addAdjacentMines(int x, int y, int delta) {
         //will go from -1,0,1
         for (int dx = -1; dx <= 1; dx++) {
             for (int dy = -1; dy <= 1; dy++) {
@@ -82,14 +421,12 @@ public class Board {
                 //skip self, and new coords must also be valid
                 //be careful of brackets here
                 if ((dx != 0 || dy != 0) && isValid(newX, newY)) {
-                    //increment the count if there exists a bomb
-                    if (hasMine[newX][newY]) {
-                        count++;
-                    }
+                    // the count is in the low bits and stays within 0-8, so we can add to the whole byte
+                    // atomically, as a flag may change the status bits of the same byte meanwhile
+                    SQUARE.getAndAdd(squares, newY * width + newX, (byte) delta);
                 }
             }
         }
-        return count;
     }
 
     /**
@@ -104,87 +441,468 @@ public class Board {
     * @return true if a bomb was hit, false otherwise
     */
     public boolean dig(int x, int y) {
-        //modifies the state, so we lock this method
-        synchronized (lock) {
-            // Can't dig if already dug or flagged, or if out of bounds
-            // must be untouched
-            if (!isValid(x, y)) {
-                return false;
-            }
+        return reveal(x, y).hitBomb();
+    }
+
+    /**
+    * Digs at specified coordinates exactly like dig(x, y), and also reports how many squares were revealed.
+    * 
+    * The cascade is an iterative flood fill driven by an explicit work queue rather than recursion,
+    * so it runs in constant stack depth and linear time, even when a dig opens up an entire huge board.
+    * 
+    * @param x X-coordinate to dig (horizontal)
+    * @param y Y-coordinate to dig (vertical)
+    * @return whether a bomb was hit, and how many squares went from untouched to dug
+    */
+    public DigResult reveal(int x, int y) {
+        // Can't dig if out of bounds
+        if (!isValid(x, y)) {
+            return DigResult.NOTHING;
+        }
+
+        Cascade cascade = new Cascade(changeLog.capacity());
+        boolean hitBomb = false;
+        int revealed = 0;
+
+        //modifies the state, so we lock the region around the square
+        // nothing is held yet, so we may block here
+        long locked = lockAll(region(x, y), cascade.held);
+        try {
+            //check if bomb before digging removes it
+            // (only digs change mines, and we hold the region, so it cannot change before we dig)
+            boolean mine = hasMine(y * width + x);
             // cant dig if already dug or flagged, must be untouched
-            if ((status[x][y] == 0) || (status[x][y] == 1)) {
-                return false;
+            if (digSquare(x, y, cascade)) {
+                hitBomb = mine;
+                revealed = 1 + flood(cascade);
+                changed(cascade);
+            }
+        } finally {
+            unlockAll(cascade.held, locked);
+        }
+
+        revealed += finish(cascade);
+        return new DigResult(hitBomb, revealed);
+    }
+
+    /**
+    * Apply several moves in order, as if by dig, flag and deflag, but locking the board only once for all of them
+    * and publishing them as one change (one new version), so that a player sending many moves at once does not
+    * pay for a lock acquisition, a version and a render per move.
+    * 
+    * Cascades are finished in tiles other players were busy with only after all the moves have been applied,
+    * so a later move of the batch may see a square untouched that a cascade of the batch digs afterwards.
+    * 
+    * @param moves moves to apply, in order; moves off the board are UNCHANGED
+    * @param stopAtBomb if true, moves after the first one that digs a mine are SKIPPED
+    * @return result of each move, in the same order
+    */
+    public Move.Result[] applyAll(List<Move> moves, boolean stopAtBomb) {
+        Move.Result[] results = new Move.Result[moves.size()];
+        Arrays.fill(results, Move.Result.SKIPPED);
+        Cascade cascade = new Cascade(changeLog.capacity());
+
+        //every tile any of the moves needs, so they can all be locked at once
+        // flags and deflags would not need their tiles, but holding them keeps renders from showing half a batch
+        // nothing is held yet, so we may block here
+        BitSet needed = new BitSet();
+        for (Move move : moves) {
+            if (!isValid(move.x(), move.y())) {
+                continue;
+            }
+            if (move.kind() == Move.Kind.DIG) {
+                needed.or(region(move.x(), move.y()));
+            } else {
+                needed.set((move.y() / TILE_SIZE) * tilesX + move.x() / TILE_SIZE);
+            }
+        }
+        long locked = lockAll(needed, cascade.held);
+        try {
+            for (int i = 0; i < results.length; i++) {
+                Move move = moves.get(i);
+                results[i] = apply(move, cascade);
+                if (results[i] == Move.Result.BOOM && stopAtBomb) {
+                    break;
+                }
+            }
+            if (!cascade.touched.isEmpty()) {
+                changed(cascade);
             }
+        } finally {
+            unlockAll(cascade.held, locked);
+        }
+        finish(cascade);
+        return results;
+    }
+
+    /*
+     * Apply one move of applyAll. Requires the tiles it needs to be locked.
+     */
+    private Move.Result apply(Move move, Cascade cascade) {
+        int x = move.x();
+        int y = move.y();
+        if (!isValid(x, y)) {
+            return Move.Result.UNCHANGED;
+        }
+        int square = y * width + x;
+        switch (move.kind()) {
+        case DIG:
+            boolean hitBomb = hasMine(square);
+            if (!digSquare(x, y, cascade)) {
+                return Move.Result.UNCHANGED;
+            }
+            flood(cascade);
+            return hitBomb ? Move.Result.BOOM : Move.Result.CHANGED;
+        case FLAG:
+            // other players flag without locks, so this must be atomic even though we hold the tile
+            if (!changeStatus(square, UNTOUCHED, FLAGGED)) {
+                return Move.Result.UNCHANGED;
+            }
+            stored(square);
+            break;
+        case DEFLAG:
+            if (!changeStatus(square, FLAGGED, UNTOUCHED)) {
+                return Move.Result.UNCHANGED;
+            }
+            stored(square);
+            break;
+        default:
+            throw new AssertionError(move.kind());
+        }
+        cascade.touched.set(y / ROWS_PER_BAND);
+        cascade.changed(square);
+        return Move.Result.CHANGED;
+    }
+
+    /*
+     * Finish a cascade, a round at a time, in tiles other players were using.
+     * Requires that no tile is held. Returns the number of squares dug.
+     */
+    private int finish(Cascade cascade) {
+        int revealed = 0;
+        while (!cascade.deferred.isEmpty()) {
+            BitSet squares = cascade.deferred;
+            cascade.deferred = new BitSet();
+
+            //lock every region we need at once, again in ascending order
+            BitSet needed = new BitSet();
+            for (int i = squares.nextSetBit(0); i >= 0; i = squares.nextSetBit(i + 1)) {
+                needed.or(region(i % width, i / width));
+            }
+            long locked = lockAll(needed, cascade.held);
+            try {
+                for (int i = squares.nextSetBit(0); i >= 0; i = squares.nextSetBit(i + 1)) {
+                    //someone may have dug or flagged it in the meantime
+                    if (digSquare(i % width, i / width, cascade)) {
+                        revealed++;
+                    }
+                }
+                revealed += flood(cascade);
+                if (!cascade.touched.isEmpty()) {
+                    changed(cascade);
+                }
+            } finally {
+                unlockAll(cascade.held, locked);
+            }
+        }
+        return revealed;
+    }
 
-            //make it dug
-            status[x][y] = 1;
-
-            //check if bomb and store the result
-            boolean hitBomb = false;
-            //bomb
-            if (hasMine[x][y]) {
-                //change to no bomb
-                hasMine[x][y] = false;
-                //TODO: if debug flag is missing, then terminate user's connection. take care of this in minesweeperServer
-                hitBomb = true;
-            }
-
-            //if adjacent all blank, trigger recursive blank digging
-            // we check for recursive digging regardless of whether theres a bomb or not
-            if (countMines(x, y) == 0) {
-                for (int dx = -1; dx <= 1; dx++) {
-                    for (int dy = -1; dy <= 1; dy++) {
-                        int newX = x + dx;
-                        int newY = y + dy;
-                        //skip self (cannot be both zero) and new box must be valid
-                        if ((dx != 0 || dy != 0) && isValid(newX, newY)) {
-                            //dig only the untouched squares
-                            if (status[newX][newY] == 2) {
-                                dig(newX, newY);
+    /*
+     * Dig one square if it is untouched, removing its mine if it has one.
+     * If it has no adjacent mines, queue it on work so the cascade continues from it.
+     * Records the squares and bands whose rendering this changes in the cascade.
+     * Requires the region of (x, y) to be locked.
+     * Returns false, changing nothing, if the square is not untouched, e.g. was just flagged by another player.
+     */
+    private boolean digSquare(int x, int y, Cascade cascade) {
+        int square = y * width + x;
+        //make it dug
+        // flags take no tile lock, so the square may have been flagged since the caller looked at it
+        if (!changeStatus(square, UNTOUCHED, DUG)) {
+            return false;
+        }
+        cascade.touched.set(y / ROWS_PER_BAND);
+        cascade.changed(square);
+        //a dug square never has a mine
+        // its neighbours, all in the region we hold, now see one mine less
+        // (which shows if they are dug, and they may be in the bands above or below)
+        if (hasMine(square)) {
+            SQUARE.getAndBitwiseAnd(squares, square, (byte) ~MINE);
+            addAdjacentMines(x, y, -1);
+            cascade.touched.set(Math.max(y - 1, 0) / ROWS_PER_BAND, Math.min(y + 1, height - 1) / ROWS_PER_BAND + 1);
+            //only the dug ones look different, but clients can skip the rest
+            for (int dx = -1; dx <= 1; dx++) {
+                for (int dy = -1; dy <= 1; dy++) {
+                    if ((dx != 0 || dy != 0) && isValid(x + dx, y + dy)) {
+                        cascade.changed((y + dy) * width + x + dx);
+                    }
+                }
+            }
+        }
+        stored(square);
+        //if adjacent all blank, its neighbours get dug too
+        // we check for this regardless of whether there was a bomb or not
+        if (countMines(square) == 0) {
+            cascade.work.add(square);
+        }
+        return true;
+    }
+
+    /*
+     * Flood fill: dig every untouched neighbour of every square in the cascade's work queue,
+     * until it is empty.
+     * Requires the region of every square in work to be locked (recorded in held).
+     * Neighbours whose region cannot be locked without waiting are added to deferred,
+     * as square index y * width + x, instead of being dug.
+     * Each square is dug, and so queued, at most once, so this is linear in the squares revealed.
+     * Returns the number of squares dug.
+     */
+    private int flood(Cascade cascade) {
+        int revealed = 0;
+        while (!cascade.work.isEmpty()) {
+            int square = cascade.work.remove();
+            int x = square % width;
+            int y = square / width;
+            for (int dx = -1; dx <= 1; dx++) {
+                for (int dy = -1; dy <= 1; dy++) {
+                    int newX = x + dx;
+                    int newY = y + dy;
+                    //skip self (cannot be both zero) and new box must be valid
+                    // the neighbour lies in the region of (x, y), so we may read its status
+                    if ((dx != 0 || dy != 0) && isValid(newX, newY) && status(newY * width + newX) == UNTOUCHED) {
+                        //dig it if we can get its region without waiting, else leave it for later
+                        if (tryLockRegion(newX, newY, cascade.held)) {
+                            if (digSquare(newX, newY, cascade)) {
+                                revealed++;
                             }
+                        } else {
+                            cascade.deferred.set(newY * width + newX);
                         }
+                    }
+                }
+            }
+        }
+        return revealed;
+    }
 
+    /*
+     * Returns the indices of the tiles touching the 3x3 neighbourhood of (x, y).
+     */
+    private BitSet region(int x, int y) {
+        BitSet tiles = new BitSet();
+        int minTileX = Math.max(x - 1, 0) / TILE_SIZE;
+        int maxTileX = Math.min(x + 1, width - 1) / TILE_SIZE;
+        int minTileY = Math.max(y - 1, 0) / TILE_SIZE;
+        int maxTileY = Math.min(y + 1, height - 1) / TILE_SIZE;
+        for (int tileY = minTileY; tileY <= maxTileY; tileY++) {
+            for (int tileX = minTileX; tileX <= maxTileX; tileX++) {
+                tiles.set(tileY * tilesX + tileX);
+            }
+        }
+        return tiles;
+    }
+
+    /*
+     * Lock every tile in tiles that is not yet in held, blocking, in ascending index order.
+     * Requires that held is empty, so we can never wait while holding a lock.
+     * Returns the time the last lock was taken, for unlockAll.
+     */
+    private long lockAll(BitSet tiles, BitSet held) {
+        assert held.isEmpty();
+        long start = System.nanoTime();
+        for (int i = tiles.nextSetBit(0); i >= 0; i = tiles.nextSetBit(i + 1)) {
+            tileLocks[i].writeLock();
+            held.set(i);
+        }
+        return waited(start);
+    }
+
+    /*
+     * Try to lock the tiles of the region of (x, y) that are not yet in held, without waiting.
+     * Returns true and adds them to held if all could be locked;
+     * otherwise releases the ones it just took and returns false.
+     * Called for every square of a cascade, where the tiles are nearly always held already,
+     * so that case is checked first without allocating anything.
+     */
+    private boolean tryLockRegion(int x, int y, BitSet held) {
+        int minTileX = Math.max(x - 1, 0) / TILE_SIZE;
+        int maxTileX = Math.min(x + 1, width - 1) / TILE_SIZE;
+        int minTileY = Math.max(y - 1, 0) / TILE_SIZE;
+        int maxTileY = Math.min(y + 1, height - 1) / TILE_SIZE;
+
+        boolean allHeld = true;
+        for (int tileY = minTileY; tileY <= maxTileY; tileY++) {
+            for (int tileX = minTileX; tileX <= maxTileX; tileX++) {
+                allHeld &= held.get(tileY * tilesX + tileX);
+            }
+        }
+        if (allHeld) {
+            return true;
+        }
+
+        //a region has at most 4 tiles
+        int[] taken = new int[4];
+        int count = 0;
+        for (int tileY = minTileY; tileY <= maxTileY; tileY++) {
+            for (int tileX = minTileX; tileX <= maxTileX; tileX++) {
+                int tile = tileY * tilesX + tileX;
+                if (held.get(tile)) {
+                    continue;
+                }
+                if (tileLocks[tile].tryWriteLock() == 0) {
+                    //give back what we took, we will retry this square in a later round
+                    for (int i = 0; i < count; i++) {
+                        tileLocks[taken[i]].tryUnlockWrite();
+                        held.clear(taken[i]);
                     }
+                    return false;
                 }
+                held.set(tile);
+                taken[count++] = tile;
             }
-            return hitBomb;
         }
+        return true;
+    }
+
+    /*
+     * Unlock every tile in held, taken at time locked by lockAll, and clear it.
+     */
+    private void unlockAll(BitSet held, long locked) {
+        for (int i = held.nextSetBit(0); i >= 0; i = held.nextSetBit(i + 1)) {
+            tileLocks[i].tryUnlockWrite();
+        }
+        held.clear();
+        lockHolds.record(System.nanoTime() - locked);
+    }
+
+    /*
+     * Record the time since start, when we began waiting for locks, as a lock wait.
+     * Returns the current time, when the locks were taken.
+     */
+    private long waited(long start) {
+        long now = System.nanoTime();
+        lockWaits.record(now - start);
+        return now;
+    }
+
+    /*
+     * Returns the lock of the tile containing (x, y).
+     */
+    private StampedLock tileLock(int x, int y) {
+        return tileLocks[(y / TILE_SIZE) * tilesX + x / TILE_SIZE];
     }
 
     // Flag a square
     // returns true if successfully flagged
-    // synchronized method
+    // takes no tile lock: the change from untouched to flagged is a single compareAndSet
+    // (then appending to the change log, which is synchronized)
     public boolean flag(int x, int y) {
-        synchronized (lock) {
-            //if in bound, and is untouched
-            if (isValid(x, y) && status[x][y] == 2) {
-                //change to flag
-                status[x][y] = 0;
-                return true;
-            }
-            //not in bounds or unable to flag
-            else {
-                return false;
-            }
+        //not in bounds
+        if (!isValid(x, y)) {
+            return false;
         }
+        //change to flag, if untouched
+        int square = y * width + x;
+        if (!changeStatus(square, UNTOUCHED, FLAGGED)) {
+            //unable to flag
+            return false;
+        }
+        stored(square);
+        changed(square);
+        return true;
     }
 
     // deflag a square
     // returns true if successfully deflagged
-    // synchronized method
+    // takes no tile lock: the change from flagged to untouched is a single compareAndSet
+    // (then appending to the change log, which is synchronized)
     public boolean deflag(int x, int y) {
-        synchronized (lock) {
-            //if in bound, and is flagged
-            if (isValid(x, y) && status[x][y] == 0) {
-                //change to untouched
-                status[x][y] = 2;
-                return true;
+        //not in bounds
+        if (!isValid(x, y)) {
+            return false;
+        }
+        //change to untouched, if flagged
+        int square = y * width + x;
+        if (!changeStatus(square, FLAGGED, UNTOUCHED)) {
+            //unable to deflag
+            return false;
+        }
+        stored(square);
+        changed(square);
+        return true;
+    }
+
+    /*
+     * Working state of one dig, confined to the digging thread.
+     */
+    private static class Cascade {
+        //tiles currently locked by this dig
+        final BitSet held = new BitSet();
+        //dug squares with no adjacent mines, whose neighbours the cascade still has to dig
+        final SquareQueue work = new SquareQueue();
+        //squares the cascade wanted to dig, but whose tiles were busy
+        BitSet deferred = new BitSet();
+        //bands containing squares changed in this round, published as dirty at the end of each round
+        final BitSet touched = new BitSet();
+
+        //squares changed in this round, for the change log
+        // a round changing more than the log holds is not logged anyway, so we stop listing then
+        private final int limit;
+        private int[] changed = new int[16];
+        private int count = 0;
+        private boolean overflowed = false;
+
+        Cascade(int limit) {
+            this.limit = limit;
+        }
 
+        void changed(int square) {
+            if (count == limit) {
+                overflowed = true;
+                return;
             }
-            //not in bounds or unable to flag
-            else {
-                return false;
+            if (count == changed.length) {
+                changed = Arrays.copyOf(changed, Math.min(count * 2, limit));
             }
+            changed[count++] = square;
+        }
+    }
+
+    /*
+     * Growable FIFO queue of square indices, stored in a ring buffer of ints
+     * so that a flood fill over millions of squares does not box millions of Integers.
+     * Breadth-first order keeps the queue about as long as the perimeter of the dug area.
+     */
+    private static class SquareQueue {
+        private int[] squares = new int[64];
+        //index of the first element, and number of elements
+        private int head = 0;
+        private int size = 0;
+
+        void add(int square) {
+            if (size == squares.length) {
+                //unroll the ring into a buffer twice as big
+                int[] bigger = new int[squares.length * 2];
+                for (int i = 0; i < size; i++) {
+                    bigger[i] = squares[(head + i) % squares.length];
+                }
+                squares = bigger;
+                head = 0;
+            }
+            squares[(head + size) % squares.length] = square;
+            size++;
+        }
+
+        int remove() {
+            int square = squares[head];
+            head = (head + 1) % squares.length;
+            size--;
+            return square;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
         }
     }
 
@@ -195,51 +913,331 @@ public class Board {
         return (x >= 0 && x < width && y >= 0 && y < height);
     }
 
-    // Convert board to string for display
-    @Override
-    public String toString() {
-        StringBuilder board = new StringBuilder();
+    /*
+     * Tell the store, if any, that the status or mine of a square changed. Must be called after writing it.
+     */
+    private void stored(int square) {
+        BoardStore store = this.store;
+        if (store != null) {
+            store.changed(square);
+        }
+    }
 
-        //traverse vertically
-        for (int y = 0; y < height; y++) {
-            //build along one row, horizontally
-            for (int x = 0; x < width; x++) {
-                //flagged
-                if (status[x][y] == 0) {
-                    board.append("F");
+    /*
+     * For BoardStore: the current state of a square, as its status and mine without the mine count.
+     */
+    byte state(int square) {
+        return (byte) ((byte) SQUARE.getVolatile(squares, square) & (STATUS_MASK | MINE));
+    }
+
+    /*
+     * For BoardStore: start (or with null, stop) handing it every change.
+     */
+    void setStore(BoardStore store) {
+        this.store = store;
+    }
+
+    /*
+     * For BoardStore: the state of every square, as its status and mine without the mine count.
+     * Squares are read without their locks, so a square changing meanwhile may show its old or its new
+     * state; but every change handed to the store before the caller last took the store's lock shows,
+     * since handing it a change takes that lock too.
+     */
+    byte[] states() {
+        byte[] states = new byte[squares.length];
+        for (int square = 0; square < squares.length; square++) {
+            states[square] = (byte) (squares[square] & (STATUS_MASK | MINE));
+        }
+        return states;
+    }
+
+    /*
+     * Record that one square has changed. Must be called after writing it.
+     */
+    private void changed(int square) {
+        markDirty(square / width / ROWS_PER_BAND);
+        publish(changeLog.append(square));
+    }
+
+    /*
+     * Record the squares and bands a round of a cascade changed, and start the next round.
+     * Must be called after writing them.
+     */
+    private void changed(Cascade cascade) {
+        BitSet touched = cascade.touched;
+        for (int band = touched.nextSetBit(0); band >= 0; band = touched.nextSetBit(band + 1)) {
+            markDirty(band);
+        }
+        touched.clear();
+        long version = changeLog.append(cascade.changed, cascade.count, !cascade.overflowed);
+        cascade.count = 0;
+        cascade.overflowed = false;
+        publish(version);
+    }
+
+    private void publish(long version) {
+        for (LongConsumer listener : listeners) {
+            listener.accept(version);
+        }
+    }
+
+    /**
+     * Register a listener to be told after every change to the board, e.g. to push updates to watching players.
+     * Listeners are called with the new version(), on the thread that made the change and possibly while it
+     * holds locks of the board, so they must return quickly without blocking, and must not call the board.
+     * 
+     * @param listener listener to add
+     */
+    public void addListener(LongConsumer listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Stop calling a listener added with addListener. It may still be called by changes already under way.
+     * 
+     * @param listener listener to remove
+     */
+    public void removeListener(LongConsumer listener) {
+        listeners.remove(listener);
+    }
+
+    private void markDirty(int band) {
+        dirtyBands.accumulateAndGet(band / 64, 1L << (band % 64), (bits, bit) -> bits | bit);
+    }
+
+    /**
+     * @return current version of the board; it increases every time a dig, flag or deflag changes
+     *         a square, and never changes otherwise
+     */
+    public long version() {
+        return changeLog.version();
+    }
+
+    /**
+     * @return how long digs and batches of moves have waited for the locks they needed, in nanoseconds;
+     *         shared with the board, which keeps recording into it
+     */
+    public LatencyHistogram lockWaits() {
+        return lockWaits;
+    }
+
+    /**
+     * @return how long digs and batches of moves have held the locks they took, in nanoseconds;
+     *         shared with the board, which keeps recording into it
+     */
+    public LatencyHistogram lockHolds() {
+        return lockHolds;
+    }
+
+    /**
+     * Find what changed on the board since an earlier version, so a client that has already
+     * seen the board at that version can catch up without fetching all of it again.
+     * Only the last few changes are remembered (at least MAX_CHANGE_LOG squares' worth on big boards,
+     * fewer on small ones); older versions must fetch the whole board with render().
+     * 
+     * @param since a version previously returned by version() or render().version()
+     * @return every square that changed after version since, with how it looks now, up to at least
+     *         the version current when called; or empty if the board no longer remembers that far back,
+     *         or since is not a version of this board
+     */
+    public Optional<Changes> changesSince(long since) {
+        long now;
+        int[] changed;
+        //the version and the squares must come from the same state of the log
+        synchronized (changeLog) {
+            now = changeLog.version();
+            changed = changeLog.squaresSince(since);
+        }
+        if (changed == null) {
+            return Optional.empty();
+        }
+        //read after the log, so the symbols are at least as new as now
+        // (a square may show a later change too, which a later call will report again)
+        byte[] symbols = new byte[changed.length];
+        for (int i = 0; i < changed.length; i++) {
+            symbols[i] = readSymbol(changed[i]);
+        }
+        return Optional.of(new Changes(since, now, width, changed, symbols));
+    }
+
+    /**
+     * Render the board as the bytes sent to clients.
+     * Between changes every caller gets the same Rendering, so the board is only rendered
+     * once per version however many players look at it. After a change, only the bands of
+     * ROWS_PER_BAND rows that contain changed squares are rendered again; the rest are shared
+     * with the previous Rendering.
+     * 
+     * @return rendering of the board, with version() at least the board version when called
+     */
+    public Rendering render() {
+        Rendering current = cached;
+        if (current != null && current.version() == changeLog.version()) {
+            return current;
+        }
+        synchronized (renderLock) {
+            // someone else may have rendered while we waited
+            current = cached;
+            long now = changeLog.version();
+            if (current != null && current.version() == now) {
+                return current;
+            }
+            // read the version *before* clearing the dirty bits, see the thread-safety argument
+            byte[][] rendered;
+            if (current == null) {
+                //first render: every band
+                takeDirtyBands();
+                rendered = new byte[bands][];
+                for (int band = 0; band < bands; band++) {
+                    rendered[band] = renderBand(band);
                 }
-                //untouched
-                else if (status[x][y] == 2) {
-                    board.append("-");
+            } else {
+                //patch: share the clean bands, render the dirty ones
+                rendered = current.bands();
+                BitSet dirty = takeDirtyBands();
+                for (int band = dirty.nextSetBit(0); band >= 0; band = dirty.nextSetBit(band + 1)) {
+                    rendered[band] = renderBand(band);
                 }
-                // tried to dig before/blank recursive dig
-                else {
-                    //surrounding number of mines
-                    int mines = countMines(x, y);
-                    //dug before
-                    if (status[x][y] == 1) {
-                        //0 neighbour bombs
-                        if (mines == 0) {
-                            board.append(" ");
-                        }
-                        // some neighbour bombs
-                        else {
-                            board.append(Integer.toString(mines));
-                        }
-                    }
-                    //shouldnt go here
-                    else {
-                        System.out.println(
-                                "Debug: Unexpected status " + status[x][y] + " at position [" + x + "][" + y + "]");
-                    }
+            }
+            current = new Rendering(now, width, height, rendered, current);
+            cached = current;
+            return current;
+        }
+    }
+
+    /*
+     * Atomically clear every dirty bit, returning the bands that were dirty.
+     */
+    private BitSet takeDirtyBands() {
+        BitSet dirty = new BitSet(bands);
+        for (int word = 0; word < dirtyBands.length(); word++) {
+            //cheap read first, most words are clean
+            if (dirtyBands.get(word) != 0) {
+                //one set bit at a time, lowest first
+                for (long bits = dirtyBands.getAndSet(word, 0); bits != 0; bits &= bits - 1) {
+                    dirty.set(word * 64 + Long.numberOfTrailingZeros(bits));
                 }
+            }
+        }
+        return dirty;
+    }
+
+    /*
+     * Render the rows of one band into a new byte array, showing every change made to its tiles
+     * either completely or not at all.
+     * The band is rendered optimistically, without locking, and the render is kept if no writer locked
+     * any of its tiles meanwhile; after OPTIMISTIC_RENDERS failed tries, the tiles are read-locked instead,
+     * holding off writers for the time of one band. Requires holding no tile lock.
+     */
+    private byte[] renderBand(int band) {
+        // a band is in a single row of tiles, see ROWS_PER_BAND
+        int firstTile = (band * ROWS_PER_BAND / TILE_SIZE) * tilesX;
+        long[] stamps = new long[tilesX];
+        for (int attempt = 0; attempt < OPTIMISTIC_RENDERS; attempt++) {
+            boolean unlocked = true;
+            for (int tileX = 0; tileX < tilesX; tileX++) {
+                //0 if a writer holds the tile right now, then we need not even try
+                stamps[tileX] = tileLocks[firstTile + tileX].tryOptimisticRead();
+                unlocked &= stamps[tileX] != 0;
+            }
+            if (!unlocked) {
+                Thread.onSpinWait();
+                continue;
+            }
+            byte[] bytes = renderRows(band);
+            boolean valid = true;
+            for (int tileX = 0; tileX < tilesX; tileX++) {
+                valid &= tileLocks[firstTile + tileX].validate(stamps[tileX]);
+            }
+            if (valid) {
+                return bytes;
+            }
+        }
+        //too busy: block writers of this band while we render it, taking the locks in ascending order
+        for (int tileX = 0; tileX < tilesX; tileX++) {
+            stamps[tileX] = tileLocks[firstTile + tileX].readLock();
+        }
+        try {
+            return renderRows(band);
+        } finally {
+            for (int tileX = 0; tileX < tilesX; tileX++) {
+                tileLocks[firstTile + tileX].unlockRead(stamps[tileX]);
+            }
+        }
+    }
+
+    /*
+     * Render the rows of one band into a new byte array: squares separated by spaces,
+     * each row terminated by '\n'. Reads the squares without locking.
+     */
+    private byte[] renderRows(int band) {
+        int firstRow = band * ROWS_PER_BAND;
+        int lastRow = Math.min(firstRow + ROWS_PER_BAND, height);
+        //each square is one character plus a space, or the newline at the end of its row
+        int rowLength = width == 0 ? 1 : 2 * width;
+        byte[] bytes = new byte[rowLength * (lastRow - firstRow)];
+        int pos = 0;
+
+        //traverse vertically
+        for (int y = firstRow; y < lastRow; y++) {
+            //build along one row, horizontally; the row is contiguous in squares
+            int rowStart = y * width;
+            for (int x = 0; x < width; x++) {
+                bytes[pos++] = symbol(rowStart + x);
                 if (x < width - 1)
-                    board.append(" ");
+                    bytes[pos++] = ' ';
             }
-            if (y < height - 1)
-                board.append("\n");
+            bytes[pos++] = '\n';
         }
+        return bytes;
+    }
+
+    /*
+     * Symbol of a square, read optimistically like renderBand does, or else under the read lock of its tile.
+     * Requires holding no tile lock.
+     */
+    private byte readSymbol(int square) {
+        StampedLock lock = tileLock(square % width, square / width);
+        long stamp = lock.tryOptimisticRead();
+        byte symbol = symbol(square);
+        if (stamp != 0 && lock.validate(stamp)) {
+            return symbol;
+        }
+        stamp = lock.readLock();
+        try {
+            return symbol(square);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
 
-        return board.toString();
+    /*
+     * The character a client sees for a square.
+     */
+    private byte symbol(int square) {
+        int status = status(square);
+        //flagged
+        if (status == FLAGGED) {
+            return 'F';
+        }
+        //untouched
+        else if (status == UNTOUCHED) {
+            return '-';
+        }
+        // tried to dig before/blank recursive dig
+        //surrounding number of mines
+        int mines = countMines(square);
+        //0 neighbour bombs
+        if (mines == 0) {
+            return ' ';
+        }
+        // some neighbour bombs; counts are single digits 1-8
+        return (byte) ('0' + mines);
+    }
+
+    // Convert board to string for display
+    // same text as render(), without the newline after the last row
+    @Override
+    public String toString() {
+        return render().toString();
     }
 }
@@ -0,0 +1,302 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.IntConsumer;
+
+/**
+ * Reads and writes board files: which squares of a board have mines.
+ *
+ * Two formats are understood. The text format is the one documented in MinesweeperServer.main:
+ * <pre>
+ *   FILE ::= BOARD LINE+
+ *   BOARD ::= X SPACE Y NEWLINE
+ *   LINE ::= (VAL SPACE)* VAL NEWLINE
+ *   VAL ::= 0 | 1
+ * </pre>
+ * (the NEWLINE after the last LINE may be left out, and anything after the last LINE is ignored).
+ * It is read in fixed-size chunks and parsed byte by byte straight into the board's squares,
+ * so loading a board of millions of squares does not make a String, String[] or int[] per line or mine;
+ * the squares count their neighbouring mines once the whole file is read, a row at a time in parallel.
+ *
+ * The binary format stores the same bitmap as it is, for fast restarts with big boards:
+ * <pre>
+ *   BINARY_FILE ::= MAGIC X Y MINES
+ * </pre>
+ * where MAGIC is the 4 ASCII bytes "MSB1", X and Y are 4 byte big-endian ints, and MINES is
+ * ceil(X * Y / 8) bytes in which bit (y * X + x) % 8 of byte (y * X + x) / 8 is 1 iff there is a mine
+ * at (x, y). Binary files are memory-mapped rather than read. Convert a text file with
+ * "java -cp bin minesweeper.BoardFile TEXT_FILE BINARY_FILE".
+ */
+public final class BoardFile {
+
+    /** First bytes of a binary board file. */
+    private static final byte[] MAGIC = "MSB1".getBytes(StandardCharsets.US_ASCII);
+    /** Bytes before the mines in a binary board file. */
+    private static final int BINARY_HEADER_LENGTH = MAGIC.length + 8;
+    /** Bytes read from a text board file at a time. */
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private BoardFile() {
+        // not meant to be instantiated
+    }
+
+    /**
+     * Load a board from a file in either format.
+     *
+     * @param file text or binary board file
+     * @return a new board, with every square untouched, and mines where the file says
+     * @throws IOException if the file cannot be read, or is in neither format
+     */
+    public static Board load(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (isBinary(channel)) {
+                return loadBinary(channel);
+            }
+            return new TextParser(channel).parse();
+        }
+    }
+
+    /*
+     * Check whether a file starts with MAGIC, leaving its position at 0.
+     */
+    private static boolean isBinary(FileChannel channel) throws IOException {
+        ByteBuffer start = ByteBuffer.allocate(MAGIC.length);
+        while (start.hasRemaining() && channel.read(start) != -1) {
+        }
+        channel.position(0);
+        return !start.hasRemaining() && Arrays.equals(start.array(), MAGIC);
+    }
+
+    /*
+     * Load a board from a binary file, setting the mines straight from the mapped file into the board.
+     */
+    private static Board loadBinary(FileChannel channel) throws IOException {
+        if (channel.size() < BINARY_HEADER_LENGTH) {
+            throw new IOException("binary board file is too short");
+        }
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        mapped.order(ByteOrder.BIG_ENDIAN);
+        int width = mapped.getInt(MAGIC.length);
+        int height = mapped.getInt(MAGIC.length + 4);
+        if (width < 0 || height < 0) {
+            throw new IOException("board size " + width + "x" + height + " is negative");
+        }
+        long bitmapLength = ((long) width * height + 7) / 8;
+        if (channel.size() != BINARY_HEADER_LENGTH + bitmapLength) {
+            throw new IOException("binary board file should have " + (BINARY_HEADER_LENGTH + bitmapLength)
+                    + " bytes for a " + width + "x" + height + " board, but has " + channel.size());
+        }
+        Board board;
+        try {
+            board = Board.blank(width, height);
+        } catch (IllegalArgumentException iae) {
+            throw new IOException("invalid binary board file", iae);
+        }
+        int squares = width * height;
+        for (int i = 0; i < bitmapLength; i++) {
+            // bit b of byte i is square 8 * i + b; most bytes of a board have no mine
+            int bits = mapped.get(BINARY_HEADER_LENGTH + i) & 0xFF;
+            while (bits != 0) {
+                int square = 8 * i + Integer.numberOfTrailingZeros(bits);
+                if (square >= squares) {
+                    throw new IOException("invalid binary board file: mine at square " + square
+                            + " is not on the board");
+                }
+                board.layMine(square);
+                bits &= bits - 1;
+            }
+        }
+        board.countMines();
+        return board;
+    }
+
+    /**
+     * Write a board file in the binary format.
+     *
+     * @param width number of columns
+     * @param height number of rows
+     * @param mines bit y * width + x is set iff there is a mine at (x, y); requires no bit set past width * height
+     * @param file file to create, or overwrite
+     * @throws IOException if the file cannot be written
+     */
+    public static void writeBinary(int width, int height, BitSet mines, File file) throws IOException {
+        long bitmapLength = ((long) width * height + 7) / 8;
+        ByteBuffer header = ByteBuffer.allocate(BINARY_HEADER_LENGTH);
+        header.put(MAGIC).putInt(width).putInt(height).flip();
+        // toByteArray() leaves out trailing zero bytes
+        ByteBuffer bitmap = ByteBuffer.allocate((int) bitmapLength);
+        bitmap.put(mines.toByteArray()).position(0);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer[] buffers = { header, bitmap };
+            while (header.hasRemaining() || bitmap.hasRemaining()) {
+                channel.write(buffers);
+            }
+        }
+    }
+
+    /**
+     * Convert a text board file to a binary one.
+     *
+     * @param args the text file to read, then the binary file to write
+     * @throws IOException if a file cannot be read or written, or the text file is invalid
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("usage: BoardFile TEXT_FILE BINARY_FILE");
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(new File(args[0]).toPath(), StandardOpenOption.READ)) {
+            TextParser parser = new TextParser(channel);
+            parser.parseSize();
+            BitSet mines = new BitSet();
+            parser.parseMines(mines::set);
+            writeBinary(parser.width, parser.height, mines, new File(args[1]));
+        }
+    }
+
+    /**
+     * Streaming parser of the text format, reading a chunk of the file at a time.
+     */
+    private static class TextParser {
+        private final FileChannel channel;
+        private final ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+        // line of the file being parsed, for error messages
+        private long line = 1;
+        private int width;
+        private int height;
+
+        TextParser(FileChannel channel) {
+            this.channel = channel;
+            chunk.limit(0);
+        }
+
+        /*
+         * Parse the whole file into a Board.
+         */
+        Board parse() throws IOException {
+            parseSize();
+            Board board = Board.blank(width, height);
+            parseMines(board::layMine);
+            board.countMines();
+            return board;
+        }
+
+        /*
+         * Parse the first line of the file, setting width and height.
+         */
+        void parseSize() throws IOException {
+            width = parseInt();
+            expect(' ');
+            height = parseInt();
+            if ((long) width * height > Integer.MAX_VALUE) {
+                throw new IOException("board " + width + "x" + height + " has too many squares");
+            }
+            newline();
+        }
+
+        /*
+         * Parse the rest of the file, after parseSize(), giving mine the index y * width + x of every mine.
+         */
+        void parseMines(IntConsumer mine) throws IOException {
+            int square = 0;
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int value = next();
+                    if (value == '1') {
+                        mine.accept(square);
+                    } else if (value != '0') {
+                        throw error("expected 0 or 1");
+                    }
+                    square++;
+                    if (x < width - 1) {
+                        expect(' ');
+                    }
+                }
+                // the last line may end the file instead
+                if (y < height - 1 || peek() != -1) {
+                    newline();
+                }
+            }
+        }
+
+        /*
+         * Next byte of the file, or -1 at its end.
+         */
+        private int next() throws IOException {
+            int b = peek();
+            if (b != -1) {
+                chunk.get();
+            }
+            return b;
+        }
+
+        /*
+         * Next byte of the file without consuming it, or -1 at its end.
+         */
+        private int peek() throws IOException {
+            if (!chunk.hasRemaining()) {
+                chunk.clear();
+                int read = channel.read(chunk);
+                chunk.flip();
+                if (read <= 0) {
+                    return -1;
+                }
+            }
+            return chunk.get(chunk.position()) & 0xFF;
+        }
+
+        private void expect(char expected) throws IOException {
+            if (next() != expected) {
+                throw error("expected '" + expected + "'");
+            }
+        }
+
+        // NEWLINE ::= "\n" | "\r" "\n"?
+        private void newline() throws IOException {
+            int b = next();
+            if (b == '\r') {
+                if (peek() == '\n') {
+                    next();
+                }
+            } else if (b != '\n') {
+                throw error("expected end of line");
+            }
+            line++;
+        }
+
+        // INT ::= [0-9]+, and fitting in an int
+        private int parseInt() throws IOException {
+            long value = 0;
+            int digits = 0;
+            for (int b = peek(); b >= '0' && b <= '9'; b = peek()) {
+                next();
+                value = value * 10 + (b - '0');
+                if (value > Integer.MAX_VALUE) {
+                    throw error("number too big");
+                }
+                digits++;
+            }
+            if (digits == 0) {
+                throw error("expected a number");
+            }
+            return (int) value;
+        }
+
+        private IOException error(String message) {
+            return new IOException("line " + line + " of board file: " + message);
+        }
+    }
+}
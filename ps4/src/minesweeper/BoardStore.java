@@ -0,0 +1,457 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps a Board on disk, so that the game survives the server restarting.
+ *
+ * A store is a directory holding a snapshot of the board, and a write-ahead log of the squares changed
+ * since the snapshot was taken. Every square a move changes (its status, and whether it still has a mine)
+ * is logged as the board tells the store about it, by reading the square's new state and appending it to a buffer
+ * in memory; a committer thread writes the buffer to the log and fsyncs it every COMMIT_INTERVAL_MILLIS,
+ * so moves never wait for the disk, and one fsync covers every move made meanwhile ("group commit").
+ * A crash loses at most the moves of the last COMMIT_INTERVAL_MILLIS or so.
+ *
+ * Once SNAPSHOT_RECORDS squares have been logged, the committer takes a new snapshot, starts a new log
+ * segment, and deletes the older ones, so the log never grows much and recovery replays little of it.
+ * On open, the board is rebuilt from the snapshot and the log, and a new snapshot is taken at once.
+ *
+ * Files, all numbers big-endian:
+ * <pre>
+ *   snapshot    ::= MAGIC WIDTH HEIGHT VERSION SEGMENT STATE{WIDTH * HEIGHT}
+ *   log-SEGMENT ::= BATCH*
+ *   BATCH       ::= LENGTH CRC VERSION RECORD{LENGTH / 5}
+ *   RECORD      ::= SQUARE STATE
+ * </pre>
+ * where MAGIC is "MSS1", WIDTH, HEIGHT, LENGTH and SQUARE are 4 byte ints, VERSION and SEGMENT 8 byte
+ * longs, CRC the 4 byte CRC-32 of the VERSION and RECORDs of its batch, and STATE one byte as returned by
+ * Board.states(). The snapshot names the first log segment to replay after it. A batch that is cut short
+ * or fails its CRC (a write torn by a crash) ends the log.
+ *
+ * Thread-safety argument:
+ *   pending, spare, records and closed are guarded by this object's monitor, which is held only briefly,
+ *   to append a record or swap the buffers, so moves never wait for the disk.
+ *   segment and log are only used while holding commitLock, so only one thread writes files at a time.
+ *   See Board.states() for why a snapshot taken while players move is still consistent with the log.
+ */
+public final class BoardStore implements Closeable {
+
+    /** Longest time a change waits in memory before it is written to the log and fsynced. */
+    static final long COMMIT_INTERVAL_MILLIS = 10;
+    /** Number of squares logged after which a new snapshot is taken. */
+    static final long SNAPSHOT_RECORDS = 1 << 20;
+
+    private static final byte[] SNAPSHOT_MAGIC = "MSS1".getBytes(StandardCharsets.US_ASCII);
+    private static final int SNAPSHOT_HEADER_LENGTH = SNAPSHOT_MAGIC.length + 24;
+    private static final String SNAPSHOT = "snapshot";
+    private static final String SEGMENT_PREFIX = "log-";
+    private static final int BATCH_HEADER_LENGTH = 16;
+    private static final int RECORD_LENGTH = 5;
+    // buffered bytes at which the committer is woken up early, so the buffer stays small
+    private static final int EAGER_COMMIT_LENGTH = 1 << 16;
+
+    private final File directory;
+    private final Board board;
+    private final Thread committer;
+
+    // records handed over but not yet written to the log are pending[0..pendingLength)
+    private byte[] pending = new byte[1024];
+    private int pendingLength = 0;
+    // buffer the committer has finished writing, reused as the next pending buffer
+    private byte[] spare = new byte[1024];
+    // records handed over since the last snapshot
+    private long records = 0;
+    private boolean closed = false;
+
+    private final Object commitLock = new Object();
+    // the log segment being written, log-segment in directory; null until the first snapshot
+    private long segment;
+    private FileChannel log;
+
+    // Abstraction function:
+    //   represents board, persisted in directory as its snapshot and the log segments from the one it names
+    //   up to segment, followed by the records pending[0..pendingLength) not yet written to them
+    // Rep invariant:
+    //   0 <= pendingLength <= pending.length, and pendingLength is a multiple of RECORD_LENGTH
+    //   records >= 0
+    // Safety from rep exposure:
+    //   all fields are private; board is handed out on purpose, it is the game itself
+
+    /*
+     * Make a store of board in directory, writing to segment after the next snapshot.
+     */
+    private BoardStore(File directory, Board board, long segment) {
+        this.directory = directory;
+        this.board = board;
+        this.segment = segment;
+        this.committer = new Thread(this::commitLoop, "board-store-committer " + directory);
+        committer.setDaemon(true);
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert 0 <= pendingLength && pendingLength <= pending.length && pendingLength % RECORD_LENGTH == 0;
+        assert records >= 0;
+    }
+
+    /**
+     * Open the store in a directory: recover its board if it has one, else start storing a new board there.
+     * From now on, every change to the board is logged, until the store is closed.
+     *
+     * @param directory directory of the store, created if it does not exist
+     * @param initial makes the board to store if the directory has none yet; not called otherwise, so a
+     *                recovered board keeps its own size and mines
+     * @return the store, holding the recovered or initial board
+     * @throws IOException if the directory cannot be read or written, or its snapshot is invalid
+     */
+    public static BoardStore open(File directory, Supplier<Board> initial) throws IOException {
+        return open(directory, initial, true);
+    }
+
+    /*
+     * Like open(directory, initial), but with no committer thread if !background, for tests that commit by hand.
+     */
+    static BoardStore open(File directory, Supplier<Board> initial, boolean background) throws IOException {
+        Files.createDirectories(directory.toPath());
+        Board board;
+        long segment;
+        File snapshot = new File(directory, SNAPSHOT);
+        if (snapshot.isFile()) {
+            Recovery recovery = new Recovery(directory);
+            board = recovery.board();
+            segment = recovery.lastSegment;
+        } else {
+            board = initial.get();
+            segment = 0;
+        }
+        BoardStore store = new BoardStore(directory, board, segment);
+        board.setStore(store);
+        // the old segments are replaced by the snapshot, so next time there is nothing to replay
+        store.snapshot();
+        if (background) {
+            store.committer.start();
+        }
+        return store;
+    }
+
+    /**
+     * @return the board kept in this store
+     */
+    public Board board() {
+        return board;
+    }
+
+    /*
+     * Called by the board after a square's state changed. The state is read here, under our lock, rather than
+     * passed in: flags take no tile lock on the board, so two threads changing one square could otherwise log
+     * its states in the wrong order, while this way whichever logs last logs the latest.
+     */
+    void changed(int square) {
+        synchronized (this) {
+            byte state = board.state(square);
+            if (pendingLength + RECORD_LENGTH > pending.length) {
+                pending = Arrays.copyOf(pending, pending.length * 2);
+            }
+            pending[pendingLength++] = (byte) (square >>> 24);
+            pending[pendingLength++] = (byte) (square >>> 16);
+            pending[pendingLength++] = (byte) (square >>> 8);
+            pending[pendingLength++] = (byte) square;
+            pending[pendingLength++] = state;
+            records++;
+            if (pendingLength >= EAGER_COMMIT_LENGTH) {
+                notifyAll();
+            }
+        }
+    }
+
+    /*
+     * Body of the committer thread: commit every COMMIT_INTERVAL_MILLIS, or sooner if a lot is pending,
+     * and take a snapshot when the log is long enough, until the store is closed.
+     * If the disk fails, stops storing the board, which plays on in memory only.
+     * If interrupted, closes the store as close() would, saving everything handed over so far.
+     */
+    private void commitLoop() {
+        try {
+            while (true) {
+                boolean snapshotDue;
+                synchronized (this) {
+                    if (!closed && pendingLength < EAGER_COMMIT_LENGTH) {
+                        wait(COMMIT_INTERVAL_MILLIS);
+                    }
+                    if (closed) {
+                        return;
+                    }
+                    snapshotDue = records >= SNAPSHOT_RECORDS;
+                }
+                if (snapshotDue) {
+                    snapshot();
+                } else {
+                    commit();
+                }
+            }
+        } catch (IOException ioe) {
+            board.setStore(null);
+            System.err.println("board store in " + directory + " failed, no longer saving the board");
+            ioe.printStackTrace();
+        } catch (InterruptedException ie) {
+            // someone wants us to stop: rather than leave the board handing over changes nobody writes,
+            // stop storing it, the way close() does (unless close() already is, and finishes once we return)
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+            }
+            try {
+                finish();
+                System.err.println("board store in " + directory
+                        + " interrupted, saved the board and stopped saving it");
+            } catch (IOException ioe) {
+                System.err.println("board store in " + directory + " failed, no longer saving the board");
+                ioe.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Write every change handed over so far to the log, and fsync it.
+     *
+     * @throws IOException if the log cannot be written
+     */
+    void commit() throws IOException {
+        synchronized (commitLock) {
+            byte[] batch;
+            int length;
+            long version;
+            synchronized (this) {
+                if (pendingLength == 0) {
+                    return;
+                }
+                batch = pending;
+                length = pendingLength;
+                // (read with the buffer, so it is at least the version of every change before these)
+                version = board.version();
+                pending = spare;
+                pendingLength = 0;
+            }
+            ByteBuffer header = ByteBuffer.allocate(BATCH_HEADER_LENGTH);
+            header.putInt(length).putInt(0).putLong(version);
+            CRC32 crc = new CRC32();
+            crc.update(header.array(), 8, 8);
+            crc.update(batch, 0, length);
+            header.putInt(4, (int) crc.getValue()).flip();
+            ByteBuffer records = ByteBuffer.wrap(batch, 0, length);
+            ByteBuffer[] buffers = { header, records };
+            while (records.hasRemaining()) {
+                log.write(buffers);
+            }
+            log.force(false);
+            synchronized (this) {
+                spare = batch;
+            }
+        }
+    }
+
+    /**
+     * Take a snapshot of the board, start a new log segment after it, and delete the older segments.
+     *
+     * @throws IOException if the files cannot be written
+     */
+    void snapshot() throws IOException {
+        synchronized (commitLock) {
+            // what is pending so far is in the states below, but is written to the new segment anyway
+            // (replaying it again does no harm), so the old one can simply be dropped
+            FileChannel previous = log;
+            long first = segment + 1;
+            log = FileChannel.open(segmentFile(first).toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            segment = first;
+            long version;
+            synchronized (this) {
+                // taking the lock makes every change handed over before this show in states(), see Board.states()
+                version = board.version();
+                records = 0;
+            }
+            byte[] states = board.states();
+
+            ByteBuffer header = ByteBuffer.allocate(SNAPSHOT_HEADER_LENGTH);
+            header.put(SNAPSHOT_MAGIC).putInt(board.width).putInt(board.height).putLong(version).putLong(first).flip();
+            ByteBuffer body = ByteBuffer.wrap(states);
+            File temporary = new File(directory, SNAPSHOT + ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer[] buffers = { header, body };
+                while (body.hasRemaining()) {
+                    channel.write(buffers);
+                }
+                channel.force(true);
+            }
+            // the old snapshot stays until the new one is complete
+            Files.move(temporary.toPath(), new File(directory, SNAPSHOT).toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+
+            if (previous != null) {
+                previous.close();
+            }
+            for (long old = first - 1; segmentFile(old).delete(); old--) {
+            }
+        }
+    }
+
+    /**
+     * Stop storing the board: write what is pending, take a last snapshot, so that the next open()
+     * has nothing to replay, and stop the committer. The board plays on, in memory only.
+     * Does nothing more if called again, or if the committer was interrupted and has done this itself.
+     *
+     * @throws IOException if the files cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        boolean first;
+        synchronized (this) {
+            first = !closed;
+            closed = true;
+            notifyAll();
+        }
+        try {
+            // (join returns at once if it was never started)
+            committer.join();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        if (first) {
+            finish();
+        }
+    }
+
+    /*
+     * Once closed, and only by the one thread that set it: stop taking changes from the board, write what
+     * is pending, take a last snapshot, and close the log.
+     */
+    private void finish() throws IOException {
+        board.setStore(null);
+        synchronized (commitLock) {
+            // the snapshot has it all too, but if it fails, the log still does
+            commit();
+            snapshot();
+            log.close();
+        }
+    }
+
+    private File segmentFile(long number) {
+        return new File(directory, SEGMENT_PREFIX + number);
+    }
+
+    /**
+     * Rebuilds the board of a store from its snapshot and log.
+     */
+    private static class Recovery {
+        private final File directory;
+        private final int width;
+        private final int height;
+        private final byte[] states;
+        private long version;
+        // last segment replayed, or the one before the first if none was
+        private long lastSegment;
+
+        /*
+         * Read the snapshot and replay every log segment after it, up to the first torn batch.
+         */
+        Recovery(File directory) throws IOException {
+            this.directory = directory;
+            try (FileChannel channel = FileChannel.open(new File(directory, SNAPSHOT).toPath(),
+                    StandardOpenOption.READ)) {
+                if (channel.size() < SNAPSHOT_HEADER_LENGTH) {
+                    throw new IOException("snapshot is too short");
+                }
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                byte[] magic = new byte[SNAPSHOT_MAGIC.length];
+                mapped.get(magic);
+                if (!Arrays.equals(magic, SNAPSHOT_MAGIC)) {
+                    throw new IOException("not a board snapshot");
+                }
+                width = mapped.getInt();
+                height = mapped.getInt();
+                version = mapped.getLong();
+                long first = mapped.getLong();
+                if (width < 0 || height < 0 || version < 0
+                        || (long) width * height != channel.size() - SNAPSHOT_HEADER_LENGTH) {
+                    throw new IOException("snapshot of a " + width + "x" + height + " board has "
+                            + channel.size() + " bytes");
+                }
+                states = new byte[width * height];
+                mapped.get(states);
+                lastSegment = first - 1;
+            }
+            for (long segment = lastSegment + 1; new File(directory, SEGMENT_PREFIX + segment).isFile(); segment++) {
+                lastSegment = segment;
+                if (!replay(new File(directory, SEGMENT_PREFIX + segment))) {
+                    break;
+                }
+            }
+            // nothing after a torn batch can be trusted; the store writes its own segments after lastSegment
+            for (long segment = lastSegment + 1; new File(directory, SEGMENT_PREFIX + segment).delete(); segment++) {
+            }
+        }
+
+        /*
+         * Apply the records of one log segment to states.
+         * Returns false if it ends with a torn batch, after which nothing can be trusted.
+         */
+        private boolean replay(File file) throws IOException {
+            ByteBuffer log = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+            CRC32 crc = new CRC32();
+            while (log.hasRemaining()) {
+                if (log.remaining() < BATCH_HEADER_LENGTH) {
+                    return false;
+                }
+                int length = log.getInt();
+                int expected = log.getInt();
+                if (length < 0 || length % RECORD_LENGTH != 0 || log.remaining() < 8 + length) {
+                    return false;
+                }
+                crc.reset();
+                crc.update(log.array(), log.position(), 8 + length);
+                if ((int) crc.getValue() != expected) {
+                    return false;
+                }
+                version = Math.max(version, log.getLong());
+                for (int i = 0; i < length; i += RECORD_LENGTH) {
+                    int square = log.getInt();
+                    if (square < 0 || square >= states.length) {
+                        throw new IOException("log of " + directory + " changes square " + square
+                                + " of a " + width + "x" + height + " board");
+                    }
+                    states[square] = log.get();
+                }
+            }
+            return true;
+        }
+
+        /*
+         * The recovered board.
+         */
+        Board board() throws IOException {
+            try {
+                return new Board(width, height, states, version);
+            } catch (IllegalArgumentException iae) {
+                throw new IOException("invalid board store in " + directory, iae);
+            }
+        }
+    }
+}
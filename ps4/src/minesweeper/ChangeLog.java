@@ -0,0 +1,167 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper;
+
+import java.util.Arrays;
+
+/**
+ * Bounded log of which squares of a Board changed at which version, and the Board's version counter.
+ *
+ * Every change to the board appends the squares it changed and gets the next version number.
+ * Once the log is full, the oldest entries are overwritten, so it can only answer
+ * "what changed since version v" for recent enough v.
+ *
+ * Thread-safety argument:
+ *   all mutable state is guarded by this object's monitor;
+ *   version is also volatile so that it can be read cheaply without the monitor
+ */
+final class ChangeLog {
+
+    // ring buffers: entry i (counting from the very first append) is at index i % capacity
+    private final int[] squares;
+    private final long[] versions;
+    // number of entries ever appended
+    private long appended = 0;
+    // every change with a version > coveredFrom is still in the log
+    private long coveredFrom = 0;
+    // version of the latest change; 0 before the first one
+    private volatile long version = 0;
+
+    // Abstraction function:
+    //   represents the board versions 1..version, where the change at version v changed the squares
+    //   { squares[i % capacity] | versions[i % capacity] == v, appended - capacity <= i < appended },
+    //   which are all the squares it changed if v > coveredFrom (older changes may be partly forgotten)
+    // Rep invariant:
+    //   squares.length == versions.length > 0
+    //   0 <= coveredFrom <= version
+    //   the live entries have non-decreasing versions, all in 1..version
+    // Safety from rep exposure:
+    //   arrays are private and never returned; squaresSince returns a new array
+
+    /**
+     * Make an empty log at a version, which cannot tell what changed before it.
+     *
+     * @param capacity most entries kept; requires capacity > 0
+     * @param version version to start at, e.g. 0 for a new board, or the version of a board recovered
+     *                by BoardStore; requires version >= 0
+     */
+    ChangeLog(int capacity, long version) {
+        this.squares = new int[capacity];
+        this.versions = new long[capacity];
+        this.version = version;
+        this.coveredFrom = version;
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert squares.length == versions.length && squares.length > 0;
+        assert 0 <= coveredFrom && coveredFrom <= version;
+    }
+
+    /**
+     * @return number of entries the log keeps
+     */
+    int capacity() {
+        return squares.length;
+    }
+
+    /**
+     * @return the version of the latest change, 0 if there was none
+     */
+    long version() {
+        return version;
+    }
+
+    /**
+     * Record one change, giving it the next version.
+     *
+     * @param changed squares changed, as indices y * width + x; only the first count are used
+     * @param count number of squares changed
+     * @param complete false if the change touched more squares than could be listed in changed;
+     *                 the change is then not logged, and versions before it can no longer be answered
+     * @return the version of this change
+     */
+    synchronized long append(int[] changed, int count, boolean complete) {
+        long next = version + 1;
+        if (!complete || count > squares.length) {
+            //too big to keep: nobody can catch up from before it
+            coveredFrom = next;
+        } else {
+            for (int i = 0; i < count; i++) {
+                put(changed[i], next);
+            }
+        }
+        version = next;
+        checkRep();
+        return next;
+    }
+
+    /**
+     * Record a change of a single square, giving it the next version.
+     *
+     * @param square square changed, as index y * width + x
+     * @return the version of this change
+     */
+    synchronized long append(int square) {
+        // flags and deflags come through here, so no array for a single square
+        long next = version + 1;
+        put(square, next);
+        version = next;
+        checkRep();
+        return next;
+    }
+
+    /*
+     * Write one entry into the next slot of the ring, forgetting the entry it overwrites.
+     * Requires this object's monitor.
+     */
+    private void put(int square, long at) {
+        int slot = (int) (appended % squares.length);
+        if (appended >= squares.length) {
+            //overwriting the oldest entry, so its change is no longer complete
+            coveredFrom = Math.max(coveredFrom, versions[slot]);
+        }
+        squares[slot] = square;
+        versions[slot] = at;
+        appended++;
+    }
+
+    /**
+     * Find the squares that changed after a version. Callers that need the matching version
+     * must call this and version() while holding this object's monitor.
+     *
+     * @param since a version, as returned by version() or append()
+     * @return the distinct squares changed at versions since+1 .. version(), in increasing order,
+     *         or null if the log does not reach back that far (or since is not a version yet)
+     */
+    synchronized int[] squaresSince(long since) {
+        if (since < coveredFrom || since > version) {
+            return null;
+        }
+        //walk back from the newest entry until we reach changes we do not need
+        int count = 0;
+        int[] found = new int[16];
+        long oldest = Math.max(appended - squares.length, 0);
+        for (long i = appended - 1; i >= oldest; i--) {
+            int slot = (int) (i % squares.length);
+            if (versions[slot] <= since) {
+                break;
+            }
+            if (count == found.length) {
+                found = Arrays.copyOf(found, count * 2);
+            }
+            found[count++] = squares[slot];
+        }
+
+        //a square changed several times is only reported once
+        Arrays.sort(found, 0, count);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || found[distinct - 1] != found[i]) {
+                found[distinct++] = found[i];
+            }
+        }
+        return Arrays.copyOf(found, distinct);
+    }
+}
@@ -0,0 +1,98 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper;
+
+/**
+ * Immutable list of the squares of a Board that changed between two versions,
+ * with what each of them looks like now.
+ */
+public final class Changes {
+
+    private final long since;
+    private final long version;
+    private final int width;
+    private final int[] squares;
+    private final byte[] symbols;
+
+    // Abstraction function:
+    //   represents the squares (squares[i] % width, squares[i] / width) that changed after
+    //   board version `since`, up to and including `version`, each now showing symbols[i]
+    // Rep invariant:
+    //   0 <= since <= version
+    //   width > 0, squares.length == symbols.length, squares is strictly increasing
+    // Safety from rep exposure:
+    //   the arrays are private, never returned, and never modified after construction
+
+    /**
+     * Make a Changes. The caller gives up the arrays, and must not modify them afterwards.
+     *
+     * @param since version the changes start after
+     * @param version version the changes go up to, requires since <= version
+     * @param width width of the board
+     * @param squares changed squares as y * width + x, in increasing order
+     * @param symbols symbols[i] is what squares[i] shows at the time of the call, as in Board.toString()
+     */
+    Changes(long since, long version, int width, int[] squares, byte[] symbols) {
+        this.since = since;
+        this.version = version;
+        this.width = width;
+        this.squares = squares;
+        this.symbols = symbols;
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert 0 <= since && since <= version;
+        assert width > 0 && squares.length == symbols.length;
+        for (int i = 1; i < squares.length; i++) {
+            assert squares[i - 1] < squares[i];
+        }
+    }
+
+    /**
+     * @return the version the changes start after
+     */
+    public long since() {
+        return since;
+    }
+
+    /**
+     * @return the version the changes go up to; ask for changes since this version next time
+     */
+    public long version() {
+        return version;
+    }
+
+    /**
+     * @return number of changed squares
+     */
+    public int count() {
+        return squares.length;
+    }
+
+    /**
+     * @param i index of a change, requires 0 <= i < count()
+     * @return column of the i-th changed square
+     */
+    public int x(int i) {
+        return squares[i] % width;
+    }
+
+    /**
+     * @param i index of a change, requires 0 <= i < count()
+     * @return row of the i-th changed square
+     */
+    public int y(int i) {
+        return squares[i] / width;
+    }
+
+    /**
+     * @param i index of a change, requires 0 <= i < count()
+     * @return what the i-th changed square shows, the same character as in Board.toString():
+     *         '-' untouched, 'F' flagged, ' ' dug with no adjacent mines, '1'-'8' dug
+     */
+    public char symbol(int i) {
+        return (char) symbols[i];
+    }
+}
@@ -0,0 +1,59 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper;
+
+/**
+ * Immutable outcome of one dig on a Board: whether it hit a bomb, and how many squares it revealed.
+ */
+public final class DigResult {
+
+    /** Result of a dig that changed nothing (out of bounds, flagged or already dug). */
+    static final DigResult NOTHING = new DigResult(false, 0);
+
+    private final boolean hitBomb;
+    private final int revealed;
+
+    // Abstraction function:
+    //   represents a dig that hit a bomb iff hitBomb, and turned `revealed` squares from untouched to dug
+    // Rep invariant:
+    //   revealed >= 0, and revealed >= 1 if hitBomb
+    // Safety from rep exposure:
+    //   all fields are private, final and immutable
+
+    /**
+     * Make a DigResult.
+     *
+     * @param hitBomb true if the dug square had a mine
+     * @param revealed number of squares dug, including cascades; requires revealed >= 0
+     */
+    DigResult(boolean hitBomb, int revealed) {
+        this.hitBomb = hitBomb;
+        this.revealed = revealed;
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert revealed >= 0;
+        assert !hitBomb || revealed >= 1;
+    }
+
+    /**
+     * @return true if the dug square had a mine (which is now removed)
+     */
+    public boolean hitBomb() {
+        return hitBomb;
+    }
+
+    /**
+     * @return number of squares that went from untouched to dug, including the whole cascade
+     */
+    public int revealed() {
+        return revealed;
+    }
+
+    @Override
+    public String toString() {
+        return (hitBomb ? "BOOM, " : "") + revealed + " revealed";
+    }
+}
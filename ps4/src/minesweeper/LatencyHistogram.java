@@ -0,0 +1,135 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations, in nanoseconds, cheap enough to record every request and every lock taken.
+ *
+ * Like HdrHistogram, buckets grow with the values they hold: durations below SUB_BUCKETS ns each have
+ * a bucket, and every power of two above is split into SUB_BUCKETS buckets of equal width. So any
+ * duration up to Long.MAX_VALUE fits in a few hundred counters, and a percentile read from them is at
+ * most 1 / SUB_BUCKETS (12.5%) above the true one.
+ *
+ * Thread-safety argument:
+ *   recording is lock-free: an atomic increment of one bucket, and LongAdder / LongAccumulator updates;
+ *   reading while others record sees each counter at some recent value, so a summary may be off by the
+ *   durations recorded meanwhile, which is fine for monitoring
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    /** Buckets per power of two. */
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // enough for every non-negative long
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    // Abstraction function:
+    //   represents the multiset of durations recorded, where counts[bucket(d)] counts the durations d
+    //   in each bucket, count is their number, sum their total, and max the largest
+    // Rep invariant:
+    //   counts.length == BUCKETS, and every count is >= 0
+    // Safety from rep exposure:
+    //   all fields are private and never returned
+
+    /**
+     * Record one duration.
+     *
+     * @param nanos duration in nanoseconds; negative durations (from a clock going back) count as 0
+     */
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0);
+        counts.incrementAndGet(bucket(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /*
+     * Index of the bucket holding value >= 0.
+     */
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /*
+     * Largest value in a bucket.
+     */
+    static long highest(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        long lowest = (1L << exponent) + (bucket % SUB_BUCKETS) * width;
+        return lowest + width - 1;
+    }
+
+    /**
+     * @return number of durations recorded
+     */
+    public long count() {
+        return count.sum();
+    }
+
+    /**
+     * @return mean duration in nanoseconds, 0 if none was recorded
+     */
+    public double mean() {
+        long count = count();
+        return count == 0 ? 0 : (double) sum.sum() / count;
+    }
+
+    /**
+     * @return longest duration recorded in nanoseconds, 0 if none was
+     */
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     * @param fraction fraction of the durations, requires 0 < fraction <= 1, e.g. 0.99 for the 99th percentile
+     * @return a duration in nanoseconds at least as long as that fraction of the durations recorded (and
+     *         at most 1 / SUB_BUCKETS longer than the shortest such duration), or 0 if none was recorded
+     */
+    public long percentile(double fraction) {
+        long total = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            snapshot[bucket] = counts.get(bucket);
+            total += snapshot[bucket];
+        }
+        long wanted = (long) Math.ceil(fraction * total);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += snapshot[bucket];
+            if (seen >= wanted && seen > 0) {
+                return Math.min(highest(bucket), max());
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return count, mean, median, 99th percentile and max, with the durations in microseconds
+     */
+    @Override
+    public String toString() {
+        return String.format("count %d, mean %.1fus, p50 %.1fus, p99 %.1fus, max %.1fus", count(), mean() / 1000,
+                percentile(0.5) / 1000.0, percentile(0.99) / 1000.0, max() / 1000.0);
+    }
+}
@@ -0,0 +1,78 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper;
+
+/**
+ * Immutable move a player makes on a square, for applying several at once with Board.applyAll.
+ */
+public final class Move {
+
+    /** What a move does to its square, like the Board method of the same name. */
+    public enum Kind { DIG, FLAG, DEFLAG }
+
+    /** What happened when a move was applied. */
+    public enum Result {
+        /** the move did not change the board, e.g. flagging a dug square or a square off the board */
+        UNCHANGED,
+        /** the move changed the board */
+        CHANGED,
+        /** the move dug a square with a mine */
+        BOOM,
+        /** the move was not applied, because an earlier move of the batch hit a mine */
+        SKIPPED
+    }
+
+    private final Kind kind;
+    private final int x;
+    private final int y;
+
+    // Abstraction function:
+    //   represents doing kind to the square at column x, row y
+    // Rep invariant:
+    //   kind != null
+    // Safety from rep exposure:
+    //   all fields are private, final and immutable
+
+    /**
+     * @param kind what to do
+     * @param x column of the square, which may be off the board
+     * @param y row of the square, which may be off the board
+     */
+    public Move(Kind kind, int x, int y) {
+        this.kind = kind;
+        this.x = x;
+        this.y = y;
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert kind != null;
+    }
+
+    /**
+     * @return what the move does
+     */
+    public Kind kind() {
+        return kind;
+    }
+
+    /**
+     * @return column of the square
+     */
+    public int x() {
+        return x;
+    }
+
+    /**
+     * @return row of the square
+     */
+    public int y() {
+        return y;
+    }
+
+    @Override
+    public String toString() {
+        return kind.toString().toLowerCase() + " " + x + " " + y;
+    }
+}
@@ -0,0 +1,324 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntFunction;
+import java.util.zip.Deflater;
+
+/**
+ * Immutable snapshot of how a Board looked at some version, already encoded as the bytes
+ * sent to clients: the rows of Board.toString(), each followed by a newline.
+ *
+ * Boards hand out the same Rendering to every caller until they change again, so many
+ * players looking at an unchanged board share one render. The bytes are split into bands
+ * of Board.ROWS_PER_BAND rows, and consecutive Renderings share the bands that did not change.
+ *
+ * For clients of the binary protocol, the same squares are also available packed into 4 bits each
+ * (see packedBuffers()). A band is only packed the first time someone asks for it, and a packed band
+ * is shared with the next Rendering as long as the band does not change, like the text.
+ *
+ * Both encodings can also be had compressed with DEFLATE (see deflatedBuffers()), for clients that
+ * ask for it. Each band is compressed on its own and ends on a byte boundary, so the compressed
+ * bands too are computed once and shared between versions, and sending them one after the other,
+ * followed by an empty final block, makes one valid DEFLATE stream.
+ *
+ * Thread-safety argument:
+ *   all fields are final and the bands are never modified;
+ *   packed bands are computed from them deterministically and published through an AtomicReferenceArray,
+ *   so threads packing the same band at once just compute the same bytes
+ */
+public final class Rendering {
+
+    /** Packed code of an untouched square; dug squares are coded as their number of neighbouring mines. */
+    public static final int UNTOUCHED_CODE = 9;
+    /** Packed code of a flagged square. */
+    public static final int FLAGGED_CODE = 10;
+
+    private final long version;
+    private final int width;
+    private final int height;
+    private final byte[][] bands;
+    private final int size;
+    // packed[i] is bands[i] packed 4 bits a square, or null until someone asks for it
+    private final AtomicReferenceArray<byte[]> packed;
+    // same for bands[i] and packed[i] compressed
+    private final AtomicReferenceArray<byte[]> deflated;
+    private final AtomicReferenceArray<byte[]> deflatedPacked;
+
+    // an empty DEFLATE block with BFINAL set, ending the stream of compressed bands
+    private static final byte[] FINAL_BLOCK = { 0x03, 0x00 };
+
+    // Abstraction function:
+    //   represents the board text bands[0] + bands[1] + ... + bands[bands.length-1],
+    //   rendered at board version `version`, of a board of width x height squares
+    // Rep invariant:
+    //   version >= 0, width >= 0, height >= 0
+    //   every band is non-empty and ends with '\n', and together they have height rows
+    //   size is the total length of the bands
+    //   packed.length() == bands.length, and every non-null packed[i] is the packing of bands[i]
+    //   likewise, deflated and deflatedPacked hold the compressed bands and packed bands, ending in a sync flush
+    // Safety from rep exposure:
+    //   the band arrays are never modified after construction (they may be shared with other
+    //   Renderings of the same board, which do not modify them either), and are only handed out
+    //   to clients wrapped in read-only buffers; bands() copies the outer array
+
+    /**
+     * Make a Rendering. The caller gives up bands and the arrays in it, and must not modify them afterwards.
+     *
+     * @param version board version this was rendered at; requires version >= 0
+     * @param width number of squares in a row
+     * @param height number of rows
+     * @param bands rendered rows, grouped into bands of an even number of rows (except the last band),
+     *              each row terminated by '\n'
+     * @param previous earlier Rendering of the same board whose packed and compressed bands may be reused for the bands
+     *                 it shares with this one, or null
+     */
+    Rendering(long version, int width, int height, byte[][] bands, Rendering previous) {
+        this.version = version;
+        this.width = width;
+        this.height = height;
+        this.bands = bands;
+        int size = 0;
+        for (byte[] band : bands) {
+            size += band.length;
+        }
+        this.size = size;
+        this.packed = new AtomicReferenceArray<>(bands.length);
+        this.deflated = new AtomicReferenceArray<>(bands.length);
+        this.deflatedPacked = new AtomicReferenceArray<>(bands.length);
+        if (previous != null) {
+            for (int i = 0; i < bands.length && i < previous.bands.length; i++) {
+                if (bands[i] == previous.bands[i]) {
+                    packed.set(i, previous.packed.get(i));
+                    deflated.set(i, previous.deflated.get(i));
+                    deflatedPacked.set(i, previous.deflatedPacked.get(i));
+                }
+            }
+        }
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert version >= 0 && width >= 0 && height >= 0;
+        int rows = 0;
+        for (byte[] band : bands) {
+            assert band.length > 0 && band[band.length - 1] == '\n';
+            rows += band.length / rowLength();
+        }
+        assert rows == height;
+        assert packed.length() == bands.length;
+        assert deflated.length() == bands.length && deflatedPacked.length() == bands.length;
+    }
+
+    /*
+     * Bytes per rendered row: each square is one character plus a space, or the newline at the end of its row.
+     */
+    private int rowLength() {
+        return width == 0 ? 1 : 2 * width;
+    }
+
+    /**
+     * @return version of the board this snapshot shows
+     */
+    public long version() {
+        return version;
+    }
+
+    /**
+     * @return number of squares in a row of the board
+     */
+    public int width() {
+        return width;
+    }
+
+    /**
+     * @return number of rows of the board
+     */
+    public int height() {
+        return height;
+    }
+
+    /**
+     * @return number of bytes in the rendering, including the newline after every row
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return fresh read-only buffers over the rendering, one per band in order, each positioned
+     *         at its start, ready for a gathering write to a socket
+     */
+    public ByteBuffer[] buffers() {
+        ByteBuffer[] buffers = new ByteBuffer[bands.length];
+        for (int i = 0; i < bands.length; i++) {
+            buffers[i] = ByteBuffer.wrap(bands[i]).asReadOnlyBuffer();
+        }
+        return buffers;
+    }
+
+    /**
+     * @return number of bytes in the packed rendering, see packedBuffers()
+     */
+    public int packedSize() {
+        return (int) ((1L * width * height + 1) / 2);
+    }
+
+    /**
+     * Get the squares packed two to a byte, for the binary protocol: row by row, the square with the lower
+     * index in the high 4 bits of its byte, then the low 4 bits of the last byte left 0 if there is an odd
+     * number of squares. Each square is coded as code() of its symbol.
+     *
+     * @return fresh read-only buffers over the packed squares, in order, packedSize() bytes in total,
+     *         each positioned at its start
+     */
+    public ByteBuffer[] packedBuffers() {
+        ByteBuffer[] buffers = new ByteBuffer[bands.length];
+        for (int i = 0; i < bands.length; i++) {
+            buffers[i] = ByteBuffer.wrap(packedBand(i)).asReadOnlyBuffer();
+        }
+        return buffers;
+    }
+
+    /**
+     * Get the rendering compressed, as a raw DEFLATE stream (RFC 1951, no zlib header or checksum;
+     * java.util.zip.Inflater decompresses it when made with nowrap true).
+     *
+     * @return fresh read-only buffers over the compressed text of the rendering (the same bytes as buffers()
+     *         once decompressed), in order, each positioned at its start
+     */
+    public ByteBuffer[] deflatedBuffers() {
+        return deflatedBuffers(deflated, i -> bands[i]);
+    }
+
+    /**
+     * Get the packed squares compressed, as a raw DEFLATE stream like deflatedBuffers().
+     *
+     * @return fresh read-only buffers over the compressed packed squares (the same bytes as packedBuffers()
+     *         once decompressed), in order, each positioned at its start
+     */
+    public ByteBuffer[] deflatedPackedBuffers() {
+        return deflatedBuffers(deflatedPacked, this::packedBand);
+    }
+
+    /*
+     * The compressed bands cached in cache, compressing the band(i) that are not there yet, then the final block.
+     */
+    private ByteBuffer[] deflatedBuffers(AtomicReferenceArray<byte[]> cache, IntFunction<byte[]> band) {
+        ByteBuffer[] buffers = new ByteBuffer[bands.length + 1];
+        for (int i = 0; i < bands.length; i++) {
+            byte[] compressed = cache.get(i);
+            if (compressed == null) {
+                compressed = deflate(band.apply(i));
+                cache.set(i, compressed);
+            }
+            buffers[i] = ByteBuffer.wrap(compressed).asReadOnlyBuffer();
+        }
+        buffers[bands.length] = ByteBuffer.wrap(FINAL_BLOCK).asReadOnlyBuffer();
+        return buffers;
+    }
+
+    /*
+     * Compress bytes into DEFLATE blocks that are not final, ending on a byte boundary (a sync flush),
+     * so that they can be followed by the blocks of other bands.
+     */
+    private static byte[] deflate(byte[] bytes) {
+        // runs of '-' or blanks compress well even at the fastest level
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            deflater.setInput(bytes);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 8 + 16);
+            byte[] chunk = new byte[Math.max(64, Math.min(bytes.length, 1 << 16))];
+            int written;
+            do {
+                //a sync flush has finished once it leaves room in the output
+                written = deflater.deflate(chunk, 0, chunk.length, Deflater.SYNC_FLUSH);
+                out.write(chunk, 0, written);
+            } while (written == chunk.length);
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /*
+     * bands[i] packed, packing it if nobody has yet.
+     */
+    private byte[] packedBand(int i) {
+        byte[] band = packed.get(i);
+        if (band == null) {
+            band = pack(bands[i]);
+            packed.set(i, band);
+        }
+        return band;
+    }
+
+    /*
+     * Pack the squares of one band. Only the last band may have an odd number of squares,
+     * so the packed bands can simply be sent one after the other.
+     */
+    private byte[] pack(byte[] band) {
+        int squares = band.length / rowLength() * width;
+        byte[] bytes = new byte[(squares + 1) / 2];
+        //symbols are at every other byte, since a row is 2 * width bytes long
+        int square = 0;
+        for (int i = 0; i < band.length && square < squares; i += 2) {
+            int code = code((char) band[i]);
+            bytes[square / 2] |= square % 2 == 0 ? code << 4 : code;
+            square++;
+        }
+        return bytes;
+    }
+
+    /**
+     * @param symbol a square as in Board.toString(): '-' untouched, 'F' flagged, ' ' dug with no
+     *               neighbouring mines, '1'-'8' dug
+     * @return the square's 4 bit code in the packed rendering: UNTOUCHED_CODE, FLAGGED_CODE, or the
+     *         number of neighbouring mines (0-8) of a dug square
+     */
+    public static int code(char symbol) {
+        switch (symbol) {
+        case '-':
+            return UNTOUCHED_CODE;
+        case 'F':
+            return FLAGGED_CODE;
+        case ' ':
+            return 0;
+        default:
+            return symbol - '0';
+        }
+    }
+
+    /**
+     * For Board to patch the next Rendering: the band arrays themselves are shared, not copied,
+     * so the caller may replace entries of the returned array but must not modify the bands.
+     *
+     * @return a new array holding this rendering's bands
+     */
+    byte[][] bands() {
+        return Arrays.copyOf(bands, bands.length);
+    }
+
+    /**
+     * @return the board text, exactly as Board.toString(): rows separated by (not terminated by) "\n"
+     */
+    @Override
+    public String toString() {
+        if (size == 0) {
+            return "";
+        }
+        byte[] bytes = new byte[size];
+        int pos = 0;
+        for (byte[] band : bands) {
+            System.arraycopy(band, 0, bytes, pos, band.length);
+            pos += band.length;
+        }
+        return new String(bytes, 0, size - 1, StandardCharsets.US_ASCII);
+    }
+}
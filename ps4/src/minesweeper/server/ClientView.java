@@ -0,0 +1,71 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import java.util.Optional;
+
+import minesweeper.Board;
+import minesweeper.Changes;
+import minesweeper.Rendering;
+
+/**
+ * Mutable record of which version of the board a client has been sent,
+ * used to send it only what changed since.
+ *
+ * Thread-safety argument:
+ *   not thread-safe; each ClientView is confined to the one thread sending to its client
+ */
+class ClientView {
+
+    private long seen;
+
+    // Abstraction function:
+    //   represents a client that has been sent the board as it was at version seen
+    // Rep invariant:
+    //   seen >= 0
+    // Safety from rep exposure:
+    //   seen is a private primitive
+
+    /**
+     * @param seen board version the client has already been sent; requires seen >= 0
+     */
+    ClientView(long seen) {
+        this.seen = seen;
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert seen >= 0;
+    }
+
+    /**
+     * @param board board the client is looking at
+     * @return true if the board has changed since the version the client was sent
+     */
+    boolean isBehind(Board board) {
+        return board.version() != seen;
+    }
+
+    /**
+     * Build the reply that brings the client up to date, and record that it has been sent.
+     * That is the squares changed since the version the client has, or the whole board if the
+     * board no longer remembers that far back, or if the whole board is shorter.
+     *
+     * @param board board the client is looking at
+     * @return a DELTA or a BOARD reply, as described in MinesweeperServer.handleRequest
+     */
+    Reply catchUp(Board board) {
+        Optional<Changes> found = board.changesSince(seen);
+        // each changed square costs at least "x y s\n"; the board costs two bytes a square
+        long boardSize = 2L * board.width * board.height;
+        if (found.isPresent() && 6L * found.get().count() < boardSize) {
+            seen = found.get().version();
+            return Reply.delta(found.get());
+        }
+        Rendering rendering = board.render();
+        seen = rendering.version();
+        checkRep();
+        return Reply.boardWithVersion(rendering);
+    }
+}
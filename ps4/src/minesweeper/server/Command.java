@@ -0,0 +1,529 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import minesweeper.Move;
+
+/**
+ * One parsed client request, filled in by parse() straight from the received line,
+ * or by parseFrame() from a frame of the binary protocol.
+ *
+ * Parsing walks the line once, without regexes, splitting or boxing, and does not allocate
+ * (except for the name of a room to join), so a connection can keep one Command and reuse it
+ * for every line it receives.
+ *
+ * The grammar is the one documented in MinesweeperServer.handleRequest:
+ * <pre>
+ *   REQUEST ::= "look" | "help" | "bye" | "watch" | "binary" | "stats" | "look-since" SPACE VERSION | "join" SPACE ROOM
+ *             | "batch" SPACE ("off" | "board" | "ack") | "compress" SPACE ("on" | "off")
+ *             | ("dig" | "flag" | "deflag") SPACE INT SPACE INT
+ *   VERSION ::= [0-9]{1,18}
+ *   ROOM ::= [A-Za-z0-9_-]{1,32}
+ *   INT ::= "-"? [0-9]+
+ * </pre>
+ * Anything else, including coordinates that do not fit in an int, is INVALID.
+ *
+ * After "binary", the client sends binary frames instead of lines:
+ * <pre>
+ *   FRAME ::= LENGTH OPCODE ARGUMENTS
+ *   LENGTH ::= VARINT, the number of bytes in OPCODE and ARGUMENTS, at most MAX_FRAME_LENGTH in all
+ *   OPCODE ARGUMENTS ::= 1 (look) | 2 X Y (dig) | 3 X Y (flag) | 4 X Y (deflag) | 5 (help) | 6 (bye)
+ *                      | 7 VERSION (look-since) | 8 (watch) | 9 ROOM (join, in ASCII) | 10 MODE (batch)
+ *                      | 11 ON (compress) | 12 (stats)
+ *   X, Y, VERSION ::= VARINT
+ *   MODE ::= 0 (off) | 1 (board) | 2 (ack)
+ *   ON ::= 0 (off) | 1 (on)
+ * </pre>
+ * where OPCODE, MODE and ON are one byte, and a VARINT is an unsigned integer written 7 bits a byte, lowest
+ * first, with the top bit set on every byte but the last (as in the server's binary replies, see Reply).
+ * A frame whose arguments do not match its opcode is INVALID, like a bad line.
+ *
+ * Thread-safety argument:
+ *   not thread-safe; each Command is confined to the thread reading its connection
+ */
+class Command {
+
+    /** Kinds of request. */
+    enum Type { LOOK, LOOK_SINCE, WATCH, JOIN, BATCH, BINARY, COMPRESS, STATS, HELP, BYE, DIG, FLAG, DEFLAG, INVALID }
+
+    /** Longest request line a connection buffers; longer lines are INVALID. */
+    static final int MAX_LINE_LENGTH = 256;
+    /** Longest request frame, including its LENGTH; a client sending a longer one is disconnected. */
+    static final int MAX_FRAME_LENGTH = 64;
+
+    // Type of each binary OPCODE, which is its index
+    private static final Type[] OPCODES = {
+        Type.INVALID, Type.LOOK, Type.DIG, Type.FLAG, Type.DEFLAG, Type.HELP, Type.BYE,
+        Type.LOOK_SINCE, Type.WATCH, Type.JOIN, Type.BATCH, Type.COMPRESS, Type.STATS,
+    };
+
+    private static final int MAX_VERSION_DIGITS = 18;
+    private static final int MAX_ROOM_LENGTH = 32;
+
+    private Type type = Type.INVALID;
+    private int x;
+    private int y;
+    private long version;
+    private String room;
+    private Session.Batching batching;
+    private boolean compress;
+
+    // the line being parsed: chars if parsing a CharSequence, else bytes[start..end)
+    private CharSequence chars;
+    private byte[] bytes;
+    private int start;
+    private int end;
+    // index of the next character to parse
+    private int pos;
+
+    // Abstraction function:
+    //   represents the request of the given type; DIG, FLAG and DEFLAG at square (x, y),
+    //   LOOK_SINCE from version, JOIN to room, BATCH switching to batching, COMPRESS turning compression on iff compress;
+    //   other fields are leftovers of earlier lines
+    // Rep invariant:
+    //   type == LOOK_SINCE implies version >= 0
+    //   type == JOIN implies room matches ROOM
+    // Safety from rep exposure:
+    //   all fields are private and immutable or primitive; the line is only referenced while parsing
+
+    /**
+     * Parse a request line, replacing whatever this Command held before.
+     *
+     * @param line request, without its line terminator
+     * @return this, now holding the request
+     */
+    Command parse(CharSequence line) {
+        this.chars = line;
+        this.start = 0;
+        this.end = line.length();
+        parse();
+        this.chars = null;
+        return this;
+    }
+
+    /**
+     * Parse a request line encoded in ASCII, replacing whatever this Command held before.
+     *
+     * @param bytes buffer holding the line
+     * @param start index of the first byte of the line
+     * @param end index just past the last byte of the line, not including its terminator
+     * @return this, now holding the request
+     */
+    Command parse(byte[] bytes, int start, int end) {
+        this.bytes = bytes;
+        this.start = start;
+        this.end = end;
+        parse();
+        this.bytes = null;
+        return this;
+    }
+
+    /**
+     * Find where a request frame ends.
+     *
+     * @param bytes buffer holding the start of a frame
+     * @param start index of the first byte of the frame
+     * @param end index just past the last byte received so far
+     * @return index just past the frame if it has all been received, -1 if not yet, or
+     *         a number greater than start + MAX_FRAME_LENGTH if the frame is longer than that
+     */
+    static int frameEnd(byte[] bytes, int start, int end) {
+        int length = 0;
+        for (int i = start; i < end; i++) {
+            int b = bytes[i] & 0xFF;
+            length |= (b & 0x7F) << (7 * (i - start));
+            if (length > MAX_FRAME_LENGTH || i - start >= 2) {
+                // do not even wait for the rest
+                return start + MAX_FRAME_LENGTH + 1;
+            }
+            if ((b & 0x80) == 0) {
+                int frameEnd = i + 1 + length;
+                if (frameEnd - start > MAX_FRAME_LENGTH) {
+                    return start + MAX_FRAME_LENGTH + 1;
+                }
+                return frameEnd <= end ? frameEnd : -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parse a request frame of the binary protocol, replacing whatever this Command held before.
+     *
+     * @param bytes buffer holding the frame
+     * @param start index of the first byte of the frame, its LENGTH
+     * @param end index just past the frame, as returned by frameEnd(bytes, start, ...)
+     * @return this, now holding the request
+     */
+    Command parseFrame(byte[] bytes, int start, int end) {
+        this.bytes = bytes;
+        this.start = start;
+        this.end = end;
+        pos = start;
+        type = Type.INVALID;
+        // skip LENGTH, frameEnd has checked it already
+        while ((bytes[pos++] & 0x80) != 0) {
+        }
+        int opcode = pos < end ? bytes[pos++] & 0xFF : 0;
+        Type parsed = opcode < OPCODES.length ? OPCODES[opcode] : Type.INVALID;
+        switch (parsed) {
+        case DIG:
+        case FLAG:
+        case DEFLAG:
+            long parsedX = varint();
+            long parsedY = varint();
+            if (parsedX <= Integer.MAX_VALUE && parsedY <= Integer.MAX_VALUE && parsedX >= 0 && parsedY >= 0) {
+                x = (int) parsedX;
+                y = (int) parsedY;
+                type = parsed;
+            }
+            break;
+        case LOOK_SINCE:
+            version = varint();
+            if (version >= 0) {
+                type = parsed;
+            }
+            break;
+        case JOIN:
+            if (parseRoom()) {
+                type = parsed;
+            }
+            break;
+        case COMPRESS:
+            int on = pos < end ? bytes[pos++] : -1;
+            if (on == 0 || on == 1) {
+                compress = on == 1;
+                type = parsed;
+            }
+            break;
+        case BATCH:
+            int mode = pos < end ? bytes[pos++] : -1;
+            if (mode >= 0 && mode < Session.Batching.values().length) {
+                batching = Session.Batching.values()[mode];
+                type = parsed;
+            }
+            break;
+        default:
+            type = parsed;
+            break;
+        }
+        if (pos != end) {
+            // trailing bytes, or arguments missing
+            type = Type.INVALID;
+        }
+        this.bytes = null;
+        checkRep();
+        return this;
+    }
+
+    /*
+     * Parse a VARINT, returning it, or -1 if it runs past the end of the frame or does not fit in 63 bits.
+     */
+    private long varint() {
+        long value = 0;
+        for (int shift = 0; pos < end && shift < 63; shift += 7) {
+            int b = bytes[pos++] & 0xFF;
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value >= 0 ? value : -1;
+            }
+        }
+        // leave pos != end unless we used up the frame, so that the request is INVALID either way
+        pos = end + 1;
+        return -1;
+    }
+
+    private char at(int i) {
+        return chars != null ? chars.charAt(i) : (char) (bytes[i] & 0xFF);
+    }
+
+    /*
+     * Set type and the fields it uses from the line in start..end.
+     */
+    private void parse() {
+        pos = start;
+        type = Type.INVALID;
+        // the first letter is enough to tell which keyword to expect
+        if (pos == end) {
+            return;
+        }
+        switch (at(pos)) {
+        case 'l':
+            if (keyword("look")) {
+                if (pos == end) {
+                    type = Type.LOOK;
+                } else if (keyword("-since") && space() && parseVersion()) {
+                    type = Type.LOOK_SINCE;
+                }
+            }
+            break;
+        case 'h':
+            if (keyword("help") && pos == end) {
+                type = Type.HELP;
+            }
+            break;
+        case 'b':
+            if (keyword("bye")) {
+                if (pos == end) {
+                    type = Type.BYE;
+                }
+            } else if (keyword("batch") && space()) {
+                parseBatching();
+            } else if (keyword("binary") && pos == end) {
+                type = Type.BINARY;
+            }
+            break;
+        case 'w':
+            if (keyword("watch") && pos == end) {
+                type = Type.WATCH;
+            }
+            break;
+        case 'j':
+            if (keyword("join") && space() && parseRoom()) {
+                type = Type.JOIN;
+            }
+            break;
+        case 'c':
+            if (keyword("compress") && space()) {
+                if (keyword("on")) {
+                    compress = true;
+                } else if (keyword("off")) {
+                    compress = false;
+                } else {
+                    break;
+                }
+                if (pos == end) {
+                    type = Type.COMPRESS;
+                }
+            }
+            break;
+        case 's':
+            if (keyword("stats") && pos == end) {
+                type = Type.STATS;
+            }
+            break;
+        case 'd':
+            if (keyword("dig")) {
+                square(Type.DIG);
+            } else if (keyword("deflag")) {
+                square(Type.DEFLAG);
+            }
+            break;
+        case 'f':
+            if (keyword("flag")) {
+                square(Type.FLAG);
+            }
+            break;
+        default:
+            break;
+        }
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert type != Type.LOOK_SINCE || version >= 0;
+        assert type != Type.JOIN || (room.length() >= 1 && room.length() <= MAX_ROOM_LENGTH);
+    }
+
+    /*
+     * Parse " x y" to the end of the line, and set type if it is there.
+     */
+    private void square(Type squareType) {
+        if (!space()) {
+            return;
+        }
+        long parsedX = integer();
+        if (parsedX == Long.MIN_VALUE || !space()) {
+            return;
+        }
+        long parsedY = integer();
+        if (parsedY == Long.MIN_VALUE || pos != end) {
+            return;
+        }
+        x = (int) parsedX;
+        y = (int) parsedY;
+        type = squareType;
+    }
+
+    /*
+     * If the line continues with word, skip it and return true; else return false.
+     */
+    private boolean keyword(String word) {
+        if (end - pos < word.length()) {
+            return false;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            if (at(pos + i) != word.charAt(i)) {
+                return false;
+            }
+        }
+        pos += word.length();
+        return true;
+    }
+
+    private boolean space() {
+        if (pos < end && at(pos) == ' ') {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /*
+     * Parse INT, returning it, or Long.MIN_VALUE if there is none or it does not fit in an int.
+     */
+    private long integer() {
+        boolean negative = pos < end && at(pos) == '-';
+        if (negative) {
+            pos++;
+        }
+        if (pos == end || !isDigit(at(pos))) {
+            return Long.MIN_VALUE;
+        }
+        long value = 0;
+        while (pos < end && isDigit(at(pos))) {
+            value = value * 10 + (at(pos) - '0');
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                return Long.MIN_VALUE;
+            }
+            pos++;
+        }
+        value = negative ? -value : value;
+        return value < Integer.MIN_VALUE || value > Integer.MAX_VALUE ? Long.MIN_VALUE : value;
+    }
+
+    /*
+     * Parse a batching mode to the end of the line, and set type if it is there.
+     */
+    private void parseBatching() {
+        if (keyword("off")) {
+            batching = Session.Batching.OFF;
+        } else if (keyword("board")) {
+            batching = Session.Batching.BOARD;
+        } else if (keyword("ack")) {
+            batching = Session.Batching.ACK;
+        } else {
+            return;
+        }
+        if (pos == end) {
+            type = Type.BATCH;
+        }
+    }
+
+    /*
+     * Parse VERSION to the end of the line into version.
+     */
+    private boolean parseVersion() {
+        int digits = end - pos;
+        if (digits < 1 || digits > MAX_VERSION_DIGITS) {
+            return false;
+        }
+        long value = 0;
+        for (; pos < end; pos++) {
+            if (!isDigit(at(pos))) {
+                return false;
+            }
+            value = value * 10 + (at(pos) - '0');
+        }
+        version = value;
+        return true;
+    }
+
+    /*
+     * Parse ROOM to the end of the line into room.
+     */
+    private boolean parseRoom() {
+        int length = end - pos;
+        if (length < 1 || length > MAX_ROOM_LENGTH) {
+            return false;
+        }
+        char[] name = new char[length];
+        for (int i = 0; i < length; i++) {
+            char c = at(pos + i);
+            if (!(isDigit(c) || (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || c == '_' || c == '-')) {
+                return false;
+            }
+            name[i] = c;
+        }
+        pos = end;
+        room = new String(name);
+        return true;
+    }
+
+    /**
+     * @return kind of request parsed last
+     */
+    Type type() {
+        return type;
+    }
+
+    /**
+     * @return column of the square; requires type() is DIG, FLAG or DEFLAG
+     */
+    int x() {
+        return x;
+    }
+
+    /**
+     * @return row of the square; requires type() is DIG, FLAG or DEFLAG
+     */
+    int y() {
+        return y;
+    }
+
+    /**
+     * @return version to look since; requires type() is LOOK_SINCE
+     */
+    long version() {
+        return version;
+    }
+
+    /**
+     * @return name of the room to join; requires type() is JOIN
+     */
+    String room() {
+        return room;
+    }
+
+    /**
+     * @return how to batch moves from now on; requires type() is BATCH
+     */
+    Session.Batching batching() {
+        return batching;
+    }
+
+    /**
+     * @return true to send boards compressed from now on, false to stop; requires type() is COMPRESS
+     */
+    boolean compress() {
+        return compress;
+    }
+
+    /**
+     * @return true if the request is a move on a square: DIG, FLAG or DEFLAG
+     */
+    boolean isMove() {
+        return type == Type.DIG || type == Type.FLAG || type == Type.DEFLAG;
+    }
+
+    /**
+     * @return the move requested; requires isMove()
+     */
+    Move move() {
+        switch (type) {
+        case DIG:
+            return new Move(Move.Kind.DIG, x, y);
+        case FLAG:
+            return new Move(Move.Kind.FLAG, x, y);
+        case DEFLAG:
+            return new Move(Move.Kind.DEFLAG, x, y);
+        default:
+            throw new IllegalStateException("not a move: " + type);
+        }
+    }
+}
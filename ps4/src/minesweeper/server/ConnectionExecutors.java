@@ -0,0 +1,113 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Executors that run MinesweeperServer.handleConnection, one task per connected client.
+ *
+ * Every task blocks in readLine() for as long as its client stays connected, so the choice of
+ * executor decides what an idle client costs:
+ *   virtual  - one virtual thread per client; a blocked client only holds a small heap object
+ *              (on a runtime without virtual threads, the same as platform)
+ *   platform - one platform thread per client, each with its own stack (the original behaviour)
+ *   pool:N   - at most N clients are served at once, later clients wait for a free thread
+ *
+ * pool:N only suits clients that come and go: a task holds its pooled thread for as long as its client stays
+ * connected, whether it is idle, reads its replies slowly, or watches the board (a watcher never has to send
+ * anything again). N such clients take every thread, and every later client is accepted but never served,
+ * not even its HELLO, until one of them leaves. The writer tasks of watchers do not count against N,
+ * see createWriters.
+ */
+final class ConnectionExecutors {
+
+    private ConnectionExecutors() {
+        // only static methods
+    }
+
+    /**
+     * Create the executor described by an --executor argument.
+     *
+     * For "pool:N", any N clients that stay connected, e.g. N idle clients or N watchers, block every
+     * other client for as long as they stay, see above.
+     *
+     * @param spec one of "virtual", "platform", or "pool:N" with N a positive integer
+     * @return a new executor, which the caller must shut down
+     * @throws IllegalArgumentException if spec is not one of the above
+     */
+    static ExecutorService create(String spec) {
+        if (spec.equals("virtual")) {
+            ExecutorService virtual = newVirtualThreadPerTaskExecutor();
+            if (virtual != null) {
+                return virtual;
+            }
+            // not a bounded pool: every task blocks for as long as its client stays connected,
+            // so once the pool was full, the next client would be accepted and then never served
+            System.err.println("virtual threads are not available on this Java runtime, using platform threads");
+            return newPlatformExecutor();
+        } else if (spec.equals("platform")) {
+            return newPlatformExecutor();
+        } else if (spec.startsWith("pool:")) {
+            int threads;
+            try {
+                threads = Integer.parseInt(spec.substring("pool:".length()));
+            } catch (NumberFormatException nfe) {
+                throw new IllegalArgumentException("unable to parse pool size in \"" + spec + "\"");
+            }
+            if (threads <= 0) {
+                throw new IllegalArgumentException("pool size must be positive: \"" + spec + "\"");
+            }
+            return Executors.newFixedThreadPool(threads);
+        }
+        throw new IllegalArgumentException("unknown executor: \"" + spec + "\"");
+    }
+
+    /**
+     * Create the executor for the writer tasks of watching blocking clients, see MinesweeperServer.watch.
+     * Each writer blocks for as long as its client watches, and the client's reader waits for it once
+     * enough replies are queued, so writers never share a bounded pool, least of all the connection pool:
+     * a writer queued behind the readers it serves would never run.
+     *
+     * @return a new executor starting a virtual thread per task if the runtime has them, else a platform
+     *         thread per task; the caller must shut it down
+     */
+    static ExecutorService createWriters() {
+        ExecutorService virtual = newVirtualThreadPerTaskExecutor();
+        return virtual != null ? virtual : newPlatformExecutor();
+    }
+
+    /*
+     * A thread per client: a cached pool starts a new thread whenever none is idle, so it never makes a client wait.
+     */
+    private static ExecutorService newPlatformExecutor() {
+        return Executors.newCachedThreadPool();
+    }
+
+    /**
+     * @return true if this Java runtime can run connections on virtual threads
+     */
+    static boolean virtualThreadsSupported() {
+        ExecutorService virtual = newVirtualThreadPerTaskExecutor();
+        if (virtual == null) {
+            return false;
+        }
+        virtual.shutdown();
+        return true;
+    }
+
+    /*
+     * Executors.newVirtualThreadPerTaskExecutor() only exists from Java 21 (and is a preview
+     * feature before that), so we look it up reflectively to still compile and run on older runtimes.
+     * Returns null if it is missing or disabled.
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+}
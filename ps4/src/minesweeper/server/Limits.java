@@ -0,0 +1,78 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+/**
+ * How much one client may cost the server, so that a client that stops reading, floods requests,
+ * or connects and does nothing cannot degrade the game for the others:
+ *   - idle timeout: a client that sends nothing for that long is disconnected (unless it watches a board,
+ *     when it is served by updates and need not send anything)
+ *   - write timeout: a client whose replies have waited that long for it to read them is disconnected,
+ *     which frees the thread blocked writing to it, and the replies
+ *   - request rate: a client sending more requests per second than that (after a burst of as many)
+ *     has its further requests read late enough to keep to the rate
+ * A limit of 0 means no limit. Limits are immutable.
+ */
+public final class Limits {
+
+    /** Limits of a server not told otherwise: no idle timeout, a 30 s write timeout, and no rate limit. */
+    public static final Limits DEFAULT = new Limits(0, 30_000, 0);
+
+    private final long idleTimeoutMillis;
+    private final long writeTimeoutMillis;
+    private final int maxRate;
+
+    // Abstraction function:
+    //   represents the limits idleTimeoutMillis, writeTimeoutMillis, and maxRate requests per second, 0 being none
+    // Rep invariant:
+    //   every field >= 0
+    // Safety from rep exposure:
+    //   all fields are private, final and primitive
+
+    /**
+     * Make Limits.
+     *
+     * @param idleTimeoutMillis milliseconds a client may send nothing for, or 0 for no limit; requires >= 0
+     * @param writeTimeoutMillis milliseconds a reply may wait for the client to read it, or 0 for no limit;
+     *                           requires >= 0
+     * @param maxRate requests per second a client may send, or 0 for no limit; requires >= 0
+     */
+    public Limits(long idleTimeoutMillis, long writeTimeoutMillis, int maxRate) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.writeTimeoutMillis = writeTimeoutMillis;
+        this.maxRate = maxRate;
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert idleTimeoutMillis >= 0 && writeTimeoutMillis >= 0 && maxRate >= 0;
+    }
+
+    /**
+     * @return milliseconds a client that does not watch a board may send nothing for, 0 if there is no limit
+     */
+    public long idleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    /**
+     * @return milliseconds a reply may wait for the client to read it, 0 if there is no limit
+     */
+    public long writeTimeoutMillis() {
+        return writeTimeoutMillis;
+    }
+
+    /**
+     * @return requests per second a client may send, 0 if there is no limit
+     */
+    public int maxRate() {
+        return maxRate;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("idle timeout %d ms, write timeout %d ms, max rate %d/s",
+                idleTimeoutMillis, writeTimeoutMillis, maxRate);
+    }
+}
@@ -0,0 +1,174 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import minesweeper.Board;
+import minesweeper.LatencyHistogram;
+
+/**
+ * What a server measures about itself, for the stats request and the periodic dump of --stats-interval:
+ * clients connected, rooms and the players of one, bytes received and sent, clients held back or disconnected
+ * by the server's Limits, and how long each kind of request takes to handle.
+ *
+ * Recording costs a few uncontended atomic adds per request, and reading the clock twice,
+ * so every request is measured rather than a sample.
+ *
+ * Thread-safety argument:
+ *   every counter is a LongAdder, and every histogram a thread-safe LatencyHistogram;
+ *   the array of histograms is filled in by the constructor and never changed after
+ */
+class Metrics {
+
+    private final LongAdder connections = new LongAdder();
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder idleTimeouts = new LongAdder();
+    private final LongAdder writeTimeouts = new LongAdder();
+    private final LongAdder delays = new LongAdder();
+    private final WriteStats writes = new WriteStats();
+    // indexed by Command.Type.ordinal()
+    private final LatencyHistogram[] requests = new LatencyHistogram[Command.Type.values().length];
+    private final LatencyHistogram batches = new LatencyHistogram();
+
+    // Abstraction function:
+    //   represents connections() clients connected now, out of accepted ever, which have sent bytesRead bytes
+    //   and been sent what writes counts; idleTimeouts and writeTimeouts of them were disconnected for going
+    //   over their Limits, and clients were held back delays times to keep to the rate limit;
+    //   requests[t] holds the time taken by each request of type t handled on its own,
+    //   and batches the time taken by each batch of moves
+    // Rep invariant:
+    //   requests.length == Command.Type.values().length, and no element is null
+    // Safety from rep exposure:
+    //   all fields are private; writes and the histograms are returned on purpose, to record into
+
+    /**
+     * Make Metrics with nothing recorded yet.
+     */
+    Metrics() {
+        for (int i = 0; i < requests.length; i++) {
+            requests[i] = new LatencyHistogram();
+        }
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert requests.length == Command.Type.values().length;
+    }
+
+    /**
+     * Count a client connecting.
+     */
+    void connected() {
+        connections.increment();
+        accepted.increment();
+    }
+
+    /**
+     * Count a client that connected leaving.
+     */
+    void disconnected() {
+        connections.decrement();
+    }
+
+    /**
+     * @return number of clients connected now
+     */
+    long connections() {
+        return connections.sum();
+    }
+
+    /**
+     * Count bytes received from a client.
+     *
+     * @param bytes number of bytes, >= 0
+     */
+    void read(long bytes) {
+        bytesRead.add(bytes);
+    }
+
+    /**
+     * @return number of bytes received from clients so far
+     */
+    long bytesRead() {
+        return bytesRead.sum();
+    }
+
+    /**
+     * Count a client disconnected for sending nothing for longer than its idle timeout.
+     */
+    void idleTimedOut() {
+        idleTimeouts.increment();
+    }
+
+    /**
+     * Count a client disconnected for not reading its replies within the write timeout.
+     */
+    void writeTimedOut() {
+        writeTimeouts.increment();
+    }
+
+    /**
+     * Count a client made to wait before its next request is read, to keep to the rate limit.
+     */
+    void delayed() {
+        delays.increment();
+    }
+
+    /**
+     * @return counts of what the server writes to its clients
+     */
+    WriteStats writes() {
+        return writes;
+    }
+
+    /**
+     * @param type kind of request
+     * @return times taken to handle requests of that kind, in nanoseconds, to read or record into
+     */
+    LatencyHistogram request(Command.Type type) {
+        return requests[type.ordinal()];
+    }
+
+    /**
+     * @return times taken to handle batches of moves, in nanoseconds, to read or record into
+     */
+    LatencyHistogram batches() {
+        return batches;
+    }
+
+    /**
+     * Summarize the metrics, one line each, leaving out kinds of request that never came.
+     *
+     * @param room a room to report the players and lock times of
+     * @param rooms all the rooms of the server
+     * @return lines of the summary, without newlines
+     */
+    List<String> report(Room room, RoomRegistry rooms) {
+        List<String> lines = new ArrayList<>();
+        lines.add(String.format("connections %d, accepted %d", connections(), accepted.sum()));
+        lines.add(String.format("rooms %d, players in %s %d, watching %d",
+                rooms.size(), room.name(), room.players(), room.watchers()));
+        lines.add(String.format("read: bytes %d", bytesRead()));
+        lines.add("written: " + writes);
+        lines.add(String.format("limits: idle timeouts %d, write timeouts %d, rate delays %d",
+                idleTimeouts.sum(), writeTimeouts.sum(), delays.sum()));
+        for (Command.Type type : Command.Type.values()) {
+            LatencyHistogram histogram = request(type);
+            if (histogram.count() > 0) {
+                lines.add(type.toString().toLowerCase().replace('_', '-') + ": " + histogram);
+            }
+        }
+        if (batches.count() > 0) {
+            lines.add("batch: " + batches);
+        }
+        Board board = room.board();
+        lines.add("lock wait in " + room.name() + ": " + board.lockWaits());
+        lines.add("lock hold in " + room.name() + ": " + board.lockHolds());
+        return lines;
+    }
+}
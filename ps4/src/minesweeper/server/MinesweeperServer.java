@@ -5,9 +5,20 @@ package minesweeper.server;
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 import minesweeper.Board;
+import minesweeper.BoardFile;
+import minesweeper.BoardStore;
+import minesweeper.Move;
 
 /**
  * Multiplayer Minesweeper server.
@@ -16,11 +27,15 @@ import minesweeper.Board;
 public class MinesweeperServer {
 
     // System thread safety argument
-    // 1. The Board class is thread-safe as all its mutating methods are synchronized on a private lock
-    // 2. The static board variable is only assigned once during server startup
-    // 3. The static players variable is modified using synchronized blocks
-    // 4. Each client connection is handled in its own thread with its own local variables
-    // 5. The only shared state between threads is the board and players count, which are properly synchronized
+    // 1. The Board class is thread-safe as all its mutating methods lock the tiles they touch
+    // 2. The rooms, and so the boards and player counts, are held in a thread-safe RoomRegistry
+    // 3. Each client connection is handled in its own executor task with its own local variables,
+    //    including its Session (or, with --nio, all connections are confined to the single SelectorLoop thread)
+    // 4. A watching blocking client has a second task writing to it, on writerExecutor rather than
+    //    connectionExecutor, so that a bounded connection pool cannot starve it; the two only share its Outbox,
+    //    which is thread-safe, and the board only tells the Outbox about changes, never waits for it
+    // 5. The only shared state between threads is the rooms, which are properly synchronized,
+    //    and the metrics, which are thread-safe counters
 
     /** Default server port. */
     private static final int DEFAULT_PORT = 4444;
@@ -28,52 +43,151 @@ public class MinesweeperServer {
     private static final int MAXIMUM_PORT = 65535;
     /** Default square board size. */
     private static final int DEFAULT_SIZE = 5;
+    /** Chance that a square of a random board has a mine. */
+    private static final double MINE_PROBABILITY = 0.25;
+    /** Most columns and rows of the board of a new room, however big the lobby's is. */
+    static final int MAX_ROOM_SIZE = 1000;
 
-    /** Socket for receiving incoming connections. */
-    private final ServerSocket serverSocket;
+    /** Help message, also sent back for any invalid request. */
+    private static final Reply HELP = Reply.message("Commands: look | dig x y | flag x y | deflag x y | help | bye", false);
+    /** Reply to bye, after which the connection is closed. */
+    private static final Reply GOODBYE = Reply.message("You chose to leave the game. Goodbye!", true);
+
+    /** Reply to binary, the last one in text. */
+    private static final Reply SWITCHED_TO_BINARY = Reply.toBinary("Binary.");
+
+    /** Acknowledgement of a batched move that changed the board. */
+    private static final Reply ACK_CHANGED = Reply.message("OK", false);
+    /** Acknowledgement of a batched move that did not change the board. */
+    private static final Reply ACK_UNCHANGED = Reply.message("NO", false);
+    /** Most moves applied as one batch. */
+    static final int MAX_BATCH = 256;
+
+    /** Most bytes of replies kept for a client before they are written, even if it has sent more requests. */
+    static final int MAX_OUTPUT = 64 * 1024;
+
+    /** Most replies a watching blocking client may have waiting to be sent before its requests stall. */
+    private static final int MAX_QUEUED_REPLIES = 16;
+
+    /** Channel for receiving incoming connections; blocking unless the server runs with --nio. */
+    private final ServerSocketChannel serverChannel;
     /** True if the server should *not* disconnect a client after a BOOM message. */
     private final boolean debug;
+    /** Reply to digging a mine; closes the connection unless in debug mode. */
+    private final Reply boom;
+    /** Runs one handleConnection task per client; null if the server runs with --nio. */
+    private final ExecutorService connectionExecutor;
+    /** Runs one pushReplies task per watching client, never bounded; null if the server runs with --nio. */
+    private final ExecutorService writerExecutor;
+    /** Serves every client from one non-blocking thread; null unless the server runs with --nio. */
+    private final SelectorLoop selectorLoop;
 
-    //this is a static board field - currently only a single board available for all servers
-    // in the future, may include support for multiple boards available
+    // connections, bytes, and request times, over all connections
+    private final Metrics metrics = new Metrics();
+    // how much one client may cost the server
+    private final Limits limits;
+    // disconnects blocking clients that do not read what we write them within limits.writeTimeoutMillis()
+    private final WriteWatchdog watchdog;
 
-    // cannot be final here because we may want to reassign the board later
-    // good for mutable shared state
-    // VERY IMPORTANT: CURRENTLY BOARD IS A STATIC VARIABLE
-    // we only allow one board and one game session at any time here
-    private static Board board;
-    /** Number of players currectly connected. */
-    private static int players;
+    // every game hosted by this server, each with its own board and players
+    // players start in the lobby, whose board is the one given to the constructor,
+    // and other rooms get a new random board of the same size, up to MAX_ROOM_SIZE a side
+    private final RoomRegistry rooms;
 
     // Abstraction function:
-    //   static variables and methods represent a minesweeper server with a board
-    //   instance variables and methods represent a thread serving a client user
+    //   represents a minesweeper server hosting the games in rooms,
+    //   and serving each connected client from a thread (or the selector loop) with its own Session
     // Rep invariant:
-    //   none
+    //   exactly one of connectionExecutor and selectorLoop is non-null
+    //   writerExecutor != null iff connectionExecutor != null, and writerExecutor != connectionExecutor
     // Safety from rep exposure:
-    //   board and players are never returned, and are declared as private
+    //   rooms is never returned, and are declared as private; limits is immutable;
+    //   metrics is returned to the SelectorLoop on purpose, to record into
+
+    /**
+     * Make a MinesweeperServer that listens for connections on port, giving new rooms boards from an unseeded random.
+     * 
+     * @param lobby board of the room players start in
+     * @param port port number, requires 0 <= port <= 65535
+     * @param debug debug mode flag
+     * @param nio true to serve every connection from one non-blocking selector thread,
+     *            false to run each connection as a task on connectionExecutor
+     * @param connectionExecutor executor for blocking connection handlers, see ConnectionExecutors;
+     *                           requires connectionExecutor == null iff nio
+     * @throws IOException if an error occurs opening the server socket
+     */
+    public MinesweeperServer(Board lobby, int port, boolean debug, boolean nio, ExecutorService connectionExecutor)
+            throws IOException {
+        this(lobby, port, debug, nio, connectionExecutor, new SplittableRandom().nextLong());
+    }
+
+    /**
+     * Make a MinesweeperServer that listens for connections on port.
+     * 
+     * @param lobby board of the room players start in
+     * @param port port number, requires 0 <= port <= 65535
+     * @param debug debug mode flag
+     * @param nio true to serve every connection from one non-blocking selector thread,
+     *            false to run each connection as a task on connectionExecutor
+     * @param connectionExecutor executor for blocking connection handlers, see ConnectionExecutors;
+     *                           requires connectionExecutor == null iff nio
+     * @param seed seed of the random boards of new rooms; a room gets the same board for the same seed and name
+     * @throws IOException if an error occurs opening the server socket
+     */
+    public MinesweeperServer(Board lobby, int port, boolean debug, boolean nio, ExecutorService connectionExecutor,
+            long seed) throws IOException {
+        this(lobby, port, debug, nio, connectionExecutor, seed, Limits.DEFAULT);
+    }
 
     /**
      * Make a MinesweeperServer that listens for connections on port.
      * 
+     * @param lobby board of the room players start in
      * @param port port number, requires 0 <= port <= 65535
      * @param debug debug mode flag
+     * @param nio true to serve every connection from one non-blocking selector thread,
+     *            false to run each connection as a task on connectionExecutor
+     * @param connectionExecutor executor for blocking connection handlers, see ConnectionExecutors;
+     *                           requires connectionExecutor == null iff nio
+     * @param seed seed of the random boards of new rooms; a room gets the same board for the same seed and name
+     * @param limits how much one client may cost the server, see Limits
      * @throws IOException if an error occurs opening the server socket
      */
-    public MinesweeperServer(int port, boolean debug) throws IOException {
-        //Java class
-        this.serverSocket = new ServerSocket(port);
+    public MinesweeperServer(Board lobby, int port, boolean debug, boolean nio, ExecutorService connectionExecutor,
+            long seed, Limits limits) throws IOException {
+        // we always open a channel; in blocking mode its socket() behaves exactly like a plain ServerSocket
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(new InetSocketAddress(port));
         this.debug = debug;
-        //try starting the server
-        serve();
+        this.boom = Reply.message("BOOM!", !debug);
+        this.connectionExecutor = connectionExecutor;
+        this.writerExecutor = nio ? null : ConnectionExecutors.createWriters();
+        this.limits = limits;
+        // the selector loop times its clients out itself
+        this.watchdog = new WriteWatchdog(nio ? 0 : limits.writeTimeoutMillis(), metrics);
+        this.rooms = new RoomRegistry(lobby, Runtime.getRuntime().availableProcessors(),
+                name -> createRandomBoard(Math.min(lobby.width, MAX_ROOM_SIZE), Math.min(lobby.height, MAX_ROOM_SIZE),
+                        seed, name));
+        this.selectorLoop = nio ? new SelectorLoop(this, serverChannel, limits) : null;
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert (connectionExecutor == null) != (selectorLoop == null);
+        assert (writerExecutor == null) == (connectionExecutor == null);
+        assert writerExecutor == null || writerExecutor != connectionExecutor;
     }
 
     /**
      * Run the server, listening for client connections and handling them.
-     * Never returns unless an exception is thrown.
+     * Returns only after shutdown() has been called, or if an exception is thrown.
      * 
      * Game continues endlessly! There is no win condition
      * 
+     * Each accepted client is handed to connectionExecutor, which decides whether it gets a
+     * virtual thread, a platform thread, or waits for a pooled one (see ConnectionExecutors).
+     * With --nio, the whole loop is delegated to a SelectorLoop running on the calling thread.
+     * 
      * @throws IOException if the main server socket is broken
      *                     (IOExceptions from individual clients do *not* terminate serve())
      * 
@@ -85,10 +199,10 @@ public class MinesweeperServer {
     -------------        --------------        --------------
     accept() -> wait
     client1 connects
-    spawn Thread1        START
+    execute(client1)     START
     accept() -> wait     handle client1...
     client2 connects     still running...
-    spawn Thread2        still running...      START
+    execute(client2)     still running...      START
     accept() -> wait     still running...      handle client2...
                         client1 disconnects
                         END                    still running...
@@ -100,6 +214,10 @@ public class MinesweeperServer {
      * 
      */
     public void serve() throws IOException {
+        if (selectorLoop != null) {
+            selectorLoop.run();
+            return;
+        }
         while (true) {
             // block until a client connects
             /*
@@ -111,187 +229,589 @@ public class MinesweeperServer {
             so the below code accepts multiple new clients, creates multiple acceptSocket
              * 
              */
-            Socket acceptSocket = serverSocket.accept();
+            Socket acceptSocket;
+            try {
+                acceptSocket = serverChannel.socket().accept();
+            } catch (IOException ioe) {
+                // shutdown() closes the channel to break us out of accept()
+                if (!serverChannel.isOpen()) {
+                    break;
+                }
+                throw ioe;
+            }
 
-            //create a new thread for each client
-            new Thread(() -> {
+            //run each client as its own task
+            connectionExecutor.execute(() -> {
                 // handle the client
+                // handleConnection closes the socket, or leaves it to the task it hands the client to
                 try {
-                    try {
-                        handleConnection(acceptSocket);
-                    }
-                    // if anything wrong, close related accepted server socket
-                    finally {
-                        acceptSocket.close();
-                    }
+                    handleConnection(acceptSocket);
                     //handle the exception outside
                 } catch (IOException ioe) {
                     ioe.printStackTrace();
                 }
 
-                //after starting a thread, immediately goes to next loop
-            }).start();
+                //after submitting the task, immediately goes to next loop
+            });
 
         }
+        // connected clients keep playing until they leave, but no new tasks are accepted
+        connectionExecutor.shutdown();
+        writerExecutor.shutdown();
     }
 
     /**
-     * Handle a single client connection. Returns when client disconnects.
+     * Stop accepting new clients, and make serve() return.
+     * Clients that are already connected are not disconnected; they are served until they leave.
+     * 
+     * @throws IOException if the server socket cannot be closed
+     */
+    public void shutdown() throws IOException {
+        serverChannel.close();
+        watchdog.shutdown();
+        if (selectorLoop != null) {
+            selectorLoop.wakeup();
+        }
+    }
+
+    /**
+     * Handle a single client connection. Returns when client disconnects, or when it is left to
+     * send the last replies to a watching client. Either way, the socket is closed when done.
      * 
      * @param acceptSocket socket where the client is connected
      * @throws IOException if the connection encounters an error or terminates unexpectedly
      */
     private void handleConnection(Socket acceptSocket) throws IOException {
-        // Create a reader to receive input from the client
-        BufferedReader in = new BufferedReader(new InputStreamReader(acceptSocket.getInputStream()));
-        // Create a writer to send output to the client
-        // The 'true' parameter enables auto-flushing - output is sent immediately
-        PrintWriter out = new PrintWriter(acceptSocket.getOutputStream(), true);
+        // once the client watches the board, a writer task sends everything through this instead
+        Outbox outbox = null;
+        Session session = connect();
+        // reused for every request
+        Command command = new Command();
+        // true once the client speaks the binary protocol
+        boolean binary = false;
+        // keeps the client to limits.maxRate(), if there is one
+        RateLimiter limiter = limits.maxRate() > 0 ? new RateLimiter(limits.maxRate()) : null;
+        // Send output through the socket's channel, so replies go out straight from their
+        // (possibly shared) byte buffers, e.g. the board's cached rendering;
+        // the guard closes the socket if a write takes longer than the write timeout
+        WriteWatchdog.Guard out = watchdog.guard(acceptSocket);
 
         try {
+            // Create a reader to receive input from the client
+            RequestReader in = new RequestReader(acceptSocket.getInputStream(), metrics);
+            // replies wait here while the client has sent more requests, to go out in one write with theirs
+            OutputBuffer output = new OutputBuffer(metrics.writes());
+            // reads give up with a SocketTimeoutException once the client has been idle too long
+            acceptSocket.setSoTimeout((int) Math.min(limits.idleTimeoutMillis(), Integer.MAX_VALUE));
+
             // Send HELLO message immediately upon connection
-            updatePlayers(1);
-            String helloMsg = String.format(
-                    "Welcome to Minesweeper. Board: %d columns by %d rows. Players: %d including you. Type 'help' for help.",
-                    board.width, board.height, players);
-            out.println(helloMsg);
+            output.add(Reply.message(helloMessage(session), false).buffers(binary));
+            out.write(output);
 
             // Start a loop that continues as long as we receive input
-            // first time store in.readLine()
-            // terminate when line is null
-            // read the next line. will be null when client disconnects
-            for (String line = in.readLine(); line != null; line = in.readLine()) {
-                //process and get the output message
-                String output = handleRequest(line);
-                if (output != null) {
-                    // Send the response back to the client
-                    out.println(output);
-
-                    //check if player wants to leave
-                    if (output.endsWith("Goodbye!")) { // Check for disconnect signal
-                        break; // Exit loop and close connection
+            // terminate when the client disconnects
+            // (when batching, we may have read the next request already; then it is not read again)
+            boolean pending = false;
+            while (pending || in.next(command)) {
+                pending = false;
+                //process and get the reply
+                Reply reply;
+                int requests = 1;
+                if (command.isMove() && session.batching() != Session.Batching.OFF) {
+                    // take every further move the client has already sent in full, up to the first other request
+                    // (not a move still arriving, whose wait would hold up the replies to the ones before it)
+                    List<Move> moves = new ArrayList<>();
+                    moves.add(command.move());
+                    while (moves.size() < MAX_BATCH && in.hasRequest() && in.next(command)) {
+                        if (!command.isMove()) {
+                            pending = true;
+                            break;
+                        }
+                        moves.add(command.move());
                     }
+                    reply = handleBatch(session, moves);
+                    requests = moves.size();
+                } else {
+                    reply = handleRequest(session, command);
+                }
+
+                // switch to a writer task, which also sends the board updates
+                if (reply.isWatch() && outbox == null) {
+                    // what we have not sent yet goes first
+                    out.write(output);
+                    outbox = watch(acceptSocket, binary);
+                    if (outbox != null) {
+                        // a watching client is served by updates, and need not send anything
+                        acceptSocket.setSoTimeout(0);
+                    }
+                }
+
+                // Send the response back to the client, or keep it for the next write
+                // while the client has already sent more requests (or we have kept a lot)
+                if (outbox == null) {
+                    output.add(reply.buffers(binary));
+                    if (reply.isLast() || output.size() >= MAX_OUTPUT || !(pending || in.hasRequest())) {
+                        out.write(output);
+                    }
+                } else {
+                    outbox.put(reply);
+                }
 
-                    // if not in debug mode and boom then must close connection'
-                    if (output.endsWith("BOOM!") && !debug) { // Check for disconnect signal
-                        break; // Exit loop and close connection
+                // the reply itself is the last one in text
+                if (reply.isToBinary()) {
+                    binary = true;
+                    in.toBinary();
+                }
+
+                //check if player wants to leave, or hit a bomb outside debug mode
+                if (reply.isLast()) {
+                    break; // Exit loop and close connection
+                }
+
+                // a client over its rate waits for its next request to be read, with its replies sent meanwhile
+                if (limiter != null) {
+                    long wait = limiter.acquire(System.nanoTime(), requests);
+                    if (wait > 0) {
+                        metrics.delayed();
+                        if (outbox == null) {
+                            out.write(output);
+                        }
+                        TimeUnit.NANOSECONDS.sleep(wait);
                     }
                 }
             }
+            // the client stopped sending, but may still read what we kept
+            if (outbox == null) {
+                out.write(output);
+            }
+        } catch (SocketTimeoutException ste) {
+            // the client sent nothing for longer than the idle timeout
+            metrics.idleTimedOut();
+        } catch (IOException ioe) {
+            // unless the client was dropped for not reading its replies, which is not an error of ours
+            if (!out.timedOut()) {
+                throw ioe;
+            }
+        } catch (InterruptedException ie) {
+            // only while waiting for room in the outbox; give up on this client
+            Thread.currentThread().interrupt();
         } finally {
+            out.close();
+            disconnect(session);
             // When the connection ends (either normally or due to an error),
             // closing the socket is equivalent to closing the input and output streams!
-            acceptSocket.close();
+            // but if a writer task is sending for us, it closes the socket once it has sent everything
+            if (outbox == null) {
+                acceptSocket.close();
+            } else {
+                outbox.close();
+            }
+        }
+    }
+
+    /*
+     * Start a writer task sending replies, and updates of the boards they say to watch, to a blocking client
+     * that speaks the binary protocol iff binary.
+     * The task runs on writerExecutor: on a full connection pool (--executor pool:N) it would wait behind
+     * the readers, while this client's reader waits for it as soon as MAX_QUEUED_REPLIES replies are queued.
+     * Returns its Outbox, or null if the server is shutting down and runs no new tasks.
+     */
+    private Outbox watch(Socket acceptSocket, boolean binary) {
+        Outbox outbox = new Outbox(MAX_QUEUED_REPLIES);
+        try {
+            writerExecutor.execute(() -> pushReplies(acceptSocket, outbox, binary));
+            return outbox;
+        } catch (RejectedExecutionException ree) {
+            return null;
+        }
+    }
+
+    /*
+     * Writer task of a watching client: send replies and board updates from outbox until it is
+     * closed and empty, or the client has to be disconnected, then close the socket.
+     * Starts in the binary protocol iff binary, and switches to it after a reply that says so.
+     */
+    private void pushReplies(Socket acceptSocket, Outbox outbox, boolean binary) {
+        WriteWatchdog.Guard out = watchdog.guard(acceptSocket);
+        try {
+            try {
+                OutputBuffer output = new OutputBuffer(metrics.writes());
+                for (Reply reply = outbox.take(); reply != null; reply = outbox.take()) {
+                    output.add(reply.buffers(binary));
+                    binary |= reply.isToBinary();
+                    // replies already waiting go out in the same write
+                    if (reply.isLast() || output.size() >= MAX_OUTPUT || !outbox.hasReplies()) {
+                        out.write(output);
+                    }
+                    if (reply.isLast()) {
+                        break;
+                    }
+                }
+            } finally {
+                out.close();
+                outbox.stopWatching();
+                // the reading thread may be waiting for room, or still reading
+                outbox.close();
+                acceptSocket.close();
+            }
+        } catch (IOException ioe) {
+            // unless the client was dropped for not reading its replies, which is not an error of ours
+            if (!out.timedOut()) {
+                ioe.printStackTrace();
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
         }
     }
 
     /**
-     * Handler for client input, performing requested operations and returning an output message.
+     * Register a newly connected player, in the lobby.
+     * Shared by the thread-per-connection and the non-blocking paths, like the methods below.
      * 
-     * @param input message from client
-     * @return message to client, or null if none
+     * @return the new player's session, to pass to the other methods until disconnect()
      */
-    private String handleRequest(String input) {
-        String regex = "(look)|(help)|(bye)|"
-                + "(dig -?\\d+ -?\\d+)|(flag -?\\d+ -?\\d+)|(deflag -?\\d+ -?\\d+)";
-        if (!input.matches(regex)) {
-            // Invalid input - return help message
-            return "Commands: look | dig x y | flag x y | deflag x y | help | bye";
+    Session connect() {
+        metrics.connected();
+        Session session = new Session();
+        session.setRoom(rooms.enter(RoomRegistry.LOBBY, session));
+        return session;
+    }
+
+    /**
+     * Build the HELLO message of a newly connected player.
+     * 
+     * @param session session of the player, from connect()
+     * @return welcome message to send to the new client
+     */
+    String helloMessage(Session session) {
+        Room room = session.room();
+        return String.format(
+                "Welcome to Minesweeper. Board: %d columns by %d rows. Players: %d including you. Type 'help' for help.",
+                room.board().width, room.board().height, room.players());
+    }
+
+    /**
+     * Remove a player whose connection has ended from its room. Does nothing if called again.
+     * 
+     * @param session session of the player, from connect()
+     */
+    void disconnect(Session session) {
+        if (session.room() != null) {
+            rooms.leave(session.room(), session);
+            session.setRoom(null);
+            metrics.disconnected();
         }
-        String[] tokens = input.split(" ");
+    }
+
+    /**
+     * @return the port the server listens on, e.g. the one chosen for it if it was made with port 0
+     */
+    int port() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * @return counts of what the server has written to its clients so far
+     */
+    WriteStats writeStats() {
+        return metrics.writes();
+    }
+
+    /**
+     * @return what the server measures about itself, to read or record into
+     */
+    Metrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * @return how much one client may cost the server
+     */
+    Limits limits() {
+        return limits;
+    }
+
+    /**
+     * @return summary of the metrics, one line each, with the players and lock times of the lobby
+     */
+    List<String> report() {
+        return metrics.report(rooms.lobby(), rooms);
+    }
+
+    /**
+     * Print a summary of the metrics, with the players and lock times of the lobby, to System.err
+     * every interval seconds, from a daemon thread, for as long as the server's JVM runs.
+     * 
+     * @param interval seconds between summaries, requires interval > 0
+     */
+    void dumpStatsEvery(int interval) {
+        ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "stats");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleAtFixedRate(
+                () -> System.err.println(String.join("\n", report())),
+                interval, interval, TimeUnit.SECONDS);
+    }
 
-        // 'look' request
-        if (tokens[0].equals("look")) {
-            return board.toString();
-        } else if (tokens[0].equals("help")) {
+    /**
+     * Handler for client input, performing requested operations and returning the reply.
+     * Board replies share the board's cached rendering, so looks between changes cost no render.
+     * 
+     * <br> Besides the commands of the handout, a client that keeps its own copy of the board can ask
+     *      for just the squares that changed since the version it has, with "look-since VERSION":
+     * <pre>
+     *   LOOK_SINCE ::= "look-since" SPACE VERSION
+     *   REPLY ::= DELTA | FULL
+     *   DELTA ::= "DELTA" SPACE VERSION SPACE INT NEWLINE (INT SPACE INT SPACE SYMBOL NEWLINE)*
+     *   FULL ::= "BOARD" SPACE VERSION NEWLINE BOARD_MESSAGE
+     *   SYMBOL ::= "-" | "F" | [0-8]
+     *   VERSION ::= [0-9]+
+     * </pre>
+     *      DELTA gives the new version, the number of changed squares, then "x y symbol" for each of them,
+     *      where symbol is as in a BOARD_MESSAGE except that a dug square with no neighbouring mines is "0".
+     *      FULL gives the new version and the whole board, and is sent when the server no longer remembers
+     *      that far back, or when the whole board is smaller. Start with "look-since 0" to get a version.
+     * 
+     * <br> Instead of polling, a client can send "watch". The reply is "BOARD" SPACE VERSION NEWLINE BOARD_MESSAGE,
+     *      and from then on, the server pushes a DELTA or FULL message, as for look-since, whenever the board
+     *      changes, up to the version it is sent at. Pushes never split a reply to the client's own requests.
+     *      A client that reads slowly gets one message covering several changes rather than one per change.
+     * 
+     * <br> Every player starts in the room called "lobby". "join ROOM" moves the player to another room,
+     *      with its own board and players, creating it with a new random board the size of the lobby's
+     *      (but at most MAX_ROOM_SIZE columns and rows) if nobody is playing there;
+     *      a room is forgotten once its last player leaves.
+     * <pre>
+     *   JOIN ::= "join" SPACE ROOM
+     *   ROOM ::= [A-Za-z0-9_-]{1,32}
+     *   JOINED ::= "Joined room " ROOM ". Board: " X " columns by " Y " rows. Players: " N " including you." NEWLINE
+     * </pre>
+     *      If the player watches the board, the JOINED line is followed by "BOARD" SPACE VERSION NEWLINE BOARD_MESSAGE
+     *      for the new room, and updates of its board from then on.
+     * 
+     * <br> Clients sending many moves back to back can ask for them to be batched, with "batch MODE"
+     *      (answered "Batching MODE."):
+     * <pre>
+     *   BATCH ::= "batch" SPACE ("off" | "board" | "ack")
+     *   ACK ::= "OK" NEWLINE | "NO" NEWLINE | BOOM_MESSAGE
+     * </pre>
+     *      With "board" or "ack", the dig, flag and deflag requests the server has received in a row when it gets
+     *      to them are applied to the board all at once (see handleBatch). With "board", they are answered with
+     *      a BOOM_MESSAGE for each mine dug, then one BOARD_MESSAGE after the last of them. With "ack", each gets
+     *      one ACK: OK if it changed the board, NO if not, or BOOM_MESSAGE. Outside debug mode, moves after the
+     *      first BOOM_MESSAGE are not made, and the connection is closed. "batch off", the default, answers every
+     *      move with the board, as in the handout.
+     * 
+     * <br> For big boards, which are mostly long runs of the same symbols, a client can ask for the boards it is sent
+     *      in reply to look, dig, flag, deflag and batched moves to be compressed, with "compress on" (answered
+     *      "Compression on."; "compress off" goes back):
+     * <pre>
+     *   COMPRESSED_BOARD ::= "COMPRESSED" SPACE VERSION SPACE LENGTH NEWLINE BYTES
+     * </pre>
+     *      where BYTES are LENGTH bytes of BOARD_MESSAGE compressed as a raw DEFLATE stream (RFC 1951), without
+     *      a newline after them. Each version of a board is compressed at most once, whoever asks for it.
+     * 
+     * <br> To save bandwidth, a client can send "binary" (answered "Binary."). From then on, both ways, requests and
+     *      replies are binary frames instead of lines: see Command for the requests, and Reply for the replies.
+     *      Every reply above is then sent as the same frames: a MESSAGE frame for each line of text, one BOARD frame
+     *      for a BOARD_MESSAGE (with or without its "BOARD" SPACE VERSION line) carrying 4 bits a square, a DELTA
+     *      frame for a DELTA, and a DEFLATED_BOARD frame, with the 4 bit squares compressed, for a COMPRESSED_BOARD.
+     *      A client sending a frame longer than Command.MAX_FRAME_LENGTH is disconnected.
+     * 
+     * <br> "stats" answers with what the server has measured since it started, one line each: clients connected,
+     *      rooms, players and watchers in the player's room, bytes read and written, then count, mean, median, 99th percentile and max time taken by each kind of
+     *      request that has come, and how long moves have waited for and held the locks of the player's board.
+     * <pre>
+     *   STATS_MESSAGE ::= (LINE NEWLINE)+
+     * </pre>
+     *      The lines are meant for people and may change; in binary, each is a MESSAGE frame.
+     * 
+     * @param session session of the player who sent the request, from connect()
+     * @param input message from client, without its line terminator
+     * @return reply to client, which says if the connection must be closed after it
+     */
+    Reply handleRequest(Session session, String input) {
+        return handleRequest(session, new Command().parse(input));
+    }
+
+    /**
+     * Handler for a parsed client request, performing the requested operation and returning the reply.
+     * Same as handleRequest(session, line) for the line command was parsed from.
+     * 
+     * @param session session of the player who sent the request, from connect()
+     * @param command the request, see Command for the grammar
+     * @return reply to client, which says if the connection must be closed after it
+     */
+    Reply handleRequest(Session session, Command command) {
+        long start = System.nanoTime();
+        Reply reply = dispatch(session, command);
+        metrics.request(command.type()).record(System.nanoTime() - start);
+        return reply;
+    }
+
+    /*
+     * Perform a parsed client request, as handleRequest, without timing it.
+     */
+    private Reply dispatch(Session session, Command command) {
+        Board board = session.room().board();
+        switch (command.type()) {
+        case LOOK:
+            // 'look' request
+            return board(session, board);
+        case LOOK_SINCE:
+            // 'look-since VERSION' request
+            return new ClientView(command.version()).catchUp(board);
+        case WATCH:
+            // 'watch' request: the connection subscribes once this reply is sent
+            session.watch();
+            return Reply.watch(board, board.render());
+        case JOIN:
+            // 'join ROOM' request
+            return join(session, command.room());
+        case BINARY:
+            // 'binary' request: the connection switches protocol once this reply is sent
+            return SWITCHED_TO_BINARY;
+        case COMPRESS:
+            // 'compress on|off' request
+            session.setCompressing(command.compress());
+            return Reply.message(command.compress() ? "Compression on." : "Compression off.", false);
+        case BATCH:
+            // 'batch MODE' request
+            session.setBatching(command.batching());
+            return Reply.message("Batching " + command.batching().toString().toLowerCase() + ".", false);
+        case STATS:
+            // 'stats' request
+            return stats(session);
+        case HELP:
             // 'help' request
-            return "Commands: look | dig x y | flag x y | deflag x y | help | bye";
-        } else if (tokens[0].equals("bye")) {
+            return HELP;
+        case BYE:
             // 'bye' request
-            updatePlayers(-1);
-            //TODO: need to terminate connection here
-            return "You chose to leave the game. Goodbye!";
-        } else {
-            int x = Integer.parseInt(tokens[1]);
-            int y = Integer.parseInt(tokens[2]);
-            if (tokens[0].equals("dig")) {
-                // 'dig x y' request
-                boolean hitBomb = board.dig(x, y);
-                //bomb went off
-                if (hitBomb) {
-                    return "BOOM!";
-                }
-                //no bomb
-                return board.toString();
-            } else if (tokens[0].equals("flag")) {
-                // 'flag x y' request
-                board.flag(x, y);
-                return board.toString();
-            } else if (tokens[0].equals("deflag")) {
-                // 'deflag x y' request
-                board.deflag(x, y);
-                return board.toString();
+            // the player leaves its room when the connection is closed
+            return GOODBYE;
+        case DIG:
+            // 'dig x y' request
+            //bomb went off
+            if (board.dig(command.x(), command.y())) {
+                return boom;
             }
+            //no bomb
+            return board(session, board);
+        case FLAG:
+            // 'flag x y' request
+            board.flag(command.x(), command.y());
+            return board(session, board);
+        case DEFLAG:
+            // 'deflag x y' request
+            board.deflag(command.x(), command.y());
+            return board(session, board);
+        default:
+            // Invalid input - return help message
+            return HELP;
         }
-        // TODO: Should never get here, make sure to return in each of the cases above
-        throw new UnsupportedOperationException();
     }
 
     /**
-    * Creates a random board with given dimensions.
-    */
-    private static Board createRandomBoard(int sizeX, int sizeY) {
-        // we use ArrayList instead of int[][] so we allow it to grow dynamically
-        List<int[]> mines = new ArrayList<>();
-        Random random = new Random();
-
-        // For each square, 25% chance of being a mine
-        for (int x = 0; x < sizeX; x++) {
-            for (int y = 0; y < sizeY; y++) {
-                if (random.nextDouble() < 0.25) {
-                    mines.add(new int[] { x, y });
-                }
+     * Handler for moves a batching client sent in a row: applies them to the board all at once,
+     * then answers them as the session's batching mode says (see handleRequest).
+     * 
+     * @param session session of the player who sent the moves, from connect(); requires it is batching
+     * @param moves moves in the order received, at least one
+     * @return reply to client, which says if the connection must be closed after it
+     */
+    Reply handleBatch(Session session, List<Move> moves) {
+        long start = System.nanoTime();
+        Board board = session.room().board();
+        // outside debug mode, a BOOM ends the connection, so the moves after it are never made
+        Move.Result[] results = board.applyAll(moves, !debug);
+        List<Reply> replies = new ArrayList<>();
+        boolean exploded = false;
+        for (Move.Result result : results) {
+            if (result == Move.Result.BOOM) {
+                exploded = true;
+                replies.add(boom);
+            } else if (session.batching() == Session.Batching.ACK && result == Move.Result.CHANGED) {
+                replies.add(ACK_CHANGED);
+            } else if (session.batching() == Session.Batching.ACK && result == Move.Result.UNCHANGED) {
+                replies.add(ACK_UNCHANGED);
             }
         }
-        //convert to regular array
-        // new int[0][] is the type we want to convert to
-        // Java will actually ignore the zero and convert to correct size
-        // this is equivalent to int[mines.size()][]
-        return new Board(sizeX, sizeY, mines.toArray(new int[0][]));
+        // no board for a client we are about to disconnect
+        if (session.batching() == Session.Batching.BOARD && !(exploded && boom.isLast())) {
+            replies.add(board(session, board));
+        }
+        Reply reply = Reply.concat(replies);
+        metrics.batches().record(System.nanoTime() - start);
+        return reply;
+    }
+
+    /*
+     * The reply to stats, one message per line of the report, with the lock times of the player's board.
+     */
+    private Reply stats(Session session) {
+        Room room = session.room();
+        List<Reply> lines = new ArrayList<>();
+        for (String line : metrics.report(room, rooms)) {
+            lines.add(Reply.message(line, false));
+        }
+        return Reply.concat(lines);
+    }
+
+    /*
+     * The reply showing a player the board, compressed if the player asked for it.
+     */
+    private static Reply board(Session session, Board board) {
+        return session.isCompressing() ? Reply.compressedBoard(board.render()) : Reply.board(board.render());
+    }
+
+    /*
+     * Move a player to the room called name.
+     */
+    private Reply join(Session session, String name) {
+        Room room = session.room();
+        if (!room.name().equals(name)) {
+            // enter first, so that a room is never empty while we move between its name and itself
+            Room from = room;
+            room = rooms.enter(name, session);
+            rooms.leave(from, session);
+            session.setRoom(room);
+        }
+        Board board = room.board();
+        String text = String.format("Joined room %s. Board: %d columns by %d rows. Players: %d including you.",
+                room.name(), board.width, board.height, room.players());
+        if (session.isWatching()) {
+            return Reply.watch(text, board, board.render());
+        }
+        return Reply.message(text, false);
     }
 
     /**
-    * Loads a board from a file.
+    * Creates a random board with given dimensions, each square having a mine with probability MINE_PROBABILITY.
+    * 
+    * @param sizeX board width
+    * @param sizeY board height
+    * @param seed server seed
+    * @param room name of the room the board is for; rooms with different names get different boards
+    * @return the same board every time for the same arguments
     */
-    private static Board loadBoardFromFile(File file) throws IOException {
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            // Read board dimensions
-
-            //read the first line
-            String[] dimensions = reader.readLine().split(" ");
-            //x-coord
-            int width = Integer.parseInt(dimensions[0]);
-            //y-coord
-            int height = Integer.parseInt(dimensions[1]);
-
-            List<int[]> mines = new ArrayList<>();
-
-            // Read each line and find mines
-
-            // for each row
-            for (int y = 0; y < height; y++) {
-                String[] values = reader.readLine().split(" ");
-                // for each elem along the wrong
-                for (int x = 0; x < width; x++) {
-                    if (values[x].equals("1")) {
-                        mines.add(new int[] { x, y });
-                    }
-                }
-            }
+    static Board createRandomBoard(int sizeX, int sizeY, long seed, String room) {
+        // mix the room name into the seed, so that the board does not depend on the order rooms are created in
+        // (the constant is the golden ratio increment SplittableRandom itself uses)
+        SplittableRandom random = new SplittableRandom(seed + room.hashCode() * 0x9E3779B97F4A7C15L);
+        // fills the board directly, without an int[] per mine, see Board.random
+        return Board.random(sizeX, sizeY, MINE_PROBABILITY, random);
+    }
 
-            //convert to regular array
-            return new Board(width, height, mines.toArray(new int[0][]));
-        } catch (Exception e) {
+    /**
+    * Loads a board from a file, in the text format below or the binary format of BoardFile.
+    */
+    private static Board loadBoardFromFile(File file) {
+        try {
+            // streams the file straight into a bitmap of the mines, see BoardFile
+            return BoardFile.load(file);
+        } catch (IOException e) {
             throw new RuntimeException("Invalid board file format", e);
         }
     }
@@ -300,13 +820,27 @@ public class MinesweeperServer {
      * Start a MinesweeperServer using the given arguments.
      * 
      * <br> Usage:
-     *      MinesweeperServer [--debug | --no-debug] [--port PORT] [--size SIZE_X,SIZE_Y | --file FILE]
+     *      MinesweeperServer [--debug | --no-debug] [--nio | --executor EXECUTOR] [--port PORT]
+     *                        [--size SIZE_X,SIZE_Y | --file FILE] [--seed SEED] [--state DIR]
+     *                        [--stats-interval SECONDS] [--idle-timeout SECONDS] [--write-timeout SECONDS]
+     *                        [--max-rate REQUESTS]
      * 
      * <br> The --debug argument means the server should run in debug mode. The server should disconnect a
      *      client after a BOOM message if and only if the --debug flag was NOT given.
      *      Using --no-debug is the same as using no flag at all.
      * <br> E.g. "MinesweeperServer --debug" starts the server in debug mode.
      * 
+     * <br> The --nio argument serves all clients from a single selector thread using non-blocking
+     *      channels, instead of spawning one thread per connection. The protocol is unchanged.
+     * <br> E.g. "MinesweeperServer --nio --size 2000,2000" serves a large lobby from one thread.
+     * 
+     * <br> EXECUTOR is an optional argument, one of "virtual", "platform" or "pool:N", choosing what runs
+     *      each blocking client connection: a virtual thread (a platform thread on Java runtimes without them),
+     *      a platform thread, or one of N pooled threads. The default is "platform". It may not be combined with --nio.
+     *      With "pool:N", a client holds its thread for as long as it stays connected, so N clients that stay
+     *      (idle, reading slowly, or watching) keep every later client waiting, not even sent its HELLO.
+     * <br> E.g. "MinesweeperServer --executor virtual" serves every client on its own virtual thread.
+     * 
      * <br> PORT is an optional integer in the range 0 to 65535 inclusive, specifying the port the server
      *      should be listening on for incoming connections.
      * <br> E.g. "MinesweeperServer --port 1234" starts the server listening on port 1234.
@@ -316,6 +850,11 @@ public class MinesweeperServer {
      * <br> E.g. "MinesweeperServer --size 42,58" starts the server initialized with a random board of size
      *      42*58.
      * 
+     * <br> SEED is an optional long, seeding the random boards of the lobby (unless --file is given) and
+     *      of every other room, so that a server started again with the same arguments has the same boards.
+     *      Without it, a random seed is used.
+     * <br> E.g. "MinesweeperServer --size 10000,10000 --seed 42" starts on the same 10000*10000 board every time.
+     * 
      * <br> FILE is an optional argument specifying a file pathname where a board has been stored. If this
      *      argument is given, the stored board should be loaded as the starting board.
      * <br> E.g. "MinesweeperServer --file boardfile.txt" starts the server initialized with the board stored
@@ -334,6 +873,27 @@ public class MinesweeperServer {
      *   INT ::= [0-9]+
      * </pre>
      * 
+     * <br> FILE may also be a board file in the binary format of BoardFile, which loads faster for big boards.
+     * 
+     * <br> DIR is an optional directory where the lobby's game is kept, see BoardStore: every change to its
+     *      board is logged there, so that a server started again with the same DIR carries on with the same
+     *      board, instead of the one --file or --size would give (which is only used if DIR has no board yet).
+     * <br> E.g. "MinesweeperServer --size 1000,1000 --state game" keeps its game in the directory game.
+     * 
+     * <br> SECONDS is an optional positive integer: every SECONDS seconds, the server prints to System.err what it
+     *      has measured so far, as in the reply to "stats", with the lock times of the lobby's board.
+     *      Without it, nothing is printed.
+     * <br> E.g. "MinesweeperServer --stats-interval 60" prints the server's metrics every minute.
+     * 
+     * <br> --idle-timeout, --write-timeout and --max-rate limit what one client may cost the server, see Limits.
+     *      A client that sends nothing for --idle-timeout SECONDS (and does not watch a board) is disconnected;
+     *      by default, clients may stay idle forever. A client that leaves its replies unread for --write-timeout
+     *      SECONDS is disconnected; the default is 30, and 0 means never. A client sending more than --max-rate
+     *      REQUESTS a second (after a burst of as many) has its requests read only as fast as that; by default
+     *      there is no limit.
+     * <br> E.g. "MinesweeperServer --idle-timeout 600 --max-rate 100" drops clients idle for 10 minutes, and
+     *      serves at most 100 requests a second to each client.
+     * 
      * <br> If neither --file nor --size is given, generate a random board of size 10x10.
      * 
      * <br> Note that --file and --size may not be specified simultaneously.
@@ -341,13 +901,23 @@ public class MinesweeperServer {
      * @param args arguments as described
      */
     public static void main(String[] args) {
-        // Command-line argument parsing is provided. Do not change this method.
+        // Command-line argument parsing: the handout's options, plus the server's own; see the javadoc above.
         boolean debug = false;
+        boolean nio = false;
+        Optional<String> executor = Optional.empty();
         int port = DEFAULT_PORT;
         //sizeX and sizeY are already initialized to default size!
         int sizeX = DEFAULT_SIZE;
         int sizeY = DEFAULT_SIZE;
         Optional<File> file = Optional.empty();
+        long seed = new SplittableRandom().nextLong();
+        Optional<File> state = Optional.empty();
+        int statsInterval = 0;
+        long idleTimeout = Limits.DEFAULT.idleTimeoutMillis() / 1000;
+        long writeTimeout = Limits.DEFAULT.writeTimeoutMillis() / 1000;
+        int maxRate = Limits.DEFAULT.maxRate();
+
+        ExecutorService connectionExecutor;
 
         Queue<String> arguments = new LinkedList<String>(Arrays.asList(args));
         try {
@@ -358,6 +928,10 @@ public class MinesweeperServer {
                         debug = true;
                     } else if (flag.equals("--no-debug")) {
                         debug = false;
+                    } else if (flag.equals("--nio")) {
+                        nio = true;
+                    } else if (flag.equals("--executor")) {
+                        executor = Optional.of(arguments.remove());
                     } else if (flag.equals("--port")) {
                         port = Integer.parseInt(arguments.remove());
                         if (port < 0 || port > MAXIMUM_PORT) {
@@ -368,6 +942,30 @@ public class MinesweeperServer {
                         sizeX = Integer.parseInt(sizes[0]);
                         sizeY = Integer.parseInt(sizes[1]);
                         file = Optional.empty();
+                    } else if (flag.equals("--seed")) {
+                        seed = Long.parseLong(arguments.remove());
+                    } else if (flag.equals("--state")) {
+                        state = Optional.of(new File(arguments.remove()));
+                    } else if (flag.equals("--stats-interval")) {
+                        statsInterval = Integer.parseInt(arguments.remove());
+                        if (statsInterval <= 0) {
+                            throw new IllegalArgumentException("stats interval " + statsInterval + " is not positive");
+                        }
+                    } else if (flag.equals("--idle-timeout")) {
+                        idleTimeout = Long.parseLong(arguments.remove());
+                        if (idleTimeout < 0) {
+                            throw new IllegalArgumentException("idle timeout " + idleTimeout + " is negative");
+                        }
+                    } else if (flag.equals("--write-timeout")) {
+                        writeTimeout = Long.parseLong(arguments.remove());
+                        if (writeTimeout < 0) {
+                            throw new IllegalArgumentException("write timeout " + writeTimeout + " is negative");
+                        }
+                    } else if (flag.equals("--max-rate")) {
+                        maxRate = Integer.parseInt(arguments.remove());
+                        if (maxRate < 0) {
+                            throw new IllegalArgumentException("max rate " + maxRate + " is negative");
+                        }
                     } else if (flag.equals("--file")) {
                         sizeX = -1;
                         sizeY = -1;
@@ -384,15 +982,23 @@ public class MinesweeperServer {
                     throw new IllegalArgumentException("unable to parse number for " + flag);
                 }
             }
+            if (nio && executor.isPresent()) {
+                throw new IllegalArgumentException("--executor cannot be combined with --nio");
+            }
+            connectionExecutor = nio ? null : ConnectionExecutors.create(executor.orElse("platform"));
         } catch (IllegalArgumentException iae) {
             System.err.println(iae.getMessage());
-            System.err.println(
-                    "usage: MinesweeperServer [--debug | --no-debug] [--port PORT] [--size SIZE_X,SIZE_Y | --file FILE]");
+            System.err.println("usage: MinesweeperServer [--debug | --no-debug] [--nio | --executor EXECUTOR]\n"
+                    + "                         [--port PORT] [--size SIZE_X,SIZE_Y | --file FILE] [--seed SEED]\n"
+                    + "                         [--state DIR] [--stats-interval SECONDS]\n"
+                    + "                         [--idle-timeout SECONDS] [--write-timeout SECONDS] [--max-rate REQUESTS]");
             return;
         }
 
         try {
-            runMinesweeperServer(debug, file, sizeX, sizeY, port);
+            Limits limits = new Limits(idleTimeout * 1000, writeTimeout * 1000, maxRate);
+            runMinesweeperServer(debug, nio, connectionExecutor, file, sizeX, sizeY, seed, state, statsInterval,
+                    limits, port);
         } catch (IOException ioe) {
             throw new RuntimeException(ioe);
         }
@@ -403,37 +1009,65 @@ public class MinesweeperServer {
      * board loaded from a file.
      * 
      * @param debug The server will disconnect a client after a BOOM message if and only if debug is false.
+     * @param nio If true, serve all clients from one non-blocking selector thread.
+     * @param connectionExecutor If (!nio), runs one blocking task per client; requires it is null iff nio.
      * @param file If file.isPresent(), start with a board loaded from the specified file,
      *             according to the input file format defined in the documentation for main(..).
      * @param sizeX If (!file.isPresent()), start with a random board with width sizeX
      *              (and require sizeX > 0).
      * @param sizeY If (!file.isPresent()), start with a random board with height sizeY
      *              (and require sizeY > 0).
+     * @param seed Seed of the random boards, of the lobby if (!file.isPresent()) and of every other room.
+     * @param state If state.isPresent(), keep the lobby's board in this directory, recovering it from there
+     *              if it holds one (and then ignoring file, sizeX and sizeY for the lobby).
+     * @param statsInterval If statsInterval > 0, print the server's metrics to System.err every statsInterval seconds.
+     * @param limits How much one client may cost the server.
      * @param port The network port on which the server should listen, requires 0 <= port <= 65535.
      * @throws IOException if a network error occurs
      */
-    public static void runMinesweeperServer(boolean debug, Optional<File> file, int sizeX, int sizeY, int port)
-            throws IOException {
+    public static void runMinesweeperServer(boolean debug, boolean nio, ExecutorService connectionExecutor,
+            Optional<File> file, int sizeX, int sizeY, long seed, Optional<File> state, int statsInterval,
+            Limits limits, int port) throws IOException {
 
-        // NOTE: at this point, the static variable board is declared (so its assigned to a default value which in Java it is null here)
-
-        // assign the static variable board to an actual board
-        if (file.isPresent()) {
-            // Load board from file
-            MinesweeperServer.board = loadBoardFromFile(file.get());
-        } else {
+        // the board of the lobby, where every player starts
+        Supplier<Board> initial = () -> {
+            if (file.isPresent()) {
+                // Load board from file
+                return loadBoardFromFile(file.get());
+            }
             // Use default 10x10 if size not specified
-            MinesweeperServer.board = createRandomBoard(sizeX, sizeY);
+            return createRandomBoard(sizeX, sizeY, seed, RoomRegistry.LOBBY);
+        };
+        if (!state.isPresent()) {
+            //this is the constructor method for this object
+            MinesweeperServer server = new MinesweeperServer(initial.get(), port, debug, nio, connectionExecutor, seed,
+                    limits);
+            if (statsInterval > 0) {
+                server.dumpStatsEvery(statsInterval);
+            }
+            server.serve();
+            return;
         }
 
-        //this is the constructor method for this object
-        MinesweeperServer server = new MinesweeperServer(port, debug);
-        server.serve();
-    }
-
-    //update players
-    private synchronized int updatePlayers(int count) {
-        players += count;
-        return players;
+        // every change to the lobby is logged to the store; closing it on the way out takes a snapshot,
+        // so the next start has nothing to replay (without it, the log still has every change but the last few ms)
+        BoardStore store = BoardStore.open(state.get(), initial);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                store.close();
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+            }
+        }));
+        MinesweeperServer server = new MinesweeperServer(store.board(), port, debug, nio, connectionExecutor, seed,
+                limits);
+        if (statsInterval > 0) {
+            server.dumpStatsEvery(statsInterval);
+        }
+        try {
+            server.serve();
+        } finally {
+            store.close();
+        }
     }
 }
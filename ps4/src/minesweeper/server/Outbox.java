@@ -0,0 +1,169 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.function.LongConsumer;
+
+import minesweeper.Board;
+
+/**
+ * Output queue of a blocking connection that watches a board.
+ *
+ * The connection's reading thread puts the replies to its requests here, and the watched board tells it
+ * about every change; one writer thread takes them out and sends them. Taking a watch reply (see
+ * Reply.isWatch) switches the Outbox to the board it names, so updates always follow the reply that
+ * started them. Replies wait in a bounded
+ * queue, so a client that does not read its replies only ever stalls its own reading thread.
+ * Board changes are not queued at all: they only mark the client as behind, and the writer sends
+ * one update covering all of them when it gets to it, so a slow client never stalls whoever is
+ * changing the board, and gets fewer, bigger updates instead of falling further behind.
+ *
+ * Thread-safety argument:
+ *   replies, changed and closed are guarded by this object's monitor
+ *   board and view are confined to the writer thread, the only caller of take() and stopWatching()
+ */
+class Outbox implements LongConsumer {
+
+    private final int capacity;
+    private final Queue<Reply> replies = new ArrayDeque<>();
+    // board watched, and what the client has seen of it; null until the first watch reply is taken
+    private Board board = null;
+    private ClientView view = null;
+    // true if the board changed since the writer last checked
+    private boolean changed = false;
+    // true once nothing more will be put
+    private boolean closed = false;
+
+    // Abstraction function:
+    //   represents the replies still to be sent to a client, in order, followed by an update
+    //   bringing it from view to the current board if changed and board != null
+    // Rep invariant:
+    //   0 <= replies.size() <= capacity
+    //   (board == null) == (view == null)
+    // Safety from rep exposure:
+    //   all fields are private; replies are immutable
+
+    /**
+     * Make an empty Outbox, not watching any board until a watch reply is taken from it.
+     * The writer must call stopWatching() once it is done with it.
+     *
+     * @param capacity most replies that may wait to be sent; requires capacity > 0
+     */
+    Outbox(int capacity) {
+        this.capacity = capacity;
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert 0 <= replies.size() && replies.size() <= capacity;
+        assert (board == null) == (view == null);
+    }
+
+    /**
+     * Queue a reply, waiting while the queue is full. Does nothing once the Outbox is closed.
+     *
+     * @param reply reply to send after everything put before
+     * @throws InterruptedException if interrupted while waiting
+     */
+    synchronized void put(Reply reply) throws InterruptedException {
+        while (!closed && replies.size() >= capacity) {
+            wait();
+        }
+        if (closed) {
+            return;
+        }
+        replies.add(reply);
+        checkRep();
+        notifyAll();
+    }
+
+    /**
+     * Board listener: note that the board changed. Never blocks.
+     *
+     * @param version new version of the board
+     */
+    @Override
+    public synchronized void accept(long version) {
+        changed = true;
+        notifyAll();
+    }
+
+    /**
+     * Stop accepting replies; the writer still gets the ones already queued.
+     */
+    synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    /**
+     * Wait for the next thing to send: a queued reply if there is one, else an update with
+     * everything that changed on the board since the last one. For the writer thread only.
+     *
+     * @return next reply to send, or null once the Outbox is closed and all its replies taken
+     * @throws InterruptedException if interrupted while waiting
+     */
+    Reply take() throws InterruptedException {
+        while (true) {
+            synchronized (this) {
+                while (replies.isEmpty() && !changed && !closed) {
+                    wait();
+                }
+                if (!replies.isEmpty()) {
+                    Reply reply = replies.remove();
+                    // someone may be waiting for room
+                    notifyAll();
+                    if (reply.isWatch()) {
+                        watch(reply.watched(), reply.watchFrom());
+                    }
+                    return reply;
+                }
+                if (closed) {
+                    return null;
+                }
+                changed = false;
+            }
+            // outside the monitor, so the board never waits for us; several changes may have
+            // been announced since, or none that the client has not already been sent
+            if (board != null && view.isBehind(board)) {
+                return view.catchUp(board);
+            }
+        }
+    }
+
+    /**
+     * @return true if a reply is waiting, so that take() returns at once. For the writer thread only.
+     */
+    synchronized boolean hasReplies() {
+        return !replies.isEmpty();
+    }
+
+    /*
+     * Switch to watching watched, from version seen. Called by the writer with the monitor held.
+     */
+    private void watch(Board watched, long seen) {
+        if (watched != board) {
+            stopWatching();
+            watched.addListener(this);
+            board = watched;
+        }
+        view = new ClientView(seen);
+        // it may have changed before we listened
+        changed = true;
+        checkRep();
+    }
+
+    /**
+     * Stop listening to the watched board, if any. For the writer thread only, once it is done.
+     */
+    synchronized void stopWatching() {
+        if (board != null) {
+            board.removeListener(this);
+            board = null;
+            view = null;
+        }
+    }
+}
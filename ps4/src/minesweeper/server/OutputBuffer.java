@@ -0,0 +1,140 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Output of one connection, waiting to be written: the replies of several requests can be added,
+ * then written together with as few write calls as the socket allows.
+ *
+ * Small buffers (messages, acks, deltas, the header lines of boards) are copied into one reusable
+ * buffer of the connection, so that they do not each cost an entry of the gathering write; big ones
+ * (the bands of a board's cached rendering, shared by every client) are written from where they are.
+ *
+ * Thread-safety argument:
+ *   not thread-safe; each OutputBuffer is confined to the thread writing its connection
+ */
+class OutputBuffer {
+
+    /** Longest buffer that is copied rather than written from where it is. */
+    static final int COALESCE_LIMIT = 1024;
+    /** Size of the reusable buffer small buffers are copied into. */
+    private static final int SCRATCH_SIZE = 8 * 1024;
+
+    private final WriteStats stats;
+    // small buffers are copied here; direct, so writing it needs no copy into a temporary direct buffer
+    private final ByteBuffer scratch = ByteBuffer.allocateDirect(SCRATCH_SIZE);
+    // copied bytes that are not yet part of a queued slice are scratch[sliceStart..position)
+    private int sliceStart = 0;
+    // buffers to write, in order: slices of scratch, and big buffers added as they are
+    private final List<ByteBuffer> queued = new ArrayList<>();
+
+    // Abstraction function:
+    //   represents the bytes of queued, in order, followed by scratch[sliceStart..position)
+    // Rep invariant:
+    //   0 <= sliceStart <= scratch.position()
+    //   no queued buffer is empty
+    // Safety from rep exposure:
+    //   all fields are private; buffers added are read-only views or copies, and never returned
+
+    /**
+     * Make an empty OutputBuffer.
+     *
+     * @param stats where to count replies and writes
+     */
+    OutputBuffer(WriteStats stats) {
+        this.stats = stats;
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert 0 <= sliceStart && sliceStart <= scratch.position();
+    }
+
+    /**
+     * Add a reply at the end of the output.
+     *
+     * @param buffers the reply's buffers, from Reply.buffers(); their positions may be moved
+     */
+    void add(ByteBuffer[] buffers) {
+        stats.reply();
+        for (ByteBuffer buffer : buffers) {
+            if (!buffer.hasRemaining()) {
+                continue;
+            }
+            if (buffer.remaining() <= COALESCE_LIMIT && buffer.remaining() <= scratch.remaining()) {
+                scratch.put(buffer);
+            } else {
+                endSlice();
+                queued.add(buffer);
+            }
+        }
+        checkRep();
+    }
+
+    /*
+     * Queue the bytes copied since the last slice as a slice of scratch.
+     */
+    private void endSlice() {
+        if (scratch.position() > sliceStart) {
+            queued.add(scratch.duplicate().limit(scratch.position()).position(sliceStart));
+            sliceStart = scratch.position();
+        }
+    }
+
+    /**
+     * @return true if there is nothing to write
+     */
+    boolean isEmpty() {
+        return queued.isEmpty() && scratch.position() == sliceStart;
+    }
+
+    /**
+     * @return number of bytes waiting to be written
+     */
+    long size() {
+        long size = scratch.position() - sliceStart;
+        for (ByteBuffer buffer : queued) {
+            size += buffer.remaining();
+        }
+        return size;
+    }
+
+    /**
+     * Write the output with gathering writes. On a blocking channel, returns once all of it is written;
+     * on a non-blocking one, once the socket takes no more, leaving the rest to write next time.
+     *
+     * @param channel connected channel to write to
+     * @return true if everything has been written
+     * @throws IOException if the channel is broken
+     */
+    boolean writeTo(SocketChannel channel) throws IOException {
+        endSlice();
+        ByteBuffer[] buffers = queued.toArray(new ByteBuffer[0]);
+        int first = 0;
+        while (first < buffers.length) {
+            long written = channel.write(buffers, first, buffers.length - first);
+            stats.write(written);
+            while (first < buffers.length && !buffers[first].hasRemaining()) {
+                first++;
+            }
+            if (written == 0 && !channel.isBlocking()) {
+                break;
+            }
+        }
+        queued.subList(0, first).clear();
+        if (queued.isEmpty()) {
+            // every slice has been written, so the copies can start over
+            scratch.clear();
+            sliceStart = 0;
+        }
+        checkRep();
+        return queued.isEmpty();
+    }
+}
@@ -0,0 +1,61 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+/**
+ * Keeps one client to a rate of requests per second, allowing bursts of as many requests as one second's worth.
+ *
+ * This is a token bucket written as the "generic cell rate algorithm": instead of a count of tokens refilled
+ * by a timer, it keeps the time at which the client will have used up its rate, which moves on by one
+ * interval per request, and never lags more than a burst behind the clock. So it costs one comparison and
+ * one addition per request, and never needs a thread.
+ *
+ * Thread-safety argument:
+ *   not thread-safe; each RateLimiter is confined to the thread reading its connection
+ */
+class RateLimiter {
+
+    private final long interval;
+    private final long burst;
+    // time at which the requests so far would all have been allowed at exactly the rate
+    private long due;
+
+    // Abstraction function:
+    //   represents a limit of one request per interval ns, where a client ahead of its rate by at most burst ns
+    //   is not held back, and the requests so far have used up the rate until time due
+    // Rep invariant:
+    //   interval > 0, burst >= 0
+    // Safety from rep exposure:
+    //   all fields are private and primitive
+
+    /**
+     * Make a RateLimiter that has seen no requests yet.
+     *
+     * @param perSecond requests per second allowed, requires > 0
+     */
+    RateLimiter(int perSecond) {
+        this.interval = 1_000_000_000L / perSecond;
+        this.burst = interval * (perSecond - 1);
+        // nanoTime() may be negative
+        this.due = Long.MIN_VALUE;
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert interval > 0 && burst >= 0;
+    }
+
+    /**
+     * Count requests received now.
+     *
+     * @param now current System.nanoTime()
+     * @param requests number of requests, >= 0
+     * @return nanoseconds to wait before reading the next request to keep to the rate, 0 if it may be read now
+     */
+    long acquire(long now, int requests) {
+        // a client that has been quiet does not save up more than a burst
+        due = Math.max(due, now) + interval * requests;
+        return Math.max(0, due - now - burst);
+    }
+}
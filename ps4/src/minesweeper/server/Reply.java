@@ -0,0 +1,361 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import minesweeper.Board;
+import minesweeper.Changes;
+import minesweeper.Rendering;
+
+/**
+ * Immutable reply to one client request (or update pushed to a watching client): the messages, boards
+ * and deltas to send, and what the connection must do once it has been sent: close, or start
+ * watching the board, or switch to the binary protocol.
+ *
+ * Board replies wrap the Board's shared Rendering, so sending a board to many
+ * clients does not copy or re-encode it.
+ *
+ * A reply is encoded when it is sent, in the text protocol or in the binary protocol. In the binary
+ * protocol, it is sent as frames of VARINT length (of the rest of the frame), a type byte, then a payload:
+ * see MESSAGE_FRAME, BOARD_FRAME, DELTA_FRAME and DEFLATED_BOARD_FRAME. A VARINT is written 7 bits a byte,
+ * lowest first, with the top bit set on all bytes but the last. A board is sent as one BOARD frame (so
+ * with its version, even for a look), 4 bits a square (see Rendering.packedBuffers), about a quarter
+ * of its text.
+ */
+final class Reply {
+
+    /** Binary frame type of a message; its payload is the ASCII text of the message. */
+    static final byte MESSAGE_FRAME = 1;
+    /** Binary frame type of a board; its payload is VARINT version, width, height, then the packed squares. */
+    static final byte BOARD_FRAME = 2;
+    /** Binary frame type of a delta; its payload is VARINT version, count, then VARINT x, y and a code byte per square. */
+    static final byte DELTA_FRAME = 3;
+    /** Binary frame type of a compressed board; like BOARD_FRAME, but the packed squares are DEFLATE compressed. */
+    static final byte DEFLATED_BOARD_FRAME = 4;
+
+    private final List<Part> parts;
+    private final boolean last;
+    private final Board watched;
+    private final long watchFrom;
+    private final boolean toBinary;
+
+    // Abstraction function:
+    //   represents sending the parts in order to the client, then closing the connection iff last, iff watched != null,
+    //   pushing it every change of watched after version watchFrom (instead of any board it watched before),
+    //   and iff toBinary, switching the connection to the binary protocol
+    // Rep invariant:
+    //   parts is non-empty
+    //   not both last and watched != null; watchFrom >= 0 if watched != null
+    //   not both last and toBinary
+    // Safety from rep exposure:
+    //   parts is an unmodifiable list of immutable Parts, and never returned;
+    //   the buffers handed out are read-only, or fresh
+
+    /*
+     * One message, board or delta of a reply, from which it is encoded in either protocol.
+     * Exactly one of text, rendering and changes is non-null. For a message, bytes is its line, and for a delta,
+     * its text. For a board, versioned says if its text starts with "BOARD version", and compressed if it is sent
+     * compressed instead.
+     */
+    private static final class Part {
+        private final String text;
+        private final Rendering rendering;
+        private final boolean versioned;
+        private final boolean compressed;
+        private final Changes changes;
+        private final byte[] bytes;
+
+        private Part(String text, Rendering rendering, boolean versioned, boolean compressed, Changes changes,
+                byte[] bytes) {
+            this.text = text;
+            this.rendering = rendering;
+            this.versioned = versioned;
+            this.compressed = compressed;
+            this.changes = changes;
+            this.bytes = bytes;
+        }
+    }
+
+    private Reply(List<Part> parts, boolean last, Board watched, long watchFrom, boolean toBinary) {
+        this.parts = Collections.unmodifiableList(parts);
+        this.last = last;
+        this.watched = watched;
+        this.watchFrom = watchFrom;
+        this.toBinary = toBinary;
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert !parts.isEmpty();
+        assert !(last && watched != null);
+        assert watched == null || watchFrom >= 0;
+        assert !(last && toBinary);
+    }
+
+    private static Part messagePart(String text) {
+        return new Part(text, null, false, false, null, (text + "\n").getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static Part boardPart(Rendering rendering, boolean versioned) {
+        return new Part(null, rendering, versioned, false, null, null);
+    }
+
+    /**
+     * @param text message to send, without a trailing newline
+     * @param last true if the connection must be closed after sending it
+     * @return a reply sending text followed by a newline
+     */
+    static Reply message(String text, boolean last) {
+        return new Reply(List.of(messagePart(text)), last, null, -1, false);
+    }
+
+    /**
+     * @param text message to send, without a trailing newline
+     * @return a reply sending text followed by a newline, after which the connection speaks the binary protocol
+     */
+    static Reply toBinary(String text) {
+        return new Reply(List.of(messagePart(text)), false, null, -1, true);
+    }
+
+    /**
+     * @param rendering board rendering to send; requires it to have at least one row
+     * @return a reply sending the rendered board, keeping the connection open
+     */
+    static Reply board(Rendering rendering) {
+        return new Reply(List.of(boardPart(rendering, false)), false, null, -1, false);
+    }
+
+    /**
+     * @param rendering board rendering to send; requires it to have at least one row
+     * @return a reply sending "BOARD version" then the rendered board, keeping the connection open
+     */
+    static Reply boardWithVersion(Rendering rendering) {
+        return new Reply(List.of(boardPart(rendering, true)), false, null, -1, false);
+    }
+
+    /**
+     * @param rendering board rendering to send; requires it to have at least one row
+     * @return a reply sending "COMPRESSED version length", then length bytes of the rendered board
+     *         compressed with DEFLATE (see Rendering.deflatedBuffers), keeping the connection open
+     */
+    static Reply compressedBoard(Rendering rendering) {
+        return new Reply(List.of(new Part(null, rendering, true, true, null, null)), false, null, -1, false);
+    }
+
+    /**
+     * @param board board to start watching
+     * @param rendering rendering of board to start watching from; requires it to have at least one row
+     * @return a reply sending "BOARD version" then the rendered board, after which the connection
+     *         is sent every change to the board since that version
+     */
+    static Reply watch(Board board, Rendering rendering) {
+        return new Reply(List.of(boardPart(rendering, true)), false, board, rendering.version(), false);
+    }
+
+    /**
+     * @param text message to send first, without a trailing newline
+     * @param board board to start watching
+     * @param rendering rendering of board to start watching from; requires it to have at least one row
+     * @return a reply like watch(board, rendering), but sending text on its own line first
+     */
+    static Reply watch(String text, Board board, Rendering rendering) {
+        return new Reply(List.of(messagePart(text), boardPart(rendering, true)), false, board, rendering.version(),
+                false);
+    }
+
+    /**
+     * @param changes changed squares to send
+     * @return a reply sending "DELTA version count" then "x y symbol" for each changed square,
+     *         where a dug square with no neighbouring mines has symbol '0'
+     */
+    static Reply delta(Changes changes) {
+        StringBuilder delta = new StringBuilder();
+        delta.append("DELTA ").append(changes.version()).append(' ').append(changes.count());
+        for (int i = 0; i < changes.count(); i++) {
+            char symbol = changes.symbol(i);
+            delta.append('\n').append(changes.x(i)).append(' ').append(changes.y(i)).append(' ')
+                    .append(symbol == ' ' ? '0' : symbol);
+        }
+        delta.append('\n');
+        byte[] text = delta.toString().getBytes(StandardCharsets.US_ASCII);
+        return new Reply(List.of(new Part(null, null, false, false, changes, text)), false, null, -1, false);
+    }
+
+    /**
+     * @param replies replies to send one after the other; requires at least one, and none that is a watch
+     *                or switches to the binary protocol
+     * @return one reply sending all their bytes in order, closing the connection after them iff one of them does
+     */
+    static Reply concat(List<Reply> replies) {
+        if (replies.size() == 1) {
+            return replies.get(0);
+        }
+        List<Part> parts = new ArrayList<>();
+        boolean last = false;
+        for (Reply reply : replies) {
+            assert !reply.isWatch() && !reply.toBinary;
+            parts.addAll(reply.parts);
+            last |= reply.last;
+        }
+        return new Reply(parts, last, null, -1, false);
+    }
+
+    private static ByteBuffer line(String text) {
+        return ByteBuffer.wrap((text + "\n").getBytes(StandardCharsets.US_ASCII)).asReadOnlyBuffer();
+    }
+
+    /*
+     * Encode a part as text.
+     */
+    private static List<ByteBuffer> text(Part part) {
+        if (part.bytes != null) {
+            return List.of(ByteBuffer.wrap(part.bytes).asReadOnlyBuffer());
+        }
+        Rendering rendering = part.rendering;
+        List<ByteBuffer> text = new ArrayList<>();
+        if (part.compressed) {
+            // compressed once per version and shared, like the rendering itself
+            ByteBuffer[] deflated = rendering.deflatedBuffers();
+            text.add(line("COMPRESSED " + rendering.version() + " " + size(deflated)));
+            text.addAll(Arrays.asList(deflated));
+            return text;
+        }
+        if (part.versioned) {
+            text.add(line("BOARD " + rendering.version()));
+        }
+        text.addAll(Arrays.asList(rendering.buffers()));
+        return text;
+    }
+
+    /*
+     * Encode a part as binary frames.
+     */
+    private static List<ByteBuffer> frames(Part part) {
+        if (part.text != null) {
+            byte[] text = part.text.getBytes(StandardCharsets.US_ASCII);
+            ByteArrayOutputStream frame = new ByteArrayOutputStream(text.length + 3);
+            writeVarint(frame, 1 + text.length);
+            frame.write(MESSAGE_FRAME);
+            frame.write(text, 0, text.length);
+            return List.of(ByteBuffer.wrap(frame.toByteArray()).asReadOnlyBuffer());
+        } else if (part.rendering != null) {
+            // the packed squares are the board's own cached buffers; only the header is new
+            Rendering rendering = part.rendering;
+            ByteBuffer[] squares = part.compressed ? rendering.deflatedPackedBuffers() : rendering.packedBuffers();
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            header.write(part.compressed ? DEFLATED_BOARD_FRAME : BOARD_FRAME);
+            writeVarint(header, rendering.version());
+            writeVarint(header, rendering.width());
+            writeVarint(header, rendering.height());
+            ByteArrayOutputStream frame = new ByteArrayOutputStream();
+            writeVarint(frame, header.size() + size(squares));
+            frame.write(header.toByteArray(), 0, header.size());
+            List<ByteBuffer> frames = new ArrayList<>();
+            frames.add(ByteBuffer.wrap(frame.toByteArray()).asReadOnlyBuffer());
+            frames.addAll(Arrays.asList(squares));
+            return frames;
+        } else {
+            Changes changes = part.changes;
+            ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            payload.write(DELTA_FRAME);
+            writeVarint(payload, changes.version());
+            writeVarint(payload, changes.count());
+            for (int i = 0; i < changes.count(); i++) {
+                writeVarint(payload, changes.x(i));
+                writeVarint(payload, changes.y(i));
+                payload.write(Rendering.code(changes.symbol(i)));
+            }
+            ByteArrayOutputStream frame = new ByteArrayOutputStream(payload.size() + 3);
+            writeVarint(frame, payload.size());
+            frame.write(payload.toByteArray(), 0, payload.size());
+            return List.of(ByteBuffer.wrap(frame.toByteArray()).asReadOnlyBuffer());
+        }
+    }
+
+    /*
+     * Write value >= 0 as a VARINT: 7 bits a byte, lowest first, with the top bit set on every byte but the last.
+     */
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        assert value >= 0;
+        while (value >= 0x80) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * @param binary true to get the reply in the binary protocol, false for the text protocol
+     * @return fresh read-only buffers over the reply bytes, in order, each positioned at its start
+     */
+    ByteBuffer[] buffers(boolean binary) {
+        List<ByteBuffer> buffers = new ArrayList<>();
+        for (Part part : parts) {
+            buffers.addAll(binary ? frames(part) : text(part));
+        }
+        return buffers.toArray(new ByteBuffer[0]);
+    }
+
+    /**
+     * @param buffers buffers of a reply, from buffers()
+     * @return total number of bytes in them
+     */
+    static long size(ByteBuffer[] buffers) {
+        long size = 0;
+        for (ByteBuffer buffer : buffers) {
+            size += buffer.remaining();
+        }
+        return size;
+    }
+
+    /**
+     * @return total number of bytes in the reply, in the text protocol
+     */
+    int size() {
+        return (int) size(buffers(false));
+    }
+
+    /**
+     * @return true if the connection must be closed after this reply
+     */
+    boolean isLast() {
+        return last;
+    }
+
+    /**
+     * @return true if the connection must speak the binary protocol, both ways, after this reply
+     */
+    boolean isToBinary() {
+        return toBinary;
+    }
+
+    /**
+     * @return true if the connection must start watching the board after this reply
+     */
+    boolean isWatch() {
+        return watched != null;
+    }
+
+    /**
+     * @return the board the connection must watch after this reply; requires isWatch()
+     */
+    Board watched() {
+        return watched;
+    }
+
+    /**
+     * @return the version of watched() the client has after this reply, from which it watches it;
+     *         requires isWatch()
+     */
+    long watchFrom() {
+        return watchFrom;
+    }
+}
@@ -0,0 +1,176 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the requests of a blocking connection, as text lines at first, and as binary frames
+ * once the connection has switched to the binary protocol (see Command).
+ *
+ * Requests are parsed straight out of one fixed-size buffer that is reused for the whole
+ * connection, like the SelectorLoop does, so a blocking connection does not create a String
+ * per request either.
+ *
+ * Thread-safety argument:
+ *   not thread-safe; each RequestReader is confined to the thread reading its connection
+ */
+class RequestReader {
+
+    private final InputStream in;
+    // counts the bytes received
+    private final Metrics metrics;
+    private final byte[] buffer = new byte[Command.MAX_LINE_LENGTH];
+    // bytes received but not parsed yet are buffer[start..end)
+    private int start = 0;
+    private int end = 0;
+    // true once the client speaks the binary protocol
+    private boolean binary = false;
+    // true while skipping the rest of a line that did not fit in the buffer
+    private boolean discarding = false;
+
+    // Abstraction function:
+    //   represents the requests still to be read from in, starting with the bytes buffer[start..end),
+    //   as lines unless binary, else as frames; if discarding, the first line is too long to be valid
+    // Rep invariant:
+    //   0 <= start <= end <= buffer.length
+    //   !(binary && discarding)
+    // Safety from rep exposure:
+    //   all fields are private, and buffer is never returned
+
+    /**
+     * @param in stream of requests from the client
+     * @param metrics where to count the bytes received
+     */
+    RequestReader(InputStream in, Metrics metrics) {
+        this.in = in;
+        this.metrics = metrics;
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert 0 <= start && start <= end && end <= buffer.length;
+        assert !(binary && discarding);
+    }
+
+    /**
+     * Read the next request, waiting until it has all been received.
+     * Like BufferedReader.readLine, a line may end with "\n" or "\r\n", and a last unterminated line counts too.
+     *
+     * @param command parsed into the request
+     * @return true if command now holds the next request, false if the client closed the connection
+     * @throws IOException if the connection is broken, or a binary request frame is too long
+     */
+    boolean next(Command command) throws IOException {
+        while (true) {
+            if (binary ? nextFrame(command) : nextLine(command)) {
+                checkRep();
+                return true;
+            }
+            // the request is not all there; make room after it
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            start = 0;
+            if (end == buffer.length) {
+                // line is too long to ever be valid, drop what we have and wait for its end
+                discarding = true;
+                end = 0;
+            }
+            int read = in.read(buffer, end, buffer.length - end);
+            if (read == -1) {
+                if (!binary && end > start && !discarding) {
+                    command.parse(buffer, start, end);
+                    start = end;
+                    return true;
+                }
+                return false;
+            }
+            end += read;
+            metrics.read(read);
+        }
+    }
+
+    /*
+     * Parse the first line in the buffer, if it has all been received.
+     */
+    private boolean nextLine(Command command) {
+        for (int i = start; i < end; i++) {
+            if (buffer[i] != '\n') {
+                continue;
+            }
+            if (discarding) {
+                // the tail of an overlong line; treat the whole line as invalid
+                discarding = false;
+                command.parse(buffer, start, start);
+            } else {
+                command.parse(buffer, start, i > start && buffer[i - 1] == '\r' ? i - 1 : i);
+            }
+            start = i + 1;
+            return true;
+        }
+        return false;
+    }
+
+    /*
+     * Parse the first frame in the buffer, if it has all been received.
+     */
+    private boolean nextFrame(Command command) throws IOException {
+        int frameEnd = Command.frameEnd(buffer, start, end);
+        if (frameEnd > start + Command.MAX_FRAME_LENGTH) {
+            // we cannot find where the next frame starts
+            throw new IOException("request frame too long");
+        }
+        if (frameEnd == -1) {
+            return false;
+        }
+        command.parseFrame(buffer, start, frameEnd);
+        start = frameEnd;
+        return true;
+    }
+
+    /**
+     * @return true if a whole request has been received and not read yet, so that next() returns it
+     *         without waiting; reads what the client has sent meanwhile, without waiting either
+     * @throws IOException if the connection is broken
+     */
+    boolean hasRequest() throws IOException {
+        if (!complete() && end - start < buffer.length && in.available() > 0) {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            start = 0;
+            int read = in.read(buffer, end, Math.min(in.available(), buffer.length - end));
+            if (read > 0) {
+                end += read;
+                metrics.read(read);
+            }
+        }
+        checkRep();
+        return complete();
+    }
+
+    /*
+     * True if buffer[start..end) starts with a whole request.
+     */
+    private boolean complete() {
+        if (binary) {
+            return Command.frameEnd(buffer, start, end) != -1;
+        }
+        for (int i = start; i < end; i++) {
+            if (buffer[i] == '\n') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Read every request from now on as a binary frame.
+     */
+    void toBinary() {
+        binary = true;
+        discarding = false;
+        checkRep();
+    }
+}
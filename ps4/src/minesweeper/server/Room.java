@@ -0,0 +1,149 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.function.Supplier;
+
+import minesweeper.Board;
+
+/**
+ * One game hosted by the server: a named board and the sessions of the players in it.
+ *
+ * The players are kept in a concurrent set rather than behind a lock, so counting them for a welcome message,
+ * or going through them for stats, never waits for players joining or leaving, nor makes them wait.
+ *
+ * A new room's board may take a while to generate, so a room can be made before its board exists, and the board
+ * is built the first time someone asks for it, by whoever asks first, while the others asking wait for it.
+ *
+ * Thread-safety argument:
+ *   name and board are final, and Board is thread-safe; board is a FutureTask, which runs its supplier
+ *   at most once however many threads call run(), and safely publishes the result to every get()
+ *   players is a concurrent set, only changed by RoomRegistry inside the atomic compute of the room's map entry,
+ *   so changes to it are one at a time, and its size is exact there; elsewhere, players() and watchers()
+ *   see a count that was true at some point while they ran
+ */
+class Room {
+
+    private final String name;
+    private final FutureTask<Board> board;
+    private final Set<Session> players = ConcurrentHashMap.newKeySet();
+
+    // Abstraction function:
+    //   represents the game called name, played on the board board builds (or has built),
+    //   by the players whose sessions are in players
+    // Rep invariant:
+    //   true
+    // Safety from rep exposure:
+    //   name is immutable; board is shared on purpose, it is the game itself;
+    //   players is private and never returned
+
+    /**
+     * Make an empty room.
+     *
+     * @param name name of the room
+     * @param board board played in the room
+     */
+    Room(String name, Board board) {
+        this(name, () -> board);
+        this.board.run();
+    }
+
+    /**
+     * Make an empty room whose board is not built yet.
+     *
+     * @param name name of the room
+     * @param newBoard builds the board played in the room; called at most once, by the first call to board()
+     */
+    Room(String name, Supplier<Board> newBoard) {
+        this.name = name;
+        this.board = new FutureTask<>(newBoard::get);
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert name != null && board != null;
+    }
+
+    /**
+     * @return name of the room
+     */
+    String name() {
+        return name;
+    }
+
+    /**
+     * Get the board played in the room, building it first if nobody has yet,
+     * or waiting for it if another thread is building it.
+     *
+     * @return board played in the room
+     * @throws RuntimeException (or Error) thrown by the board's supplier, to every caller
+     */
+    Board board() {
+        // does nothing once the board is built, or while another thread builds it
+        board.run();
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return board.get();
+                } catch (InterruptedException ie) {
+                    // the room is no use without its board, so keep waiting, and keep the interrupt for later
+                    interrupted = true;
+                } catch (ExecutionException ee) {
+                    Throwable cause = ee.getCause();
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw (RuntimeException) cause;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return number of players in the room
+     */
+    int players() {
+        return players.size();
+    }
+
+    /**
+     * @return number of players in the room who watch its board
+     */
+    int watchers() {
+        int watchers = 0;
+        for (Session player : players) {
+            if (player.isWatching()) {
+                watchers++;
+            }
+        }
+        return watchers;
+    }
+
+    /*
+     * For RoomRegistry only, inside the compute of this room's entry.
+     * Returns the new number of players.
+     */
+    int add(Session player) {
+        players.add(player);
+        return players.size();
+    }
+
+    /*
+     * For RoomRegistry only, inside the compute of this room's entry.
+     * Returns the new number of players.
+     */
+    int remove(Session player) {
+        players.remove(player);
+        return players.size();
+    }
+}
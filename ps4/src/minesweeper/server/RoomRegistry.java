@@ -0,0 +1,130 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import minesweeper.Board;
+
+/**
+ * All the rooms of a server, by name. Rooms other than the lobby are created when the first
+ * player joins them, and dropped when the last one leaves, so one server can host many short games.
+ *
+ * The rooms are spread over several independent maps ("shards") by the hash of their name, so
+ * players joining and leaving different rooms rarely contend. The board of a new room is generated
+ * after its entry is made, with nothing locked: only players entering that same room wait for it.
+ *
+ * Thread-safety argument:
+ *   every shard is a ConcurrentHashMap, and a room's players are only changed inside an atomic
+ *   compute on its entry, which is also where an empty room is removed; so a room is never removed
+ *   while someone is joining it, and a player always ends up in a room that is in the registry
+ *   a new room's board is built by Room.board(), outside compute, which builds it once whoever calls it
+ */
+class RoomRegistry {
+
+    /** Name of the room every player starts in, which always exists. */
+    static final String LOBBY = "lobby";
+
+    private final List<ConcurrentHashMap<String, Room>> shards;
+    private final Function<String, Board> newBoard;
+
+    // Abstraction function:
+    //   represents the rooms in the union of the shards, where the room called name is
+    //   shard(name).get(name), and new rooms get the board newBoard makes for them (once someone asks for it)
+    // Rep invariant:
+    //   shards.size() > 0
+    //   every room is in the shard of its name, under its name
+    //   the lobby is always present; every other room has players() > 0
+    // Safety from rep exposure:
+    //   shards is private, and neither it nor its maps are returned; rooms are handed out on purpose, but their
+    //   players can only be changed through the registry
+
+    /**
+     * Make a registry holding only the lobby.
+     *
+     * @param lobby board of the lobby
+     * @param shardCount number of shards; requires shardCount > 0
+     * @param newBoard makes the board of a new room, given its name; called at most once per room created,
+     *                 outside any lock, so only the players entering that room wait for it
+     */
+    RoomRegistry(Board lobby, int shardCount, Function<String, Board> newBoard) {
+        this.shards = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            shards.add(new ConcurrentHashMap<>());
+        }
+        this.newBoard = newBoard;
+        shard(LOBBY).put(LOBBY, new Room(LOBBY, lobby));
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert shards.size() > 0;
+        assert shard(LOBBY).containsKey(LOBBY);
+    }
+
+    private ConcurrentHashMap<String, Room> shard(String name) {
+        return shards.get(Math.floorMod(name.hashCode(), shards.size()));
+    }
+
+    /**
+     * Add a player to a room, creating the room if it does not exist.
+     *
+     * @param name name of the room
+     * @param player session of the player, not in that room yet
+     * @return the room, with the new player in it, and its board built
+     */
+    Room enter(String name, Session player) {
+        // only make the entry inside compute, which holds the lock of its bin of the shard for as long as it runs:
+        // a big board takes long enough to generate to hold up everyone else in the bin
+        Room entered = shard(name).compute(name, (key, room) -> {
+            if (room == null) {
+                room = new Room(key, () -> newBoard.apply(key));
+            }
+            room.add(player);
+            return room;
+        });
+        try {
+            // builds the board if we just made the room, or waits for whoever is building it
+            entered.board();
+        } catch (RuntimeException | Error e) {
+            leave(entered, player);
+            throw e;
+        }
+        return entered;
+    }
+
+    /**
+     * Remove a player from a room, dropping the room if it was the last one (unless it is the lobby).
+     *
+     * @param room a room returned by enter, that the player has not left yet
+     * @param player session of the player, as given to enter
+     */
+    void leave(Room room, Session player) {
+        shard(room.name()).computeIfPresent(room.name(), (key, present) -> {
+            int players = present.remove(player);
+            return players == 0 && !key.equals(LOBBY) ? null : present;
+        });
+    }
+
+    /**
+     * @return the lobby
+     */
+    Room lobby() {
+        return shard(LOBBY).get(LOBBY);
+    }
+
+    /**
+     * @return number of rooms, including the lobby
+     */
+    int size() {
+        int size = 0;
+        for (ConcurrentHashMap<String, Room> shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+}
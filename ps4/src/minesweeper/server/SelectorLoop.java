@@ -0,0 +1,595 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongConsumer;
+
+import minesweeper.Board;
+import minesweeper.Move;
+
+/**
+ * Non-blocking event loop serving every Minesweeper client from a single thread.
+ *
+ * Instead of one blocked thread per client sitting in readLine(), a Selector tells us which
+ * channels have bytes to read or room to write. Each client keeps one fixed-size read buffer
+ * that is reused for every line it sends, so an idle client only costs a few hundred bytes.
+ *
+ * The protocol is exactly the same as the thread-per-connection mode: the lines (or binary frames,
+ * once a client has switched to them) are handed to MinesweeperServer.handleRequest and its Replies
+ * are written back.
+ *
+ * All the complete lines a read brings in are handled in turn, so the dig, flag and deflag requests
+ * of a batching client that arrive together are applied as one batch (see MinesweeperServer.handleBatch).
+ *
+ * The replies to everything one read brings in are written together, with one gathering write
+ * (see OutputBuffer), rather than one write per reply, or per line of a board.
+ *
+ * Clients that watch the board are pushed an update after board changes, but only once
+ * everything queued for them has been written: a client that reads slowly gets one update
+ * covering several changes instead of a growing backlog. Likewise we stop reading a client's
+ * requests while its replies are stuck waiting for the socket.
+ *
+ * The server's Limits are kept without any thread of their own: the selector wakes up in time for the
+ * next client due to resume after its rate limit, and every quarter of the shortest timeout to disconnect
+ * clients that have been idle, or have not read their replies, for too long.
+ *
+ * Thread-safety argument:
+ *   all Connection objects are confined to the thread calling run()
+ *   the only shared state touched is the rooms and the thread-safe metrics, through MinesweeperServer,
+ *   and boardChanged, which is atomic; the board listener only sets it and wakes the selector
+ *   watchers is confined to the thread calling run() too
+ */
+class SelectorLoop {
+
+    private final MinesweeperServer server;
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final Limits limits;
+    // time between two sweeps for clients over their timeouts, 0 if there are no timeouts
+    private final long sweepNanos;
+    // time of the last sweep
+    private long lastSweep = System.nanoTime();
+    // clients held back by their rate limit until their resumeAt, and maybe a few that have been closed since
+    private final List<SelectionKey> paused = new ArrayList<>();
+    // number of our clients watching each board; we listen to exactly these boards
+    private final Map<Board, Integer> watchers = new HashMap<>();
+    // set by a watched board after every change, cleared by run() when it pushes updates
+    private final AtomicBoolean boardChanged = new AtomicBoolean();
+    // wakes run() up only for the first change since it last pushed updates
+    private final LongConsumer listener = version -> {
+        if (!boardChanged.getAndSet(true)) {
+            wakeup();
+        }
+    };
+
+    // Abstraction function:
+    //   represents the set of connected clients, each one being the Connection attached to its SelectionKey
+    // Rep invariant:
+    //   serverChannel is non-blocking and registered with selector for OP_ACCEPT once run() has started
+    //   watchers maps each board to the number of open connections watching it, which is > 0
+    //   every open connection with resumeAt != 0 is in paused, and is not registered for OP_READ
+    // Safety from rep exposure:
+    //   all fields are private, and connections are never handed out
+
+    /**
+     * Make a SelectorLoop accepting clients from serverChannel on behalf of server.
+     *
+     * @param server server whose request handling is used
+     * @param serverChannel bound channel to accept clients from
+     * @param limits how much one client may cost the server
+     * @throws IOException if the selector cannot be opened
+     */
+    SelectorLoop(MinesweeperServer server, ServerSocketChannel serverChannel, Limits limits) throws IOException {
+        this.server = server;
+        this.serverChannel = serverChannel;
+        this.selector = Selector.open();
+        this.limits = limits;
+        long shortest = Math.min(
+                limits.idleTimeoutMillis() > 0 ? limits.idleTimeoutMillis() : Long.MAX_VALUE,
+                limits.writeTimeoutMillis() > 0 ? limits.writeTimeoutMillis() : Long.MAX_VALUE);
+        this.sweepNanos = shortest == Long.MAX_VALUE ? 0 : TimeUnit.MILLISECONDS.toNanos(Math.max(1, shortest / 4));
+    }
+
+    /**
+     * Per-client state: the player's session, a reusable read buffer, responses still waiting to be written,
+     * and what the client has seen of the board if it watches one.
+     */
+    private static class Connection {
+        private final Session session;
+        // longer lines are discarded and answered with the help message
+        private final ByteBuffer in = ByteBuffer.allocate(Command.MAX_LINE_LENGTH);
+        // reused for every request line
+        private final Command command = new Command();
+        // moves received in a row from a batching client, not applied yet
+        private final List<Move> batch = new ArrayList<>();
+        // replies not written yet, all written together once a read has been handled
+        private final OutputBuffer out;
+        // true while skipping the rest of a line that did not fit in the read buffer
+        private boolean discarding = false;
+        // true once the client speaks the binary protocol, in both directions
+        private boolean binary = false;
+        // true once we have queued the last response; close after it has been written
+        private boolean closing = false;
+        // board the client watches, and what it has seen of it; both null unless it watches one
+        private Board watched = null;
+        private ClientView view = null;
+        // true if the board changed while we were still writing to the client
+        private boolean behind = false;
+        // keeps the client to its rate, null if there is no rate limit
+        private final RateLimiter limiter;
+        // when we last read from the client
+        private long lastRead = System.nanoTime();
+        // since when output has been waiting for the client to read it, 0 if all of it has been written
+        private long waitingSince = 0;
+        // when the client may send requests again after going over its rate, 0 if it may now
+        private long resumeAt = 0;
+
+        Connection(Session session, WriteStats stats, Limits limits) {
+            this.session = session;
+            this.out = new OutputBuffer(stats);
+            this.limiter = limits.maxRate() > 0 ? new RateLimiter(limits.maxRate()) : null;
+        }
+    }
+
+    /**
+     * Run the event loop. Returns once the server channel has been closed and every
+     * connected client has left, or if an exception is thrown.
+     *
+     * @throws IOException if the server channel or selector is broken
+     *                     (IOExceptions from individual clients only close that client)
+     */
+    void run() throws IOException {
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        try {
+            loop();
+        } finally {
+            for (Board board : watchers.keySet()) {
+                board.removeListener(listener);
+            }
+            watchers.clear();
+        }
+    }
+
+    private void loop() throws IOException {
+        while (true) {
+            // block until at least one channel is ready, the board changes, or a client is due
+            selector.select(timeout());
+            // closing the server channel cancels its key, so no keys left means nobody to serve
+            if (!serverChannel.isOpen() && selector.keys().isEmpty()) {
+                selector.close();
+                return;
+            }
+            if (boardChanged.getAndSet(false)) {
+                pushAll();
+            }
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                // selected keys are never removed by the selector itself
+                keys.remove();
+                if (!key.isValid()) {
+                    continue;
+                }
+                if (key.isAcceptable()) {
+                    accept();
+                    continue;
+                }
+                try {
+                    if (key.isReadable()) {
+                        read(key);
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        write(key);
+                    }
+                } catch (IOException ioe) {
+                    // a broken client must not take down the whole loop
+                    ioe.printStackTrace();
+                    close(key);
+                }
+            }
+            long now = System.nanoTime();
+            resume(now);
+            if (sweepNanos > 0 && now - lastSweep >= sweepNanos) {
+                sweep(now);
+                lastSweep = now;
+            }
+        }
+    }
+
+    /*
+     * Milliseconds select() may wait before a paused client is due to resume, or the next sweep;
+     * 0, to wait for ever, if neither is ever due.
+     */
+    private long timeout() {
+        long now = System.nanoTime();
+        long wait = sweepNanos > 0 ? lastSweep + sweepNanos - now : Long.MAX_VALUE;
+        for (SelectionKey key : paused) {
+            wait = Math.min(wait, ((Connection) key.attachment()).resumeAt - now);
+        }
+        if (wait == Long.MAX_VALUE) {
+            return 0;
+        }
+        // round up, so we do not wake up just before it is time
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait + 999_999));
+    }
+
+    /*
+     * Handle the requests of the paused clients whose time has come, and read from them again.
+     */
+    private void resume(long now) {
+        List<SelectionKey> due = new ArrayList<>();
+        for (Iterator<SelectionKey> keys = paused.iterator(); keys.hasNext();) {
+            SelectionKey key = keys.next();
+            if (!key.isValid()) {
+                keys.remove();
+            } else if (now - ((Connection) key.attachment()).resumeAt >= 0) {
+                keys.remove();
+                due.add(key);
+            }
+        }
+        // handling them may pause them again
+        for (SelectionKey key : due) {
+            ((Connection) key.attachment()).resumeAt = 0;
+            try {
+                handle(key);
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+                close(key);
+            }
+        }
+    }
+
+    /*
+     * Disconnect every client that has been idle, or has left its replies unread, for longer than the limits allow.
+     */
+    private void sweep(long now) {
+        long idleNanos = TimeUnit.MILLISECONDS.toNanos(limits.idleTimeoutMillis());
+        long writeNanos = TimeUnit.MILLISECONDS.toNanos(limits.writeTimeoutMillis());
+        for (SelectionKey key : selector.keys()) {
+            if (!key.isValid() || !(key.attachment() instanceof Connection)) {
+                continue;
+            }
+            Connection connection = (Connection) key.attachment();
+            if (writeNanos > 0 && connection.waitingSince != 0 && now - connection.waitingSince > writeNanos) {
+                server.metrics().writeTimedOut();
+                close(key);
+            } else if (idleNanos > 0 && connection.view == null && connection.waitingSince == 0
+                    && connection.resumeAt == 0 && !connection.closing && now - connection.lastRead > idleNanos) {
+                // a watching client is served by updates, and need not send anything
+                server.metrics().idleTimedOut();
+                close(key);
+            }
+        }
+    }
+
+    /**
+     * Make a blocked run() re-check whether it should stop, e.g. after the server channel was closed.
+     * Safe to call from any thread.
+     */
+    void wakeup() {
+        selector.wakeup();
+    }
+
+    /*
+     * Push an update to every watching client, or mark it as behind if it still has output queued.
+     */
+    private void pushAll() {
+        for (SelectionKey key : selector.keys()) {
+            if (!key.isValid() || !(key.attachment() instanceof Connection)) {
+                continue;
+            }
+            Connection connection = (Connection) key.attachment();
+            if (connection.view == null || connection.closing) {
+                continue;
+            }
+            if (!connection.out.isEmpty()) {
+                // write() pushes once the client has caught up with its output
+                connection.behind = true;
+                continue;
+            }
+            try {
+                push(key);
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+                close(key);
+            }
+        }
+    }
+
+    /*
+     * Send a watching client everything that changed since its last update, if anything did.
+     */
+    private void push(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        connection.behind = false;
+        if (connection.view.isBehind(connection.watched)) {
+            send(key, connection.view.catchUp(connection.watched));
+        }
+    }
+
+    /*
+     * Make a client watch a board from version seen, instead of the one it watched before, if any.
+     */
+    private void watch(Connection connection, Board board, long seen) {
+        if (connection.watched != board) {
+            unwatch(connection);
+            if (watchers.merge(board, 1, Integer::sum) == 1) {
+                board.addListener(listener);
+            }
+            connection.watched = board;
+        }
+        connection.view = new ClientView(seen);
+        // it may have changed before we listened
+        listener.accept(board.version());
+    }
+
+    /*
+     * Stop a client watching its board, if it watches one.
+     */
+    private void unwatch(Connection connection) {
+        Board board = connection.watched;
+        if (board == null) {
+            return;
+        }
+        if (watchers.merge(board, -1, Integer::sum) == 0) {
+            watchers.remove(board);
+            board.removeListener(listener);
+        }
+        connection.watched = null;
+        connection.view = null;
+    }
+
+    /*
+     * Accept every pending client and greet it.
+     */
+    private void accept() throws IOException {
+        while (true) {
+            SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (ClosedChannelException cce) {
+                // shutdown() closed the server channel since the last select(); nothing more to accept
+                return;
+            }
+            if (channel == null) {
+                // no more pending clients
+                return;
+            }
+            channel.configureBlocking(false);
+            Connection connection = new Connection(server.connect(), server.metrics().writes(), limits);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ, connection);
+            try {
+                send(key, Reply.message(server.helloMessage(connection.session), false));
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+                close(key);
+            }
+        }
+    }
+
+    /*
+     * Read whatever the client sent, and handle every complete line (or frame) in it.
+     */
+    private void read(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+        ByteBuffer in = connection.in;
+
+        int read = channel.read(in);
+        if (read == -1) {
+            // client disconnected
+            close(key);
+            return;
+        }
+        server.metrics().read(read);
+        connection.lastRead = System.nanoTime();
+        handle(key);
+    }
+
+    /*
+     * Handle every complete line (or frame) received from the client so far, unless the client goes over
+     * its rate, which pauses it until it is back within it. Then write the replies.
+     */
+    private void handle(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        ByteBuffer in = connection.in;
+
+        // scan the bytes received so far for complete requests
+        byte[] bytes = in.array();
+        int start = 0;
+        while (start < in.position() && !connection.closing) {
+            Command command = connection.command;
+            int next;
+            if (connection.binary) {
+                next = Command.frameEnd(bytes, start, in.position());
+                if (next > start + Command.MAX_FRAME_LENGTH) {
+                    // we cannot find where the next frame starts
+                    throw new IOException("request frame too long");
+                }
+                if (next == -1) {
+                    break;
+                }
+                command.parseFrame(bytes, start, next);
+            } else {
+                int newline = start;
+                while (newline < in.position() && bytes[newline] != '\n') {
+                    newline++;
+                }
+                if (newline == in.position()) {
+                    break;
+                }
+                int end = newline;
+                // accept "\r\n" line endings as well, like BufferedReader.readLine
+                if (end > start && bytes[end - 1] == '\r') {
+                    end--;
+                }
+                if (connection.discarding) {
+                    // the tail of an overlong line; treat the whole line as invalid
+                    connection.discarding = false;
+                    command.parse(bytes, start, start);
+                } else {
+                    // parsed straight from the read buffer, no String in between
+                    command.parse(bytes, start, end);
+                }
+                next = newline + 1;
+            }
+            start = next;
+
+            if (command.isMove() && connection.session.batching() != Session.Batching.OFF) {
+                // moves received together are applied together
+                connection.batch.add(command.move());
+                if (connection.batch.size() == MinesweeperServer.MAX_BATCH) {
+                    flushBatch(key);
+                }
+            } else {
+                flushBatch(key);
+                if (!connection.closing) {
+                    // may switch the connection to binary, for the bytes after this request too
+                    respond(key, server.handleRequest(connection.session, command));
+                }
+            }
+
+            // the requests after this one wait, in the buffer, until the client is back within its rate
+            if (connection.limiter != null) {
+                long wait = connection.limiter.acquire(System.nanoTime(), 1);
+                if (wait > 0 && !connection.closing) {
+                    pause(key, wait);
+                    break;
+                }
+            }
+        }
+        flushBatch(key);
+
+        // keep the unfinished line at the front of the buffer for the next read
+        in.limit(in.position());
+        in.position(start);
+        in.compact();
+
+        if (!in.hasRemaining() && connection.resumeAt == 0) {
+            // line is too long to ever be valid, drop what we have and wait for its end
+            // (a frame always fits, frameEnd has checked its length)
+            connection.discarding = true;
+            in.clear();
+        }
+
+        // the replies to everything this read brought in, in one go
+        write(key);
+    }
+
+    /*
+     * Stop reading from a client for wait nanoseconds, to keep it to its rate.
+     */
+    private void pause(SelectionKey key, long wait) {
+        Connection connection = (Connection) key.attachment();
+        connection.resumeAt = System.nanoTime() + wait;
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        paused.add(key);
+        server.metrics().delayed();
+    }
+
+    /*
+     * Apply the moves collected for a batch, if any, and queue the response.
+     */
+    private void flushBatch(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        if (!connection.batch.isEmpty() && !connection.closing) {
+            respond(key, server.handleBatch(connection.session, connection.batch));
+        }
+        connection.batch.clear();
+    }
+
+    /*
+     * Queue the response to a request, and act on what it says.
+     */
+    private void respond(SelectionKey key, Reply reply) {
+        Connection connection = (Connection) key.attachment();
+        connection.out.add(reply.buffers(connection.binary));
+        // the reply itself is the last one in text
+        connection.binary |= reply.isToBinary();
+        if (reply.isWatch()) {
+            // any change since the reply's version makes the next pushAll() send an update
+            watch(connection, reply.watched(), reply.watchFrom());
+        }
+        if (reply.isLast()) {
+            connection.closing = true;
+            // stop reading; we only have to finish writing, which closes the connection
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        }
+    }
+
+    /*
+     * Queue a reply, and try to write it straight away, with whatever else is queued.
+     * Board replies are read-only views of the board's rendering, so they are not copied.
+     */
+    private void send(SelectionKey key, Reply reply) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        connection.out.add(reply.buffers(connection.binary));
+        write(key);
+    }
+
+    /*
+     * Write as much queued output as the socket accepts without blocking.
+     * Registers for OP_WRITE, and stops reading requests, only while something is left over.
+     * Once everything is written, pushes the update the client missed meanwhile, if any,
+     * and reads requests again, unless the client is paused.
+     */
+    private void write(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+
+        if (!connection.out.writeTo(channel)) {
+            // socket buffer is full, wait until the selector says we can write again
+            // and read no more requests until then, so the output queue stays short
+            key.interestOps((key.interestOps() | SelectionKey.OP_WRITE) & ~SelectionKey.OP_READ);
+            if (connection.waitingSince == 0) {
+                // the write timeout starts now
+                connection.waitingSince = System.nanoTime();
+            }
+            return;
+        }
+        connection.waitingSince = 0;
+
+        if (connection.closing) {
+            close(key);
+            return;
+        }
+        int ops = key.interestOps() & ~SelectionKey.OP_WRITE;
+        key.interestOps(connection.resumeAt == 0 ? ops | SelectionKey.OP_READ : ops);
+        if (connection.behind) {
+            push(key);
+        }
+    }
+
+    /*
+     * Close a client's channel and forget about it.
+     */
+    private void close(SelectionKey key) {
+        if (key.attachment() instanceof Connection) {
+            Connection connection = (Connection) key.attachment();
+            unwatch(connection);
+            server.disconnect(connection.session);
+        }
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+/**
+ * What the server remembers about one connected client between its requests.
+ *
+ * Thread-safety argument:
+ *   not thread-safe; a Session is confined to the thread reading its client's requests
+ *   (the connection's own thread, or the SelectorLoop thread), except that other threads
+ *   count the watchers of its room: watching is volatile for that, and only ever set
+ */
+class Session {
+
+    /** How moves the client sends in a row are answered, see MinesweeperServer.handleBatch. */
+    enum Batching {
+        /** every move gets the board, like in the handout */
+        OFF,
+        /** moves received together are applied together, and get one board */
+        BOARD,
+        /** moves received together are applied together, and each gets a one-line acknowledgement */
+        ACK
+    }
+
+    // room the player is in, null once disconnected
+    private Room room;
+    // true once the player watches the board of its room
+    private volatile boolean watching = false;
+    // how moves are answered
+    private Batching batching = Batching.OFF;
+    // true if the player's boards are sent compressed
+    private boolean compressing = false;
+
+    // Abstraction function:
+    //   represents a player in room, or a player who has not entered one yet or has left if room == null,
+    //   who is pushed updates of the board of its room iff watching, whose moves are answered as batching says,
+    //   and who is sent boards compressed iff compressing
+    // Rep invariant:
+    //   true
+    // Safety from rep exposure:
+    //   the Room is shared on purpose, it is the game the player is in
+
+    /**
+     * Make the session of a player not in any room yet.
+     */
+    Session() {
+    }
+
+    /**
+     * @return room the player is in, or null if not in one yet or once disconnected
+     */
+    Room room() {
+        return room;
+    }
+
+    /**
+     * @param room room the player has entered or moved to, or null when disconnected
+     */
+    void setRoom(Room room) {
+        this.room = room;
+    }
+
+    /**
+     * @return true if the player watches the board of its room
+     */
+    boolean isWatching() {
+        return watching;
+    }
+
+    /**
+     * Remember that the player now watches the board of its room.
+     */
+    void watch() {
+        watching = true;
+    }
+
+    /**
+     * @return how the player's moves are answered
+     */
+    Batching batching() {
+        return batching;
+    }
+
+    /**
+     * @param batching how the player's moves are answered from now on
+     */
+    void setBatching(Batching batching) {
+        this.batching = batching;
+    }
+
+    /**
+     * @return true if the boards the player asks for are sent compressed
+     */
+    boolean isCompressing() {
+        return compressing;
+    }
+
+    /**
+     * @param compressing true to send the boards the player asks for compressed from now on
+     */
+    void setCompressing(boolean compressing) {
+        this.compressing = compressing;
+    }
+}
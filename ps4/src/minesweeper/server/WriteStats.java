@@ -0,0 +1,78 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts what a server writes to its clients: replies, bytes, and write calls (each one a system call),
+ * to see how well replies are coalesced into few writes.
+ *
+ * Thread-safety argument:
+ *   every counter is a LongAdder, so connections on any thread count without contending
+ */
+class WriteStats {
+
+    private final LongAdder replies = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+
+    // Abstraction function:
+    //   represents replies() replies sent in writes() calls to write, which wrote bytes() bytes
+    // Rep invariant:
+    //   true
+    // Safety from rep exposure:
+    //   all fields are private and never returned
+
+    /**
+     * Count a reply queued for sending.
+     */
+    void reply() {
+        replies.increment();
+    }
+
+    /**
+     * Count one call to write a channel.
+     *
+     * @param written number of bytes it wrote
+     */
+    void write(long written) {
+        writes.increment();
+        bytes.add(written);
+    }
+
+    /**
+     * @return number of replies counted so far
+     */
+    long replies() {
+        return replies.sum();
+    }
+
+    /**
+     * @return number of bytes written so far
+     */
+    long bytes() {
+        return bytes.sum();
+    }
+
+    /**
+     * @return number of write calls so far
+     */
+    long writes() {
+        return writes.sum();
+    }
+
+    /**
+     * @return the counts, and bytes and writes per reply, on one line
+     */
+    @Override
+    public String toString() {
+        long replies = replies();
+        long bytes = bytes();
+        long writes = writes();
+        double perReply = Math.max(replies, 1);
+        return String.format("replies %d, bytes %d (%.1f per reply), writes %d (%.2f per reply)",
+                replies, bytes, bytes / perReply, writes, writes / perReply);
+    }
+}
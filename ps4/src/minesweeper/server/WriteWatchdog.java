@@ -0,0 +1,163 @@
+/* Copyright (c) 2007-2016 MIT 6.005 course staff, all rights reserved.
+ * Redistribution of original or derived work requires permission of course staff.
+ */
+package minesweeper.server;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Disconnects blocking clients that do not read their replies. A write to a blocking socket cannot time out,
+ * so a client that stops reading would keep the thread writing to it blocked forever, with its replies; instead,
+ * each write goes through a Guard, and a daemon thread closes the socket of any write that has been going on
+ * longer than the timeout, which makes the blocked write throw.
+ *
+ * The writing thread only sets a volatile field before and after each write; the watchdog thread wakes up
+ * a few times per timeout to look at them all.
+ *
+ * Thread-safety argument:
+ *   guards is a concurrent set; each Guard's writingSince is volatile, written by the thread writing to its
+ *   socket and read by the watchdog thread, and its timedOut is volatile too, the other way round;
+ *   closing a socket is thread-safe, and only causes an IOException in the writing thread,
+ *   which ends that client's connection
+ *   stopping is volatile, set by shutdown() and read by the watchdog thread
+ */
+class WriteWatchdog {
+
+    /** Shortest time between two looks at the writes in progress. */
+    private static final long MIN_CHECK_MILLIS = 10;
+
+    private final long timeoutNanos;
+    private final Metrics metrics;
+    private final Set<Guard> guards = ConcurrentHashMap.newKeySet();
+    private volatile boolean stopping = false;
+
+    // Abstraction function:
+    //   represents a watchdog closing the sockets of guards whose write has taken more than timeoutNanos,
+    //   counting each one in metrics; none if timeoutNanos == 0
+    // Rep invariant:
+    //   timeoutNanos >= 0
+    //   guards is empty if timeoutNanos == 0
+    // Safety from rep exposure:
+    //   all fields are private; guards are handed out, but only change the set through their own close()
+
+    /**
+     * Make a WriteWatchdog, and start its thread if it has a timeout.
+     *
+     * @param timeoutMillis milliseconds a write may take, or 0 for no limit; requires >= 0
+     * @param metrics where to count the clients disconnected
+     */
+    WriteWatchdog(long timeoutMillis, Metrics metrics) {
+        this.timeoutNanos = timeoutMillis * 1_000_000;
+        this.metrics = metrics;
+        if (timeoutMillis > 0) {
+            long checkMillis = Math.max(MIN_CHECK_MILLIS, timeoutMillis / 4);
+            Thread thread = new Thread(() -> watch(checkMillis), "write-watchdog");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert timeoutNanos >= 0;
+    }
+
+    /**
+     * Let the watchdog thread end once no client is left to watch; clients still writing are watched until then.
+     */
+    void shutdown() {
+        stopping = true;
+    }
+
+    /**
+     * Start watching the writes to a socket.
+     *
+     * @param socket connected socket, to be written through guard().write(...) only
+     * @return the guard to write through, to close when the socket is closed
+     */
+    Guard guard(Socket socket) {
+        Guard guard = new Guard(socket);
+        if (timeoutNanos > 0) {
+            guards.add(guard);
+        }
+        return guard;
+    }
+
+    /*
+     * Body of the watchdog thread.
+     */
+    private void watch(long checkMillis) {
+        try {
+            while (!(stopping && guards.isEmpty())) {
+                Thread.sleep(checkMillis);
+                long now = System.nanoTime();
+                for (Guard guard : guards) {
+                    long since = guard.writingSince;
+                    if (since != 0 && now - since > timeoutNanos) {
+                        guards.remove(guard);
+                        guard.timedOut = true;
+                        metrics.writeTimedOut();
+                        try {
+                            guard.socket.close();
+                        } catch (IOException ioe) {
+                            ioe.printStackTrace();
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException ie) {
+            // nobody interrupts it; just stop watching
+        }
+    }
+
+    /**
+     * Watches the writes to one socket.
+     */
+    class Guard implements AutoCloseable {
+        private final Socket socket;
+        // when the write in progress started, 0 if none is
+        private volatile long writingSince = 0;
+        // true once the watchdog has closed the socket
+        private volatile boolean timedOut = false;
+
+        private Guard(Socket socket) {
+            this.socket = socket;
+        }
+
+        /**
+         * Write everything in output to the socket's channel, unless it takes longer than the timeout,
+         * in which case the socket is closed.
+         *
+         * @param output output to write
+         * @throws IOException if the channel is broken, or has been closed because the write took too long
+         */
+        void write(OutputBuffer output) throws IOException {
+            // 0 means no write, so never use it as a start time
+            writingSince = System.nanoTime() | 1;
+            try {
+                output.writeTo(socket.getChannel());
+            } finally {
+                writingSince = 0;
+            }
+        }
+
+        /**
+         * @return true if the socket has been closed because a write took longer than the timeout,
+         *         so the IOException that made that write fail is expected
+         */
+        boolean timedOut() {
+            return timedOut;
+        }
+
+        /**
+         * Stop watching the socket.
+         */
+        @Override
+        public void close() {
+            guards.remove(this);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package minesweeper;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Microbenchmarks of Board: dig, flag and toString, on boards of several sizes and mine densities.
+ * Not a JUnit test; run it by hand:
+ *
+ *   java -cp bin minesweeper.BoardBenchmark [SECONDS [SIZE,SIZE,... [DENSITY,DENSITY,...]]]
+ *
+ * e.g. "java -cp bin minesweeper.BoardBenchmark 2 10,100,1000 0.05,0.25". Each case runs for SECONDS seconds
+ * (default 1) after as long a warmup, and prints how many operations per second it did, and the mean time of one:
+ *   - dig: digs every square of a new random board, in random order, cascades included; a new board is
+ *     made (outside the measured time) whenever one has been dug out
+ *   - flag: flags and deflags random squares, so the board never runs out of squares to flag
+ *   - toString: renders the whole board after flagging one square, so that every render is a real one
+ *     (the cached rendering is reused only between changes); cached: the same without the change
+ *
+ * This is a simple harness in the style of CommandBenchmark rather than JMH: every case warms up for as
+ * long as it is measured, and results are summed into a sink so the JIT cannot drop the work.
+ */
+public class BoardBenchmark {
+
+    private static final int[] SIZES = { 10, 100, 1000 };
+    private static final double[] DENSITIES = { 0.05, 0.25 };
+
+    // results are summed into here so that the JIT cannot drop the work
+    private static long sink;
+
+    /*
+     * One benchmark case, set up for a board and run over and over.
+     */
+    private interface Case {
+        /** Do some operations, returning how many, and the nanoseconds spent on them. */
+        long[] run(SplittableRandom random);
+    }
+
+    /*
+     * Dig out a whole new board, in random order.
+     */
+    private static Case dig(int size, double density) {
+        return random -> {
+            Board board = Board.random(size, size, density, random.split());
+            int[] squares = shuffledSquares(size * size, random);
+            long start = System.nanoTime();
+            for (int square : squares) {
+                sink += board.reveal(square % size, square / size).revealed();
+            }
+            return new long[] { squares.length, System.nanoTime() - start };
+        };
+    }
+
+    /*
+     * Flag and deflag random squares of one board.
+     */
+    private static Case flag(int size, double density) {
+        Board board = Board.random(size, size, density, new SplittableRandom(size));
+        return random -> {
+            int operations = 1000;
+            long start = System.nanoTime();
+            for (int i = 0; i < operations; i++) {
+                int x = random.nextInt(size);
+                int y = random.nextInt(size);
+                if (board.flag(x, y)) {
+                    sink++;
+                } else if (board.deflag(x, y)) {
+                    sink--;
+                }
+            }
+            return new long[] { operations, System.nanoTime() - start };
+        };
+    }
+
+    /*
+     * Render one board, after a change (changed) or not.
+     */
+    private static Case render(int size, double density, boolean changed) {
+        Board board = Board.random(size, size, density, new SplittableRandom(size));
+        return random -> {
+            int operations = Math.max(1, 100_000 / (size * size));
+            long start = System.nanoTime();
+            for (int i = 0; i < operations; i++) {
+                if (changed && !board.flag(0, 0)) {
+                    board.deflag(0, 0);
+                }
+                sink += board.toString().length();
+            }
+            return new long[] { operations, System.nanoTime() - start };
+        };
+    }
+
+    private static int[] shuffledSquares(int count, SplittableRandom random) {
+        int[] squares = new int[count];
+        for (int i = 0; i < count; i++) {
+            squares[i] = i;
+        }
+        for (int i = count - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = squares[i];
+            squares[i] = squares[j];
+            squares[j] = swap;
+        }
+        return squares;
+    }
+
+    /*
+     * Run a case until it has spent the given time, returning operations per second.
+     */
+    private static double measure(Case benchmark, long nanos) {
+        SplittableRandom random = new SplittableRandom(42);
+        long operations = 0;
+        long elapsed = 0;
+        while (elapsed < nanos) {
+            long[] done = benchmark.run(random);
+            operations += done[0];
+            elapsed += done[1];
+        }
+        return operations * 1e9 / elapsed;
+    }
+
+    private static void report(String name, int size, double density, Function<Long, Double> run, long nanos) {
+        // warm up before measuring
+        run.apply(nanos);
+        double perSecond = run.apply(nanos);
+        System.out.printf("%-9s %5dx%-5d %4.0f%% mines  %,14.0f ops/s  %,12.1f ns/op%n",
+                name, size, size, density * 100, perSecond, 1e9 / perSecond);
+    }
+
+    /**
+     * Run the benchmark.
+     *
+     * @param args optional number of seconds to measure each case, then optional comma-separated board sizes
+     *             and mine densities
+     */
+    public static void main(String[] args) {
+        long nanos = TimeUnit.SECONDS.toNanos(args.length > 0 ? Long.parseLong(args[0]) : 1);
+        int[] sizes = SIZES;
+        if (args.length > 1) {
+            String[] parts = args[1].split(",");
+            sizes = new int[parts.length];
+            for (int i = 0; i < parts.length; i++) {
+                sizes[i] = Integer.parseInt(parts[i]);
+            }
+        }
+        double[] densities = DENSITIES;
+        if (args.length > 2) {
+            String[] parts = args[2].split(",");
+            densities = new double[parts.length];
+            for (int i = 0; i < parts.length; i++) {
+                densities[i] = Double.parseDouble(parts[i]);
+            }
+        }
+        for (int size : sizes) {
+            for (double density : densities) {
+                report("dig", size, density, time -> measure(dig(size, density), time), nanos);
+                report("flag", size, density, time -> measure(flag(size, density), time), nanos);
+                report("toString", size, density, time -> measure(render(size, density, true), time), nanos);
+                report("cached", size, density, time -> measure(render(size, density, false), time), nanos);
+            }
+        }
+        System.out.println("(checksum " + sink + ")");
+    }
+}
@@ -0,0 +1,114 @@
+package minesweeper;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.junit.Test;
+
+/**
+ * Tests BoardFile.
+ */
+public class BoardFileTest {
+
+    // Testing strategy:
+    //   text format: "\n", "\r\n" and "\r" line ends, last line with or without a newline,
+    //   1x1 board, rectangular board; invalid: bad header, bad value, short or missing rows, extra values
+    //   binary format: written then loaded back, 0 to 8 squares past a byte boundary; wrong length,
+    //   mine in the padding bits past the last square
+
+    private static File write(String contents) throws IOException {
+        File file = File.createTempFile("board", ".txt");
+        file.deleteOnExit();
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.US_ASCII));
+        return file;
+    }
+
+    /*
+     * Assert two boards have the same size and mines: digging the same squares in the same order
+     * must hit the same mines and leave the same boards.
+     */
+    private static void assertSameBoard(Board expected, Board actual) {
+        assertEquals(expected.width, actual.width);
+        assertEquals(expected.height, actual.height);
+        for (int y = 0; y < expected.height; y++) {
+            for (int x = 0; x < expected.width; x++) {
+                assertEquals("(" + x + ", " + y + ")", expected.dig(x, y), actual.dig(x, y));
+            }
+        }
+        assertEquals(expected.toString(), actual.toString());
+    }
+
+    @Test
+    public void testText() throws IOException {
+        Board expected = new Board(3, 2, new int[][] { { 0, 0 }, { 2, 1 } });
+        assertSameBoard(expected, BoardFile.load(write("3 2\n1 0 0\n0 0 1\n")));
+        assertSameBoard(new Board(3, 2, new int[][] { { 0, 0 }, { 2, 1 } }),
+                BoardFile.load(write("3 2\r\n1 0 0\r0 0 1")));
+        assertSameBoard(new Board(1, 1, new int[][] { { 0, 0 } }), BoardFile.load(write("1 1\n1")));
+    }
+
+    @Test
+    public void testInvalidText() throws IOException {
+        String[] files = { "", "3\n", "3 2 1\n", "a 2\n", "2  1\n0 0\n", "2 1\n0 2\n", "2 1\n0\n", "2 1\n0 0 0\n",
+            "2 2\n0 0\n", "2 1\n0  0\n", "2 1\n 0 0\n", "99999999999 1\n" };
+        for (String contents : files) {
+            try {
+                BoardFile.load(write(contents));
+                fail("expected IOException for " + contents);
+            } catch (IOException ioe) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testBinary() throws IOException {
+        for (int width = 1; width <= 9; width++) {
+            BitSet mines = new BitSet();
+            mines.set(0);
+            mines.set(width * 3 - 1);
+            File file = File.createTempFile("board", ".msb");
+            file.deleteOnExit();
+            BoardFile.writeBinary(width, 3, mines, file);
+            assertEquals(12 + (width * 3 + 7) / 8, file.length());
+            assertSameBoard(new Board(width, 3, mines), BoardFile.load(file));
+        }
+    }
+
+    @Test
+    public void testConvert() throws IOException {
+        File text = write("4 3\n0 1 0 0\n0 0 0 0\n1 0 0 1\n");
+        File binary = File.createTempFile("board", ".msb");
+        binary.deleteOnExit();
+        BoardFile.main(new String[] { text.getPath(), binary.getPath() });
+        assertSameBoard(BoardFile.load(text), BoardFile.load(binary));
+    }
+
+    @Test(expected = IOException.class)
+    public void testBinaryMineInPadding() throws IOException {
+        File file = File.createTempFile("board", ".msb");
+        file.deleteOnExit();
+        BoardFile.writeBinary(3, 3, new BitSet(), file);
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        // 9 squares take 2 bytes, the last 7 bits of which are not on the board
+        bytes[bytes.length - 1] = (byte) 0x80;
+        Files.write(file.toPath(), bytes);
+        BoardFile.load(file);
+    }
+
+    @Test(expected = IOException.class)
+    public void testBinaryWrongLength() throws IOException {
+        File file = File.createTempFile("board", ".msb");
+        file.deleteOnExit();
+        BoardFile.writeBinary(10, 10, new BitSet(), file);
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        Files.write(file.toPath(), Arrays.copyOf(bytes, bytes.length - 1));
+        BoardFile.load(file);
+    }
+}
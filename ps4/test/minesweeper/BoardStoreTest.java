@@ -0,0 +1,252 @@
+package minesweeper;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.function.IntConsumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests BoardStore.
+ */
+public class BoardStoreTest {
+
+    // Testing strategy:
+    //   directory is new, or holds a board
+    //   store closed cleanly (everything in the snapshot), or abandoned after a commit (replaying the log),
+    //   or abandoned with a torn batch at the end of the log, or with a well-formed record of an impossible state
+    //   changes: flag, deflag, dig with and without a mine, cascade, batch of moves
+    //   snapshot taken between changes, or not
+    //   committed by the committer thread, or by hand; committer interrupted
+    //   one thread, or several threads changing the same squares at once
+
+    private File directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("store").toFile();
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        try (Stream<Path> files = Files.walk(directory.toPath())) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    /*
+     * Board 5x4 with mines at (1,1), (3,1) and (4,3).
+     */
+    private static Board newBoard() {
+        return new Board(5, 4, new int[][] { { 1, 1 }, { 3, 1 }, { 4, 3 } });
+    }
+
+    /*
+     * Play some moves covering every kind of change.
+     */
+    private static void play(Board board) {
+        assertTrue(board.flag(0, 0));
+        assertTrue(board.flag(4, 0));
+        assertTrue(board.deflag(4, 0));
+        assertTrue("mine", board.dig(1, 1));
+        board.applyAll(List.of(new Move(Move.Kind.FLAG, 2, 3), new Move(Move.Kind.DIG, 0, 3)), false);
+    }
+
+    /*
+     * Assert two boards look the same and still have the same mines.
+     */
+    private static void assertSameBoard(Board expected, Board actual) {
+        assertEquals(expected.toString(), actual.toString());
+        for (int y = 0; y < expected.height; y++) {
+            for (int x = 0; x < expected.width; x++) {
+                assertEquals("(" + x + ", " + y + ")", expected.dig(x, y), actual.dig(x, y));
+            }
+        }
+        assertEquals(expected.toString(), actual.toString());
+    }
+
+    @Test
+    public void testNewDirectory() throws IOException {
+        BoardStore store = BoardStore.open(directory, BoardStoreTest::newBoard);
+        assertEquals(5, store.board().width);
+        assertEquals(0, store.board().version());
+        store.close();
+        assertTrue(new File(directory, "snapshot").isFile());
+    }
+
+    @Test
+    public void testRecoverAfterClose() throws IOException {
+        BoardStore store = BoardStore.open(directory, BoardStoreTest::newBoard);
+        play(store.board());
+        long version = store.board().version();
+        store.close();
+
+        Board expected = newBoard();
+        play(expected);
+        BoardStore recovered = BoardStore.open(directory, () -> {
+            throw new AssertionError("directory has a board");
+        });
+        assertEquals(version, recovered.board().version());
+        assertSameBoard(expected, recovered.board());
+        recovered.close();
+    }
+
+    @Test
+    public void testRecoverFromLog() throws IOException {
+        BoardStore store = BoardStore.open(directory, BoardStoreTest::newBoard, false);
+        store.board().flag(2, 0);
+        store.snapshot();
+        play(store.board());
+        // as if the server died right after a group commit: the snapshot does not have play's changes
+        store.commit();
+
+        Board expected = newBoard();
+        expected.flag(2, 0);
+        play(expected);
+        BoardStore recovered = BoardStore.open(directory, BoardStoreTest::newBoard);
+        assertSameBoard(expected, recovered.board());
+        recovered.close();
+    }
+
+    @Test(timeout = 30000)
+    public void testConcurrentFlagsLogged() throws IOException, InterruptedException {
+        int size = 64;
+        BoardStore store = BoardStore.open(directory, () -> new Board(size, size, new int[][] {}), false);
+        store.snapshot();
+        Board board = store.board();
+        // one thread flags each square while another deflags it; flags take no lock, so whichever change
+        // comes second may be handed to the store first
+        CyclicBarrier start = new CyclicBarrier(2);
+        Thread flagger = new Thread(() -> race(start, size, square -> board.flag(square % size, square / size)));
+        Thread deflagger = new Thread(() -> race(start, size, square -> board.deflag(square % size, square / size)));
+        flagger.start();
+        deflagger.start();
+        flagger.join();
+        deflagger.join();
+        store.commit();
+
+        // replaying the log ends with each square's latest state
+        BoardStore recovered = BoardStore.open(directory, () -> {
+            throw new AssertionError("directory has a board");
+        });
+        assertEquals(board.toString(), recovered.board().toString());
+        recovered.close();
+    }
+
+    /*
+     * Make a move on every square of a size x size board in turn, starting each one together with another thread.
+     */
+    private static void race(CyclicBarrier start, int size, IntConsumer move) {
+        try {
+            for (int square = 0; square < size * size; square++) {
+                start.await();
+                move.accept(square);
+            }
+        } catch (InterruptedException | BrokenBarrierException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Test
+    public void testTornBatch() throws IOException {
+        BoardStore store = BoardStore.open(directory, BoardStoreTest::newBoard, false);
+        store.board().flag(2, 0);
+        store.commit();
+        store.board().flag(3, 0);
+        store.commit();
+
+        // cut the last batch short, as if the server died while writing it
+        File[] logs = directory.listFiles((dir, name) -> name.startsWith("log-"));
+        assertEquals(1, logs.length);
+        try (RandomAccessFile log = new RandomAccessFile(logs[0], "rw")) {
+            log.setLength(log.length() - 1);
+        }
+
+        Board expected = newBoard();
+        expected.flag(2, 0);
+        BoardStore recovered = BoardStore.open(directory, BoardStoreTest::newBoard);
+        assertSameBoard(expected, recovered.board());
+        recovered.close();
+    }
+
+    @Test
+    public void testCommittedInBackground() throws IOException, InterruptedException {
+        BoardStore store = BoardStore.open(directory, BoardStoreTest::newBoard);
+        store.board().flag(2, 0);
+        File[] logs = directory.listFiles((dir, name) -> name.startsWith("log-"));
+        assertEquals(1, logs.length);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (logs[0].length() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(BoardStore.COMMIT_INTERVAL_MILLIS);
+        }
+        assertTrue("committer wrote the flag", logs[0].length() > 0);
+        store.close();
+    }
+
+    @Test(timeout = 10000)
+    public void testInterruptedCommitterSavesAndStops() throws IOException, InterruptedException {
+        BoardStore store = BoardStore.open(directory, BoardStoreTest::newBoard);
+        store.board().flag(2, 0);
+        Thread committer = null;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("board-store-committer " + directory)) {
+                committer = thread;
+            }
+        }
+        assertNotNull(committer);
+        committer.interrupt();
+        committer.join();
+        // the board plays on in memory only; the flag before the interrupt was saved
+        store.board().flag(3, 0);
+        store.close();
+
+        Board expected = newBoard();
+        expected.flag(2, 0);
+        BoardStore recovered = BoardStore.open(directory, BoardStoreTest::newBoard);
+        assertSameBoard(expected, recovered.board());
+        recovered.close();
+    }
+
+    @Test
+    public void testDugMineInLogRejected() throws IOException {
+        BoardStore store = BoardStore.open(directory, BoardStoreTest::newBoard, false);
+        assertFalse(store.board().dig(0, 0));
+        store.commit();
+
+        // rewrite the record of (0, 0) as dug with a mine, with a CRC to match, so only its state is wrong
+        byte[] states = newBoard().states();
+        byte mine = (byte) (states[1 * 5 + 1] ^ states[0]);
+        File[] logs = directory.listFiles((dir, name) -> name.startsWith("log-"));
+        assertEquals(1, logs.length);
+        ByteBuffer log = ByteBuffer.wrap(Files.readAllBytes(logs[0].toPath()));
+        int length = log.getInt(0);
+        assertEquals("one record", 5, length);
+        assertEquals("of (0, 0)", 0, log.getInt(16));
+        log.put(20, (byte) (log.get(20) | mine));
+        CRC32 crc = new CRC32();
+        crc.update(log.array(), 8, 8 + length);
+        log.putInt(4, (int) crc.getValue());
+        Files.write(logs[0].toPath(), log.array());
+
+        try {
+            BoardStore.open(directory, BoardStoreTest::newBoard);
+            fail("expected the dug mine to be rejected");
+        } catch (IOException ioe) {
+            assertTrue(ioe.getCause().getMessage(), ioe.getCause().getMessage().contains("still has a mine"));
+        }
+    }
+}
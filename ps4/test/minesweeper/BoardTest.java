@@ -1,6 +1,17 @@
 package minesweeper;
 
 import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
 import org.junit.Test;
 
 public class BoardTest {
@@ -11,6 +22,7 @@ public class BoardTest {
     //   (x, y) is _flagged_, _dug_, or _untouched_
     //   (x, y) contains a bomb or doesn't
     //   (x, y) has neighbor squares with bombs or doesn't
+    //   digging a bomb changes the counts of dug neighbours, or doesn't
     // flag(x, y)
     //   (x, y) is in the board, or out of the board
     //   (x, y) is _untouched_ or isn't
@@ -19,6 +31,23 @@ public class BoardTest {
     //   (x, y) is _flagged_ or isn't
     // toString()
     //   squares are _flagged_, _dug_, or _untouched_
+    // version(), render()
+    //   operation changes the board, or doesn't
+    //   render called once, or again without a change in between
+    //   change is in one band (Board.ROWS_PER_BAND rows), or changes counts shown in the band above
+    // reveal(x, y)
+    //   reveals nothing, one square, or a cascade
+    //   cascade covers a small or a huge board
+    // tiles (Board.TILE_SIZE)
+    //   board fits in one tile, or spans several
+    //   cascade stays in one tile, or crosses tile borders
+    //   one thread, or several threads digging at once
+    //   several threads flagging, deflagging and digging the same squares at once
+    //   render while another thread changes the squares of the band
+    // random(width, height, probability, random)
+    //   probability 0, 1, or in between
+    //   board is one block (Board.TILE_SIZE rows), or several with the last one partial
+    //   same seed, or different seeds
 
     // Shared board configuration for Junqi Xie test cases
     private static final int JUN_BOARD_SIZE = 7;
@@ -205,6 +234,24 @@ public class BoardTest {
                 board.toString());
     }
 
+    @Test
+    public void testBoomUpdatesNeighbourCounts() {
+        Board board = new Board(3, 1, new int[][] { { 0, 0 }, { 2, 0 } });
+        board.dig(1, 0);
+        assertEquals("- 2 -", board.toString());
+        assertTrue(board.dig(0, 0));
+        assertEquals("  1 -", board.toString());
+        assertTrue(board.dig(2, 0));
+        assertEquals("     ", board.toString());
+    }
+
+    @Test
+    public void testDuplicateMines() {
+        Board board = new Board(2, 1, new int[][] { { 0, 0 }, { 0, 0 } });
+        board.dig(1, 0);
+        assertEquals("- 1", board.toString());
+    }
+
     @Test
     public void testCornerMines() {
         int[][] mines = { { 0, 0 }, { 2, 0 }, { 0, 2 }, { 2, 2 } };
@@ -216,4 +263,486 @@ public class BoardTest {
                         "- - -",
                 board.toString());
     }
+
+    // Tile tests
+    @Test
+    public void testCascadeAcrossTiles() {
+        int width = Board.TILE_SIZE * 2 + 5;
+        Board board = new Board(width, 3, new int[][] {});
+        assertFalse(board.dig(width - 1, 0));
+        assertEquals("expected every square dug", "", board.toString().replace(" ", "").replace("\n", ""));
+    }
+
+    @Test
+    public void testCascadeStopsAtMinesInOtherTile() {
+        int width = Board.TILE_SIZE + 3;
+        int height = 4;
+        // a wall of mines in the second tile column splits the board in two
+        int[][] mines = new int[height][];
+        for (int y = 0; y < height; y++) {
+            mines[y] = new int[] { Board.TILE_SIZE + 1, y };
+        }
+        Board board = new Board(width, height, mines);
+        board.dig(0, 0);
+        for (String row : board.toString().split("\n")) {
+            // square x is at column 2 * x of its row
+            assertTrue("cascade reaches the wall", "23".indexOf(row.charAt(2 * Board.TILE_SIZE)) >= 0);
+            assertEquals("mines stay untouched", '-', row.charAt(2 * (Board.TILE_SIZE + 1)));
+            assertEquals("nothing dug beyond the wall", '-', row.charAt(2 * (width - 1)));
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testConcurrentCascadesFromCorners() throws InterruptedException {
+        int width = Board.TILE_SIZE * 4;
+        int height = 4;
+        int[][] corners = { { 0, 0 }, { width - 1, 0 }, { 0, height - 1 }, { width - 1, height - 1 } };
+        for (int round = 0; round < 20; round++) {
+            Board board = new Board(width, height, new int[][] {});
+            Thread[] threads = new Thread[corners.length];
+            for (int i = 0; i < corners.length; i++) {
+                int[] corner = corners[i];
+                threads[i] = new Thread(() -> board.dig(corner[0], corner[1]));
+                threads[i].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertEquals("expected whole board dug", "", board.toString().replace(" ", "").replace("\n", ""));
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testConcurrentFlagDeflagDig() throws InterruptedException {
+        int size = 32;
+        Board board = Board.random(size, size, 0.3, new SplittableRandom(5));
+        // successful flags and deflags of each square
+        AtomicIntegerArray flags = new AtomicIntegerArray(size * size);
+        AtomicIntegerArray deflags = new AtomicIntegerArray(size * size);
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            SplittableRandom random = new SplittableRandom(t);
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 50000; i++) {
+                    int x = random.nextInt(size);
+                    int y = random.nextInt(size);
+                    int move = random.nextInt(200);
+                    if (move == 0) {
+                        board.dig(x, y);
+                    } else if (move % 2 == 0) {
+                        if (board.flag(x, y)) {
+                            flags.incrementAndGet(y * size + x);
+                        }
+                    } else if (board.deflag(x, y)) {
+                        deflags.incrementAndGet(y * size + x);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // as if the moves had happened one at a time: flags and deflags of a square alternate,
+        // starting with a flag, and a square is flagged iff the last one was a flag
+        // (a dig never overwrites a flag, nor a flag a dug square)
+        String[] rows = board.toString().split("\n");
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                int flagged = flags.get(y * size + x) - deflags.get(y * size + x);
+                assertTrue("(" + x + ", " + y + ")", flagged == 0 || flagged == 1);
+                assertEquals("(" + x + ", " + y + ")", flagged == 1, rows[y].charAt(2 * x) == 'F');
+            }
+        }
+
+        // every mine dug up was taken off its neighbours' counts, whatever flags changed the same squares
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                board.deflag(x, y);
+            }
+        }
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                board.dig(x, y);
+            }
+        }
+        assertEquals("expected no mine left", "", board.toString().replace(" ", "").replace("\n", ""));
+    }
+
+    // Reveal tests
+    @Test
+    public void testRevealNothing() {
+        Board board = new Board(3, 3, new int[][] { { 1, 1 } });
+        board.flag(0, 0);
+        assertEquals(0, board.reveal(0, 0).revealed());
+        assertEquals(0, board.reveal(5, 5).revealed());
+    }
+
+    @Test
+    public void testRevealOneSquare() {
+        Board board = new Board(JUN_BOARD_SIZE, JUN_BOARD_SIZE, JUN_MINES);
+        DigResult result = board.reveal(3, 1);
+        assertFalse(result.hitBomb());
+        assertEquals(1, result.revealed());
+        assertEquals(0, board.reveal(3, 1).revealed());
+    }
+
+    @Test
+    public void testRevealCascade() {
+        Board board = new Board(JUN_BOARD_SIZE, JUN_BOARD_SIZE, JUN_MINES);
+        DigResult result = board.reveal(0, 0);
+        assertFalse(result.hitBomb());
+        // everything but the two mines and the square behind the top mine
+        assertEquals(JUN_BOARD_SIZE * JUN_BOARD_SIZE - 3, result.revealed());
+    }
+
+    @Test
+    public void testRevealBomb() {
+        Board board = new Board(3, 3, new int[][] { { 1, 1 } });
+        DigResult result = board.reveal(1, 1);
+        assertTrue(result.hitBomb());
+        // the only mine is gone, so the whole board opens up
+        assertEquals(9, result.revealed());
+    }
+
+    @Test(timeout = 60000)
+    public void testRevealHugeEmptyBoard() {
+        // far too deep for a recursive cascade
+        int size = 2000;
+        Board board = new Board(size, size, new int[][] { { size - 1, size - 1 } });
+        DigResult result = board.reveal(0, 0);
+        assertFalse(result.hitBomb());
+        assertEquals(size * size - 1, result.revealed());
+    }
+
+    // Version and render tests
+    @Test
+    public void testRenderSharedUntilChange() {
+        Board board = new Board(3, 3, new int[][] { { 1, 1 } });
+        Rendering first = board.render();
+        assertSame("expected one render per version", first, board.render());
+        assertEquals("rows are newline terminated", "- - -\n- - -\n- - -\n", new String(bytesOf(first)));
+
+        assertTrue(board.flag(0, 0));
+        Rendering second = board.render();
+        assertNotSame(first, second);
+        assertTrue(second.version() > first.version());
+        assertEquals("F - -\n- - -\n- - -", second.toString());
+    }
+
+    @Test
+    public void testVersionOnlyChangesWithBoard() {
+        Board board = new Board(3, 3, new int[][] { { 1, 1 } });
+        long start = board.version();
+        assertFalse(board.deflag(0, 0));
+        assertFalse(board.flag(-1, 0));
+        board.toString();
+        assertEquals("failed operations and renders do not change the board", start, board.version());
+
+        board.dig(0, 0);
+        long dug = board.version();
+        assertTrue(dug > start);
+        board.dig(0, 0);
+        assertEquals("digging a dug square changes nothing", dug, board.version());
+    }
+
+    private static byte[] bytesOf(Rendering rendering) {
+        byte[] bytes = new byte[rendering.size()];
+        int pos = 0;
+        for (ByteBuffer buffer : rendering.buffers()) {
+            int length = buffer.remaining();
+            buffer.get(bytes, pos, length);
+            pos += length;
+        }
+        return bytes;
+    }
+
+    @Test
+    public void testRenderOnlyPatchesChangedBands() {
+        int height = Board.ROWS_PER_BAND * 3;
+        Board board = new Board(4, height, new int[][] { { 3, height - 1 } });
+        Rendering before = board.render();
+        assertTrue(board.flag(2, Board.ROWS_PER_BAND + 1));
+        Rendering after = board.render();
+
+        assertSame("untouched band is shared", before.bands()[0], after.bands()[0]);
+        assertNotSame("changed band is rendered again", before.bands()[1], after.bands()[1]);
+        assertSame("untouched band is shared", before.bands()[2], after.bands()[2]);
+        Board fresh = new Board(4, height, new int[][] {});
+        fresh.flag(2, Board.ROWS_PER_BAND + 1);
+        assertEquals("patched rendering matches a full one", fresh.toString(), after.toString());
+    }
+
+    private static byte[] packedBytesOf(Rendering rendering) {
+        byte[] bytes = new byte[rendering.packedSize()];
+        int pos = 0;
+        for (ByteBuffer buffer : rendering.packedBuffers()) {
+            int length = buffer.remaining();
+            buffer.get(bytes, pos, length);
+            pos += length;
+        }
+        assertEquals(bytes.length, pos);
+        return bytes;
+    }
+
+    @Test
+    public void testPackedRendering() {
+        // 3x3, odd number of squares: the last low nibble is padding
+        Board board = new Board(3, 3, new int[][] { { 2, 2 } });
+        board.flag(2, 0);
+        board.dig(0, 0);
+        assertEquals("    F\n  1 1\n  1 -", board.toString());
+        Rendering rendering = board.render();
+        assertEquals(3, rendering.width());
+        assertEquals(3, rendering.height());
+        assertArrayEquals(new byte[] { 0x00, (byte) 0xA0, 0x11, 0x01, (byte) 0x90 }, packedBytesOf(rendering));
+    }
+
+    @Test
+    public void testPackedAfterPatch() {
+        int height = Board.ROWS_PER_BAND * 2 + 1;
+        Board board = new Board(3, height, new int[][] {});
+        Rendering before = board.render();
+        assertEquals((3 * height + 1) / 2, before.packedSize());
+        byte[] untouched = packedBytesOf(before);
+        board.flag(1, Board.ROWS_PER_BAND);
+
+        // the packed bands of before are reused for the bands that did not change
+        Rendering after = board.render();
+        byte[] packed = packedBytesOf(after);
+        Board fresh = new Board(3, height, new int[][] {});
+        fresh.flag(1, Board.ROWS_PER_BAND);
+        assertArrayEquals("patched packing matches a full one", packedBytesOf(fresh.render()), packed);
+        assertEquals(Rendering.UNTOUCHED_CODE << 4 | Rendering.UNTOUCHED_CODE, untouched[0] & 0xFF);
+        // the flag is square 3 * ROWS_PER_BAND + 1, in the low half of its byte
+        int flag = 3 * Board.ROWS_PER_BAND + 1;
+        assertEquals((Rendering.UNTOUCHED_CODE << 4) | Rendering.FLAGGED_CODE, packed[flag / 2] & 0xFF);
+    }
+
+    private static byte[] inflate(ByteBuffer[] deflated) throws DataFormatException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        for (ByteBuffer buffer : deflated) {
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            compressed.write(bytes, 0, bytes.length);
+        }
+        Inflater inflater = new Inflater(true);
+        inflater.setInput(compressed.toByteArray());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] chunk = new byte[4096];
+        while (!inflater.finished()) {
+            int inflated = inflater.inflate(chunk);
+            assertTrue("stream ends with a final block", inflated > 0 || !inflater.needsInput());
+            out.write(chunk, 0, inflated);
+        }
+        inflater.end();
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testDeflatedRendering() throws DataFormatException {
+        int height = Board.ROWS_PER_BAND * 4 + 3;
+        Board board = new Board(101, height, new int[][] { { 100, height - 1 } });
+        Rendering before = board.render();
+        assertArrayEquals(bytesOf(before), inflate(before.deflatedBuffers()));
+        assertArrayEquals(packedBytesOf(before), inflate(before.deflatedPackedBuffers()));
+        long compressed = 0;
+        for (ByteBuffer buffer : before.deflatedBuffers()) {
+            compressed += buffer.remaining();
+        }
+        assertTrue("runs of '-' compress well", compressed * 20 < before.size());
+
+        // patched: the compressed bands of the untouched bands are reused, and still fit together
+        board.flag(3, Board.ROWS_PER_BAND * 2);
+        board.dig(0, 0);
+        Rendering after = board.render();
+        assertArrayEquals(bytesOf(after), inflate(after.deflatedBuffers()));
+        assertArrayEquals(packedBytesOf(after), inflate(after.deflatedPackedBuffers()));
+    }
+
+    @Test
+    public void testBoomPatchesBandAbove() {
+        int row = Board.ROWS_PER_BAND;
+        // a mine on the first row of band 1, next to a dug square on the last row of band 0
+        Board board = new Board(2, row + 1, new int[][] { { 0, row }, { 1, row } });
+        board.dig(0, row - 1);
+        String before = board.toString();
+        assertTrue(before.contains("2 -\n- -"));
+
+        assertTrue(board.dig(0, row));
+        String after = board.toString();
+        assertTrue("count in band 0 drops after the boom in band 1", after.contains("1 -\n1 -"));
+    }
+
+    @Test
+    public void testChangesSinceCurrentVersionIsEmpty() {
+        Board board = new Board(3, 3, new int[][] { { 1, 1 } });
+        board.flag(0, 0);
+        Changes changes = board.changesSince(board.version()).get();
+        assertEquals(0, changes.count());
+        assertEquals(board.version(), changes.version());
+    }
+
+    @Test
+    public void testChangesSinceFlagAndCascade() {
+        Board board = new Board(3, 3, new int[][] { { 2, 2 } });
+        long start = board.version();
+        board.flag(2, 2);
+        board.dig(0, 0);
+        Changes changes = board.changesSince(start).get();
+        assertEquals(start, changes.since());
+        assertEquals(board.version(), changes.version());
+        // every square changed, each listed once, row by row, showing its current symbol
+        assertEquals(9, changes.count());
+        String rows = board.toString().replace("\n", " ");
+        for (int i = 0; i < changes.count(); i++) {
+            assertEquals(i % 3, changes.x(i));
+            assertEquals(i / 3, changes.y(i));
+            assertEquals(rows.charAt(2 * i), changes.symbol(i));
+        }
+    }
+
+    @Test
+    public void testChangesSinceBoomListsNeighbours() {
+        Board board = new Board(3, 3, new int[][] { { 0, 0 }, { 0, 1 } });
+        board.dig(1, 1);
+        long before = board.version();
+        assertTrue(board.dig(0, 0));
+        Changes changes = board.changesSince(before).get();
+        // (0, 0) and its 3 neighbours, no cascade since (0, 1) is a mine; (1, 1) now shows 1 instead of 2
+        assertEquals(4, changes.count());
+        assertEquals(1, changes.x(3));
+        assertEquals(1, changes.y(3));
+        assertEquals('1', changes.symbol(3));
+    }
+
+    @Test
+    public void testChangesSinceForgetsOldVersions() {
+        Board board = new Board(2000, 2000, new int[][] {});
+        assertFalse("future version", board.changesSince(board.version() + 1).isPresent());
+        // more flags than the log holds
+        for (int i = 0; i <= Board.MAX_CHANGE_LOG; i++) {
+            board.flag(i % 2000, i / 2000);
+        }
+        assertFalse("forgotten", board.changesSince(0).isPresent());
+        long recent = board.version() - 10;
+        assertEquals(10, board.changesSince(recent).get().count());
+
+        // a cascade too big to log
+        long before = board.version();
+        board.dig(1999, 1999);
+        assertFalse(board.changesSince(before).isPresent());
+        assertEquals(0, board.changesSince(board.version()).get().count());
+    }
+
+    @Test
+    public void testApplyAllIsOneChange() {
+        Board board = new Board(4, 4, new int[][] { { 3, 3 } });
+        long before = board.version();
+        List<Move> moves = Arrays.asList(
+                new Move(Move.Kind.FLAG, 3, 3),
+                new Move(Move.Kind.FLAG, 3, 3),
+                new Move(Move.Kind.DIG, 0, 0),
+                new Move(Move.Kind.DEFLAG, 3, 3),
+                new Move(Move.Kind.DIG, 9, 9));
+        Move.Result[] results = board.applyAll(moves, true);
+        assertArrayEquals(new Move.Result[] { Move.Result.CHANGED, Move.Result.UNCHANGED, Move.Result.CHANGED,
+            Move.Result.CHANGED, Move.Result.UNCHANGED }, results);
+        assertEquals("one version for the whole batch", before + 1, board.version());
+        assertEquals("       \n       \n    1 1\n    1 -", board.toString());
+        assertEquals(board.toString(), board.render().toString());
+    }
+
+    @Test
+    public void testApplyAllStopsAtBomb() {
+        Board board = new Board(3, 3, new int[][] { { 1, 1 } });
+        List<Move> moves = Arrays.asList(
+                new Move(Move.Kind.FLAG, 0, 0),
+                new Move(Move.Kind.DIG, 1, 1),
+                new Move(Move.Kind.FLAG, 2, 2));
+        assertArrayEquals(new Move.Result[] { Move.Result.CHANGED, Move.Result.BOOM, Move.Result.SKIPPED },
+                board.applyAll(moves, true));
+        // the boom removed the only mine, so the cascade dug everything else
+        assertEquals("F    \n     \n     ", board.toString());
+
+        // without stopping, the moves after the bomb are made too (too late to flag here)
+        Board again = new Board(3, 3, new int[][] { { 1, 1 } });
+        assertArrayEquals(new Move.Result[] { Move.Result.CHANGED, Move.Result.BOOM, Move.Result.UNCHANGED },
+                again.applyAll(moves, false));
+    }
+
+    /*
+     * Dig every square of board, row by row; returns the squares that had a mine.
+     * Cascades never dig a mine, so every mine is found by its own dig.
+     */
+    private static BitSet digAll(Board board) {
+        BitSet mines = new BitSet();
+        for (int y = 0; y < board.height; y++) {
+            for (int x = 0; x < board.width; x++) {
+                if (board.dig(x, y)) {
+                    mines.set(y * board.width + x);
+                }
+            }
+        }
+        return mines;
+    }
+
+    @Test
+    public void testRandomSameSeed() {
+        int width = 150;
+        int height = Board.TILE_SIZE * 2 + 2;
+        Board board = Board.random(width, height, 0.25, new SplittableRandom(42));
+        BitSet mines = digAll(Board.random(width, height, 0.25, new SplittableRandom(42)));
+        assertNotEquals("different seed", mines, digAll(Board.random(width, height, 0.25, new SplittableRandom(43))));
+
+        // the random board must count its mines just like a board built from the same mines
+        Board expected = new Board(width, height, mines);
+        assertEquals(expected.toString(), board.toString());
+        assertEquals(digAll(expected), digAll(board));
+        assertEquals(expected.toString(), board.toString());
+    }
+
+    @Test
+    public void testRandomDensity() {
+        int width = 300;
+        int height = 300;
+        int mines = digAll(Board.random(width, height, 0.25, new SplittableRandom(7))).cardinality();
+        // mean 22500, standard deviation about 130
+        assertTrue("mines: " + mines, Math.abs(mines - width * height / 4) < 1000);
+    }
+
+    @Test
+    public void testRandomNoneOrAll() {
+        Board empty = Board.random(5, Board.TILE_SIZE + 1, 0, new SplittableRandom(1));
+        assertFalse(empty.dig(0, 0));
+        assertFalse("no mines, so everything opened up", empty.toString().contains("-"));
+
+        Board full = Board.random(5, Board.TILE_SIZE + 1, 1, new SplittableRandom(1));
+        assertEquals(5 * (Board.TILE_SIZE + 1), digAll(full).cardinality());
+    }
+
+    @Test(timeout = 20000)
+    public void testRenderNeverTorn() throws InterruptedException {
+        Board board = new Board(3, 3, new int[][] { { 2, 2 } });
+        List<Move> flagBoth = List.of(new Move(Move.Kind.FLAG, 0, 0), new Move(Move.Kind.FLAG, 1, 0));
+        List<Move> deflagBoth = List.of(new Move(Move.Kind.DEFLAG, 0, 0), new Move(Move.Kind.DEFLAG, 1, 0));
+        Thread writer = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                board.applyAll(flagBoth, false);
+                board.applyAll(deflagBoth, false);
+            }
+        });
+        writer.start();
+        try {
+            // both squares change under the same lock, so no render may show one without the other
+            for (int i = 0; i < 20000; i++) {
+                String rendered = board.toString();
+                assertEquals(rendered, rendered.charAt(0), rendered.charAt(2));
+            }
+        } finally {
+            writer.interrupt();
+            writer.join();
+        }
+    }
 }
@@ -0,0 +1,99 @@
+package minesweeper;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests LatencyHistogram.
+ */
+public class LatencyHistogramTest {
+
+    // Testing strategy:
+    //   nothing recorded, one duration, many
+    //   durations: negative, 0, below SUB_BUCKETS (exact buckets), powers of two and their neighbours, Long.MAX_VALUE
+    //   percentile: smallest fraction, median, 99th, 1
+    //   recorded from one thread, or many at once
+
+    @Test
+    public void testEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.mean(), 0);
+        assertEquals(0, histogram.max());
+        assertEquals(0, histogram.percentile(0.5));
+        assertEquals(0, histogram.percentile(1));
+    }
+
+    @Test
+    public void testBuckets() {
+        long[] values = { 0, 1, 7, 8, 9, 15, 16, 17, 1000, 1023, 1024, 1025, 123456789, Long.MAX_VALUE };
+        int previous = -1;
+        for (long value : values) {
+            int bucket = LatencyHistogram.bucket(value);
+            assertTrue(value + " in a later bucket", bucket >= previous);
+            long highest = LatencyHistogram.highest(bucket);
+            assertTrue(value + " <= " + highest, value <= highest);
+            assertTrue(value + " within 1/8 of " + highest, highest - value <= value / LatencyHistogram.SUB_BUCKETS);
+            previous = bucket;
+        }
+        for (long value = 0; value < LatencyHistogram.SUB_BUCKETS; value++) {
+            assertEquals(value, LatencyHistogram.highest(LatencyHistogram.bucket(value)));
+        }
+    }
+
+    @Test
+    public void testOne() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000);
+        histogram.record(-5);
+        assertEquals(2, histogram.count());
+        assertEquals(500, histogram.mean(), 0);
+        assertEquals(1000, histogram.max());
+        assertEquals(0, histogram.percentile(0.5));
+        // the bucket of 1000 goes up to 1023, but nothing above 1000 was recorded
+        assertEquals(1000, histogram.percentile(1));
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int value = 1; value <= 10000; value++) {
+            histogram.record(value);
+        }
+        assertEquals(10000, histogram.count());
+        assertEquals(5000.5, histogram.mean(), 0);
+        assertEquals(10000, histogram.max());
+        long median = histogram.percentile(0.5);
+        assertTrue("median " + median, median >= 5000 && median <= 5000 * 9 / 8);
+        long p99 = histogram.percentile(0.99);
+        assertTrue("p99 " + p99, p99 >= 9900 && p99 <= 10000);
+        assertEquals(1, histogram.percentile(0.00005));
+        assertTrue(histogram.toString().startsWith("count 10000, mean 5.0us"));
+    }
+
+    @Test
+    public void testConcurrent() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    histogram.record(100);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40000, histogram.count());
+        assertEquals(100, histogram.percentile(0.5));
+        assertEquals(100, histogram.max());
+    }
+}
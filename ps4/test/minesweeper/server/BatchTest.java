@@ -0,0 +1,104 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.net.Socket;
+
+import org.junit.Test;
+
+/**
+ * Tests the batch command, in both the thread-per-connection and the --nio modes.
+ */
+public class BatchTest {
+
+    // Testing strategy:
+    //   server runs with threads, or with --nio
+    //   batching is ack or board
+    //   batch has moves that change the board, that do not, and that hit a mine;
+    //   batch ends at the end of the input, at a request that is not a move, or at a move still arriving
+
+    /*
+     * Send requests in a single write, so that the server sees them all at once.
+     */
+    private static void sendAll(Socket socket, String... requests) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write((String.join("\n", requests) + "\n").getBytes("US-ASCII"));
+        out.flush();
+    }
+
+    private static void batch(int port) throws IOException {
+        try (Socket socket = TestServers.connect(port)) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            assertTrue(in.readLine().startsWith("Welcome"));
+
+            sendAll(socket, "batch board", "flag 1 0", "flag 2 0", "deflag 0 0", "help");
+            assertEquals("Batching board.", in.readLine());
+            assertEquals("one board for the whole batch", "- F F", in.readLine().substring(0, 5));
+            for (int row = 1; row < 7; row++) {
+                assertEquals(7 * 2 - 1, in.readLine().length());
+            }
+            assertEquals(TestServers.HELP, in.readLine());
+
+            sendAll(socket, "batch ack", "flag 0 0", "flag 1 0", "deflag 3 3", "dig 4 1", "help");
+            assertEquals("Batching ack.", in.readLine());
+            assertEquals("OK", in.readLine());
+            assertEquals("NO", in.readLine());
+            assertEquals("NO", in.readLine());
+            assertEquals("BOOM!", in.readLine());
+            assertEquals("moves end at the first other request", TestServers.HELP, in.readLine());
+
+            sendAll(socket, "batch off", "flag 3 0", "bye");
+            assertEquals("Batching off.", in.readLine());
+            // the boom opened up the board around (4,1), so (3,0) could not be flagged
+            assertEquals("F F F", in.readLine().substring(0, 5));
+            for (int row = 1; row < 7; row++) {
+                assertEquals(7 * 2 - 1, in.readLine().length());
+            }
+            assertEquals("You chose to leave the game. Goodbye!", in.readLine());
+            assertNull("expected server to close the connection", in.readLine());
+        }
+    }
+
+    /*
+     * Pipeline a whole move and the start of another, on a fresh board_file_5 server.
+     */
+    private static void partialMove(int port) throws IOException, InterruptedException {
+        try (Socket socket = TestServers.connect(port)) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            assertTrue(in.readLine().startsWith("Welcome"));
+
+            OutputStream out = socket.getOutputStream();
+            out.write("batch ack\nflag 1 0\nflag 2".getBytes("US-ASCII"));
+            out.flush();
+            assertEquals("Batching ack.", in.readLine());
+            // the whole move is answered without waiting for the rest of the next one
+            assertEquals("OK", in.readLine());
+
+            Thread.sleep(100);
+            sendAll(socket, " 0", "bye");
+            assertEquals("OK", in.readLine());
+            assertEquals("You chose to leave the game. Goodbye!", in.readLine());
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void testPartialMoveWithThreads() throws IOException, InterruptedException {
+        partialMove(TestServers.start());
+    }
+
+    @Test(timeout = 20000)
+    public void testPartialMoveWithNio() throws IOException, InterruptedException {
+        partialMove(TestServers.start("--nio"));
+    }
+
+    @Test(timeout = 20000)
+    public void testBatchWithThreads() throws IOException {
+        batch(TestServers.start());
+    }
+
+    @Test(timeout = 20000)
+    public void testBatchWithNio() throws IOException {
+        batch(TestServers.start("--nio"));
+    }
+}
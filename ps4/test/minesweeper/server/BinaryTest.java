@@ -0,0 +1,155 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import minesweeper.Rendering;
+
+/**
+ * Tests the binary protocol, in both the thread-per-connection and the --nio modes.
+ */
+public class BinaryTest {
+
+    // Testing strategy:
+    //   server runs with threads, or with --nio
+    //   replies: message, board (look, move, watch), delta pushed to a watcher
+    //   requests: every kind of frame, an invalid frame, several frames in one write,
+    //   the switch to binary arriving in the same write as the first frames
+
+    /*
+     * Read one text line, without going past its end.
+     */
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        for (int c = in.read(); c != '\n'; c = in.read()) {
+            assertNotEquals("unexpected end of stream", -1, c);
+            line.append((char) c);
+        }
+        return line.toString();
+    }
+
+    private static long readVarint(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0;; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    /*
+     * Read one reply frame, checking its type; returns its payload.
+     */
+    private static DataInputStream readFrame(DataInputStream in, byte type) throws IOException {
+        byte[] frame = new byte[(int) readVarint(in)];
+        in.readFully(frame);
+        assertEquals(type, frame[0]);
+        return new DataInputStream(new ByteArrayInputStream(frame, 1, frame.length - 1));
+    }
+
+    private static String readMessage(DataInputStream in) throws IOException {
+        DataInputStream payload = readFrame(in, Reply.MESSAGE_FRAME);
+        return new String(payload.readAllBytes(), StandardCharsets.US_ASCII);
+    }
+
+    /*
+     * Read a BOARD frame of the 7x7 board, returning its squares as codes, one per square.
+     */
+    private static int[] readBoard(DataInputStream in) throws IOException {
+        DataInputStream payload = readFrame(in, Reply.BOARD_FRAME);
+        readVarint(payload);
+        assertEquals(7, readVarint(payload));
+        assertEquals(7, readVarint(payload));
+        byte[] packed = payload.readAllBytes();
+        assertEquals("4 bits a square", (7 * 7 + 1) / 2, packed.length);
+        int[] codes = new int[7 * 7];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = i % 2 == 0 ? (packed[i / 2] >> 4) & 0xF : packed[i / 2] & 0xF;
+        }
+        return codes;
+    }
+
+    private static byte[] frame(int... body) {
+        byte[] bytes = new byte[body.length + 1];
+        bytes[0] = (byte) body.length;
+        for (int i = 0; i < body.length; i++) {
+            bytes[i + 1] = (byte) body[i];
+        }
+        return bytes;
+    }
+
+    private static void play(int port) throws IOException {
+        try (Socket socket = TestServers.connect(port); Socket other = TestServers.connect(port)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            OutputStream out = socket.getOutputStream();
+            assertTrue(readLine(in).startsWith("Welcome"));
+            PrintWriter otherOut = new PrintWriter(other.getOutputStream(), true);
+            BufferedReader otherIn = new BufferedReader(new InputStreamReader(other.getInputStream()));
+            otherIn.readLine();
+
+            // the switch and the first frames in one write
+            ByteArrayOutputStream first = new ByteArrayOutputStream();
+            first.write("binary\n".getBytes(StandardCharsets.US_ASCII));
+            first.write(frame(1));
+            first.write(frame(3, 1, 0));
+            out.write(first.toByteArray());
+            out.flush();
+            assertEquals("Binary.", readLine(in));
+            int[] look = readBoard(in);
+            for (int code : look) {
+                assertEquals(Rendering.UNTOUCHED_CODE, code);
+            }
+            int[] flagged = readBoard(in);
+            assertEquals(Rendering.FLAGGED_CODE, flagged[1]);
+
+            out.write(frame(5));
+            out.write(frame(2, 3));
+            out.flush();
+            assertEquals(TestServers.HELP, readMessage(in));
+            assertEquals("invalid frame gets the help message", TestServers.HELP, readMessage(in));
+
+            out.write(frame(2, 4, 1));
+            out.flush();
+            assertEquals("BOOM!", readMessage(in));
+
+            // a watcher is pushed DELTA frames
+            out.write(frame(8));
+            out.flush();
+            int[] watched = readBoard(in);
+            assertEquals(Rendering.FLAGGED_CODE, watched[1]);
+            assertEquals(0, watched[7 * 1 + 4]);
+            otherOut.println("deflag 1 0");
+            for (int row = 0; row < 7; row++) {
+                otherIn.readLine();
+            }
+            DataInputStream delta = readFrame(in, Reply.DELTA_FRAME);
+            readVarint(delta);
+            assertEquals(1, readVarint(delta));
+            assertEquals(1, readVarint(delta));
+            assertEquals(0, readVarint(delta));
+            assertEquals(Rendering.UNTOUCHED_CODE, delta.readUnsignedByte());
+
+            out.write(frame(6));
+            out.flush();
+            assertEquals("You chose to leave the game. Goodbye!", readMessage(in));
+            assertEquals("expected server to close the connection", -1, in.read());
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void testBinaryWithThreads() throws IOException {
+        play(TestServers.start());
+    }
+
+    @Test(timeout = 20000)
+    public void testBinaryWithNio() throws IOException {
+        play(TestServers.start("--nio"));
+    }
+}
@@ -0,0 +1,83 @@
+package minesweeper.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Microbenchmark of request parsing: the regex, split and parseInt parsing handleRequest used to do,
+ * against Command.parse. Not a JUnit test; run it by hand:
+ * 
+ *   java -cp bin minesweeper.server.CommandBenchmark [SECONDS]
+ * 
+ * Each variant parses a mix of typical requests for SECONDS seconds (default 2) after as long a warmup,
+ * and prints how many requests per second it parsed.
+ */
+public class CommandBenchmark {
+
+    private static final String[] LINES = {
+        "look", "dig 3 4", "flag 10 12", "deflag 10 12", "dig 123 456", "help", "look-since 42", "bogus request"
+    };
+
+    private static final String REGEX = "(look)|(help)|(bye)|(look-since \\d{1,18})|(watch)|(join [A-Za-z0-9_-]{1,32})|"
+            + "(dig -?\\d+ -?\\d+)|(flag -?\\d+ -?\\d+)|(deflag -?\\d+ -?\\d+)";
+
+    // results are summed into here so that the JIT cannot drop the parsing
+    private static long sink;
+
+    /*
+     * The old way: match the whole regex (compiling it every time), split, and parseInt.
+     */
+    private static void parseWithRegex(String line) {
+        if (!line.matches(REGEX)) {
+            sink++;
+            return;
+        }
+        String[] tokens = line.split(" ");
+        if (tokens.length == 3) {
+            sink += Integer.parseInt(tokens[1]) + Integer.parseInt(tokens[2]);
+        } else {
+            sink += tokens[0].length();
+        }
+    }
+
+    private static final Command COMMAND = new Command();
+
+    private static void parseWithCommand(String line) {
+        Command command = COMMAND.parse(line);
+        sink += command.type().ordinal() + command.x() + command.y();
+    }
+
+    /*
+     * Run parser over LINES for the given time, returning requests parsed per second.
+     */
+    private static double measure(Consumer<String> parser, long nanos) {
+        long count = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            for (String line : LINES) {
+                parser.accept(line);
+            }
+            count += LINES.length;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < nanos);
+        return count * 1e9 / elapsed;
+    }
+
+    /**
+     * Run the benchmark.
+     * 
+     * @param args optional number of seconds to measure each variant
+     */
+    public static void main(String[] args) {
+        long nanos = TimeUnit.SECONDS.toNanos(args.length > 0 ? Long.parseLong(args[0]) : 2);
+        // warm up both before measuring either
+        measure(CommandBenchmark::parseWithRegex, nanos);
+        measure(CommandBenchmark::parseWithCommand, nanos);
+        double regex = measure(CommandBenchmark::parseWithRegex, nanos);
+        double command = measure(CommandBenchmark::parseWithCommand, nanos);
+        System.out.printf("regex + split:  %,.0f requests/s%n", regex);
+        System.out.printf("Command.parse:  %,.0f requests/s (%.1fx)%n", command, command / regex);
+        System.out.println("(checksum " + sink + ")");
+    }
+}
@@ -0,0 +1,170 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import minesweeper.server.Command.Type;
+
+/**
+ * Tests Command.parse.
+ */
+public class CommandTest {
+
+    // Testing strategy:
+    //   each request type; valid and invalid: empty, prefix, suffix, extra or missing spaces, wrong case
+    //   coordinates: 0, negative, int extremes, too big for an int
+    //   parse from a String and from bytes in the middle of a buffer
+    //   one Command reused for several lines
+    //   binary frames: each opcode; bad opcode, missing or extra arguments; frame incomplete or too long
+
+    private static Command parse(String line) {
+        Command fromChars = new Command().parse(line);
+        // the same line surrounded by other bytes must parse the same
+        byte[] bytes = ("xx" + line + "\nyy").getBytes(StandardCharsets.US_ASCII);
+        Command fromBytes = new Command().parse(bytes, 2, 2 + line.length());
+        assertEquals(line, fromChars.type(), fromBytes.type());
+        return fromChars;
+    }
+
+    @Test
+    public void testKeywords() {
+        assertEquals(Type.LOOK, parse("look").type());
+        assertEquals(Type.HELP, parse("help").type());
+        assertEquals(Type.BYE, parse("bye").type());
+        assertEquals(Type.WATCH, parse("watch").type());
+        assertEquals(Type.STATS, parse("stats").type());
+    }
+
+    @Test
+    public void testSquares() {
+        Command dig = parse("dig 3 -4");
+        assertEquals(Type.DIG, dig.type());
+        assertEquals(3, dig.x());
+        assertEquals(-4, dig.y());
+        Command flag = parse("flag 0 10");
+        assertEquals(Type.FLAG, flag.type());
+        assertEquals(0, flag.x());
+        assertEquals(10, flag.y());
+        Command deflag = parse("deflag 2147483647 -2147483648");
+        assertEquals(Type.DEFLAG, deflag.type());
+        assertEquals(Integer.MAX_VALUE, deflag.x());
+        assertEquals(Integer.MIN_VALUE, deflag.y());
+    }
+
+    @Test
+    public void testLookSinceAndJoin() {
+        Command since = parse("look-since 123456789012345678");
+        assertEquals(Type.LOOK_SINCE, since.type());
+        assertEquals(123456789012345678L, since.version());
+        Command join = parse("join Room_1-a");
+        assertEquals(Type.JOIN, join.type());
+        assertEquals("Room_1-a", join.room());
+    }
+
+    @Test
+    public void testInvalid() {
+        String[] lines = { "", " ", "look ", " look", "Look", "lookx", "he", "byee", "watch 1", "stat", "stats 1",
+            "dig", "dig 1", "dig 1 ", "dig  1 2", "dig 1 2 3", "dig a 1", "dig 1 -", "dig --1 2", "dig 1 2.0",
+            "dig 2147483648 0", "dig 0 -2147483649", "dig 99999999999999999999 0", "digs 1 2", "deflag1 2",
+            "look-since", "look-since ", "look-since -1", "look-since 1234567890123456789", "look-since 1a",
+            "join", "join ", "join a b", "join a.b", "join " + "x".repeat(33) };
+        for (String line : lines) {
+            assertEquals(line, Type.INVALID, parse(line).type());
+        }
+    }
+
+    @Test
+    public void testReuse() {
+        Command command = new Command();
+        assertEquals(Type.DIG, command.parse("dig 1 2").type());
+        assertEquals(Type.INVALID, command.parse("dig 1").type());
+        assertEquals(Type.FLAG, command.parse("flag 5 6").type());
+        assertEquals(5, command.x());
+        assertEquals(6, command.y());
+    }
+
+    /*
+     * Frame opcode and arguments (each a byte, a VARINT being given as its bytes) behind a LENGTH,
+     * in the middle of a buffer, parse it, and check frameEnd found exactly its end.
+     */
+    private static Command parseFrame(int... body) {
+        byte[] bytes = new byte[body.length + 3];
+        bytes[0] = 7;
+        bytes[1] = (byte) body.length;
+        for (int i = 0; i < body.length; i++) {
+            bytes[i + 2] = (byte) body[i];
+        }
+        assertEquals(-1, Command.frameEnd(bytes, 1, 1 + body.length));
+        assertEquals(2 + body.length, Command.frameEnd(bytes, 1, bytes.length));
+        return new Command().parseFrame(bytes, 1, 2 + body.length);
+    }
+
+    @Test
+    public void testFrames() {
+        assertEquals(Type.LOOK, parseFrame(1).type());
+        assertEquals(Type.HELP, parseFrame(5).type());
+        assertEquals(Type.BYE, parseFrame(6).type());
+        assertEquals(Type.WATCH, parseFrame(8).type());
+        assertEquals(Type.STATS, parseFrame(12).type());
+        Command dig = parseFrame(2, 3, 0x80 | 0x2C, 0x02);
+        assertEquals(Type.DIG, dig.type());
+        assertEquals(3, dig.x());
+        assertEquals(300, dig.y());
+        assertEquals(Type.FLAG, parseFrame(3, 0, 0).type());
+        assertEquals(Type.DEFLAG, parseFrame(4, 1, 1).type());
+        Command since = parseFrame(7, 0x81, 0x01);
+        assertEquals(Type.LOOK_SINCE, since.type());
+        assertEquals(129, since.version());
+        Command join = parseFrame(9, 'r', '-', '1');
+        assertEquals(Type.JOIN, join.type());
+        assertEquals("r-1", join.room());
+        Command batch = parseFrame(10, 2);
+        assertEquals(Type.BATCH, batch.type());
+        assertEquals(Session.Batching.ACK, batch.batching());
+    }
+
+    @Test
+    public void testInvalidFrames() {
+        int[][] bodies = { {}, { 0 }, { 11 }, { 0xFF }, { 1, 0 }, { 2 }, { 2, 1 }, { 2, 1, 0x80 }, { 2, 1, 1, 1 },
+            { 2, 0xFF, 0xFF, 0xFF, 0xFF, 0x0F, 0 }, { 7 }, { 9 }, { 9, ' ' }, { 10 }, { 10, 3 }, { 10, 0, 0 },
+            { 12, 0 }, { 13 } };
+        for (int[] body : bodies) {
+            assertEquals(Arrays.toString(body), Type.INVALID, parseFrame(body).type());
+        }
+    }
+
+    @Test
+    public void testFrameTooLong() {
+        byte[] bytes = { (byte) Command.MAX_FRAME_LENGTH, 1 };
+        assertTrue(Command.frameEnd(bytes, 0, bytes.length) > Command.MAX_FRAME_LENGTH);
+        byte[] huge = { (byte) 0x80, (byte) 0x80, (byte) 0x80 };
+        assertTrue(Command.frameEnd(huge, 0, huge.length) > Command.MAX_FRAME_LENGTH);
+        byte[] longest = { (byte) (Command.MAX_FRAME_LENGTH - 1) };
+        assertEquals(-1, Command.frameEnd(longest, 0, longest.length));
+    }
+
+    @Test
+    public void testCompress() {
+        Command on = parse("compress on");
+        assertEquals(Type.COMPRESS, on.type());
+        assertTrue(on.compress());
+        Command off = parse("compress off");
+        assertEquals(Type.COMPRESS, off.type());
+        assertFalse(off.compress());
+        assertTrue(parseFrame(11, 1).compress());
+        assertEquals(Type.INVALID, parse("compress").type());
+        assertEquals(Type.INVALID, parse("compress yes").type());
+        assertEquals(Type.INVALID, parse("compress onn").type());
+        assertEquals(Type.INVALID, parseFrame(11, 2).type());
+    }
+
+    @Test
+    public void testBinaryKeyword() {
+        assertEquals(Type.BINARY, parse("binary").type());
+        assertEquals(Type.INVALID, parse("binary 1").type());
+    }
+}
@@ -0,0 +1,94 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.junit.Test;
+
+import minesweeper.Board;
+
+/**
+ * Tests the compress command, in the text and the binary protocols.
+ */
+public class CompressTest {
+
+    // Testing strategy:
+    //   compression on, then off again
+    //   text protocol, binary protocol
+    //   board replies to look and to a move
+
+    private static final int SIZE = 100;
+
+    private static byte[] bytes(ByteBuffer[] buffers) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (ByteBuffer buffer : buffers) {
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            out.write(bytes, 0, bytes.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] inflate(byte[] compressed, int offset) throws DataFormatException {
+        Inflater inflater = new Inflater(true);
+        inflater.setInput(compressed, offset, compressed.length - offset);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] chunk = new byte[4096];
+        while (!inflater.finished()) {
+            int inflated = inflater.inflate(chunk);
+            assertFalse("stream ended early", inflated == 0 && inflater.needsInput());
+            out.write(chunk, 0, inflated);
+        }
+        assertEquals("nothing after the stream", 0, inflater.getRemaining());
+        inflater.end();
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testCompressedBoards() throws Exception {
+        MinesweeperServer server = new MinesweeperServer(new Board(SIZE, SIZE, new int[][] { { 5, 5 } }), 0, true,
+                false, ConnectionExecutors.create("platform"));
+        try {
+            Session session = server.connect();
+            String board = new String(bytes(server.handleRequest(session, "look").buffers(false)),
+                    StandardCharsets.US_ASCII);
+
+            assertEquals("Compression on.\n",
+                    new String(bytes(server.handleRequest(session, "compress on").buffers(false)),
+                            StandardCharsets.US_ASCII));
+            byte[] reply = bytes(server.handleRequest(session, "look").buffers(false));
+            String header = new String(reply, 0, new String(reply, StandardCharsets.ISO_8859_1).indexOf('\n'),
+                    StandardCharsets.US_ASCII);
+            String[] fields = header.split(" ");
+            assertEquals("COMPRESSED", fields[0]);
+            assertEquals(header.length() + 1 + Integer.parseInt(fields[2]), reply.length);
+            assertEquals(board, new String(inflate(reply, header.length() + 1), StandardCharsets.US_ASCII));
+            assertTrue("much smaller than the board", reply.length * 20 < board.length());
+
+            // moves get compressed boards too, in the binary protocol as well
+            Reply flagged = server.handleRequest(session, "flag 0 0");
+            assertTrue(new String(bytes(flagged.buffers(false)), StandardCharsets.ISO_8859_1).startsWith("COMPRESSED"));
+            byte[] frame = bytes(flagged.buffers(true));
+            // LENGTH (short enough for 1 byte), then type, version, width and height (1 byte each)
+            assertEquals(frame.length - 1, frame[0]);
+            assertEquals(Reply.DEFLATED_BOARD_FRAME, frame[1]);
+            assertEquals(SIZE, frame[3]);
+            assertEquals(SIZE, frame[4]);
+            byte[] packed = inflate(frame, 5);
+            assertEquals(SIZE * SIZE / 2, packed.length);
+            assertEquals("flagged, untouched", (byte) 0xA9, packed[0]);
+
+            server.handleRequest(session, "compress off");
+            assertTrue(new String(bytes(server.handleRequest(session, "look").buffers(false)),
+                    StandardCharsets.US_ASCII).startsWith("F - -"));
+            server.disconnect(session);
+        } finally {
+            server.shutdown();
+        }
+    }
+}
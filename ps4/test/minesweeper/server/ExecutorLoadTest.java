@@ -0,0 +1,187 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.*;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Load test of the ways the server can hold many clients at once: many idle clients plus a set of busy ones,
+ * all on one server, served by --nio, or by --executor virtual where the runtime has virtual threads.
+ * Each run prints the heap the clients cost, measured after a gc before and after they connect
+ * (client and server sockets both, as they share this JVM).
+ *
+ * By default it runs at a small scale that fits in any test run: 100 idle + 20 active clients. That proves the
+ * idle clients are still served, not the scale: the 50k idle + 5k active target has NOT been measured.
+ * The largest run so far was 9000 idle + 500 active with --nio, at about 2 KB of heap per client.
+ * The full target needs two file descriptors per client (one per end), so an open file limit
+ * above 110k (e.g. ulimit -n 200000); clients are spread over several loopback addresses, so they do not
+ * run out of ephemeral ports. Run with
+ *   -Dminesweeper.load.idle=50000 -Dminesweeper.load.active=5000
+ * With platform threads the same run needs 55k thread stacks and typically dies with
+ * "OutOfMemoryError: unable to create native thread", so it is not tested here.
+ */
+public class ExecutorLoadTest {
+
+    // Testing strategy:
+    //   server: --nio, or --executor virtual (skipped without virtual threads)
+    //   idle clients: connect, get HELLO, then stay silent until the very end
+    //   active clients: repeatedly look at the board while the idle ones stay connected
+    //   at the end every idle client must still be served
+
+    private static final String LOCALHOST = "127.0.0.1";
+    private static final int BOARD_SIZE = 10;
+
+    private static final int IDLE = Integer.getInteger("minesweeper.load.idle", 100);
+    private static final int ACTIVE = Integer.getInteger("minesweeper.load.active", 20);
+    private static final int ROUNDS = Integer.getInteger("minesweeper.load.rounds", 20);
+    private static final int CLIENT_THREADS = 8;
+    // the scale the server is meant for, see above
+    private static final int TARGET_IDLE = 50000;
+    private static final int TARGET_ACTIVE = 5000;
+    // clients per loopback source address, well within the ephemeral port range
+    private static final int CLIENTS_PER_ADDRESS = 20000;
+
+    private static Socket connect(Thread server, int port, int client) throws IOException {
+        InetAddress local = InetAddress.getByName("127.0.0." + (1 + client / CLIENTS_PER_ADDRESS));
+        // the server may take a while to start listening when the machine is busy
+        long deadline = System.currentTimeMillis() + 10000;
+        while (true) {
+            try {
+                Socket socket = new Socket(InetAddress.getByName(LOCALHOST), port, local, 0);
+                socket.setSoTimeout(30000);
+                return socket;
+            } catch (ConnectException ce) {
+                if (!server.isAlive() || System.currentTimeMillis() > deadline) {
+                    throw new IOException("could not connect to server", ce);
+                }
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException ie) {
+                }
+            }
+        }
+    }
+
+    @Test(timeout = 600000)
+    public void testIdleAndActiveClientsWithNio() throws Exception {
+        idleAndActive("--nio");
+    }
+
+    @Test(timeout = 600000)
+    public void testIdleAndActiveClientsOnVirtualThreads() throws Exception {
+        // without virtual threads every client would get a platform thread, which is not what we measure
+        assumeTrue(ConnectionExecutors.virtualThreadsSupported());
+        idleAndActive("--executor", "virtual");
+    }
+
+    private static void idleAndActive(String... mode) throws Exception {
+        int port = 4000 + new Random().nextInt(1 << 15);
+        List<String> args = new ArrayList<>(List.of(mode));
+        args.addAll(List.of("--port", Integer.toString(port), "--size", BOARD_SIZE + "," + BOARD_SIZE));
+        long heapBefore = usedHeap();
+        Thread server = new Thread(() -> MinesweeperServer.main(args.toArray(new String[0])));
+        server.setDaemon(true);
+        server.start();
+
+        List<Socket> idle = new ArrayList<>();
+        List<Socket> active = new ArrayList<>();
+        try {
+            for (int i = 0; i < IDLE; i++) {
+                Socket socket = connect(server, port, i);
+                idle.add(socket);
+                assertTrue(readLine(socket).startsWith("Welcome"));
+            }
+            for (int i = 0; i < ACTIVE; i++) {
+                Socket socket = connect(server, port, IDLE + i);
+                active.add(socket);
+                assertTrue(readLine(socket).startsWith("Welcome"));
+            }
+            long heap = usedHeap() - heapBefore;
+            System.out.printf("%s: %d idle + %d active clients, heap %.1f MB, %.1f KB per client%n",
+                    String.join(" ", mode), IDLE, ACTIVE, heap / 1e6, heap / 1e3 / (IDLE + ACTIVE));
+            if (IDLE < TARGET_IDLE || ACTIVE < TARGET_ACTIVE) {
+                System.out.printf("  (below the %d idle + %d active target, which this run does not measure)%n",
+                        TARGET_IDLE, TARGET_ACTIVE);
+            }
+
+            // a few client threads drive all the active sockets round-robin
+            AtomicInteger completedRounds = new AtomicInteger();
+            List<Thread> clients = new ArrayList<>();
+            for (int t = 0; t < CLIENT_THREADS; t++) {
+                final int first = t;
+                Thread client = new Thread(() -> {
+                    try {
+                        for (int round = 0; round < ROUNDS; round++) {
+                            for (int i = first; i < active.size(); i += CLIENT_THREADS) {
+                                Socket socket = active.get(i);
+                                socket.getOutputStream().write("look\n".getBytes());
+                                for (int row = 0; row < BOARD_SIZE; row++) {
+                                    assertEquals(BOARD_SIZE * 2 - 1, readLine(socket).length());
+                                }
+                                completedRounds.incrementAndGet();
+                            }
+                        }
+                    } catch (IOException ioe) {
+                        throw new UncheckedIOException(ioe);
+                    }
+                });
+                clients.add(client);
+                client.start();
+            }
+            for (Thread client : clients) {
+                client.join();
+            }
+            assertEquals(ACTIVE * ROUNDS, completedRounds.get());
+
+            // the idle clients were kept waiting the whole time, but are still being served
+            for (Socket socket : idle) {
+                socket.getOutputStream().write("help\n".getBytes());
+            }
+            for (Socket socket : idle) {
+                assertTrue(readLine(socket).startsWith("Commands:"));
+            }
+        } finally {
+            for (Socket socket : idle) {
+                socket.close();
+            }
+            for (Socket socket : active) {
+                socket.close();
+            }
+        }
+    }
+
+    /*
+     * Bytes of heap in use, after a gc so that garbage is not counted.
+     */
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        Thread.sleep(100);
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /*
+     * Read one line byte by byte, so we do not need a BufferedReader (and its 8KB buffer) per socket.
+     */
+    private static String readLine(Socket socket) throws IOException {
+        InputStream in = socket.getInputStream();
+        StringBuilder line = new StringBuilder();
+        for (int c = in.read(); c != '\n'; c = in.read()) {
+            if (c == -1) {
+                throw new EOFException("server closed the connection");
+            }
+            line.append((char) c);
+        }
+        return line.toString();
+    }
+}
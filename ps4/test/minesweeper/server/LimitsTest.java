@@ -0,0 +1,151 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import minesweeper.Board;
+
+/**
+ * Tests the server's Limits, in both the thread-per-connection and the --nio modes.
+ */
+public class LimitsTest {
+
+    // Testing strategy:
+    //   server runs with threads, or with --nio
+    //   idle timeout: client idle, or watching
+    //   write timeout: client that stops reading replies to many looks at a big board
+    //   rate limit: client pipelining more requests than its burst
+
+    /*
+     * Start a debug server on an empty board of the given size, on a random port, with the given limits.
+     */
+    private static MinesweeperServer start(int size, boolean nio, Limits limits) throws IOException {
+        return TestServers.serve(new MinesweeperServer(new Board(size, size, new int[][] {}), 0, true, nio,
+                nio ? null : ConnectionExecutors.create("platform"), 0, limits));
+    }
+
+    private static Socket connect(MinesweeperServer server) throws IOException {
+        return TestServers.connect(server.port());
+    }
+
+    private static BufferedReader reader(Socket socket) throws IOException {
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+    }
+
+    private static void send(Socket socket, String text) throws IOException {
+        socket.getOutputStream().write(text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /*
+     * Wait until the server has no client left, failing after a few seconds.
+     */
+    private static void awaitNoClients(MinesweeperServer server) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (server.metrics().connections() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, server.metrics().connections());
+    }
+
+    private static void idle(boolean nio) throws IOException, InterruptedException {
+        MinesweeperServer server = start(3, nio, new Limits(200, 0, 0));
+        try (Socket idle = connect(server); Socket watching = connect(server)) {
+            BufferedReader idleIn = reader(idle);
+            BufferedReader watchingIn = reader(watching);
+            assertTrue(idleIn.readLine().startsWith("Welcome"));
+            assertTrue(watchingIn.readLine().startsWith("Welcome"));
+            send(watching, "watch\n");
+            assertEquals("BOARD 0", watchingIn.readLine());
+            for (int row = 0; row < 3; row++) {
+                watchingIn.readLine();
+            }
+
+            // the idle client is disconnected, the watching one is not
+            assertNull(idleIn.readLine());
+            Thread.sleep(400);
+            send(watching, "help\n");
+            assertEquals(TestServers.HELP, watchingIn.readLine());
+            assertTrue(server.report()
+                    .contains("limits: idle timeouts 1, write timeouts 0, rate delays 0"));
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void testIdleWithThreads() throws IOException, InterruptedException {
+        idle(false);
+    }
+
+    @Test(timeout = 20000)
+    public void testIdleWithNio() throws IOException, InterruptedException {
+        idle(true);
+    }
+
+    private static void notReading(boolean nio) throws IOException, InterruptedException {
+        // each look is 500 rows of 1000 characters, so 200 of them fill any socket buffers
+        MinesweeperServer server = start(500, nio, new Limits(0, 300, 0));
+        try (Socket stuck = connect(server)) {
+            send(stuck, "look\n".repeat(200));
+            try (Socket other = connect(server)) {
+                BufferedReader otherIn = reader(other);
+                assertTrue(otherIn.readLine().startsWith("Welcome"));
+
+                // the client that stopped reading is dropped, and the other one served meanwhile
+                send(other, "help\n");
+                assertEquals(TestServers.HELP, otherIn.readLine());
+            }
+            awaitNoClients(server);
+            assertTrue(server.report()
+                    .contains("limits: idle timeouts 0, write timeouts 1, rate delays 0"));
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void testNotReadingWithThreads() throws IOException, InterruptedException {
+        notReading(false);
+    }
+
+    @Test(timeout = 20000)
+    public void testNotReadingWithNio() throws IOException, InterruptedException {
+        notReading(true);
+    }
+
+    private static void rate(boolean nio) throws IOException, InterruptedException {
+        MinesweeperServer server = start(3, nio, new Limits(0, 0, 50));
+        try (Socket socket = connect(server)) {
+            BufferedReader in = reader(socket);
+            assertTrue(in.readLine().startsWith("Welcome"));
+            long start = System.nanoTime();
+            send(socket, "help\n".repeat(100));
+            for (int i = 0; i < 100; i++) {
+                assertEquals(TestServers.HELP, in.readLine());
+            }
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            // a burst of 50 right away, then 50 more at 50 a second
+            assertTrue("took " + millis + " ms", millis >= 900);
+            assertTrue(millis < 5000);
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void testRateWithThreads() throws IOException, InterruptedException {
+        rate(false);
+    }
+
+    @Test(timeout = 20000)
+    public void testRateWithNio() throws IOException, InterruptedException {
+        rate(true);
+    }
+}
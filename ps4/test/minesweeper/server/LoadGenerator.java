@@ -0,0 +1,293 @@
+package minesweeper.server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import minesweeper.Board;
+import minesweeper.LatencyHistogram;
+
+/**
+ * Closed-loop load generator: CLIENTS clients each send a request, wait for the whole reply, think, and send
+ * the next, for a given time, against a MinesweeperServer started in this JVM (or an already running one).
+ * Not a JUnit test; run it by hand:
+ *
+ *   java -cp bin minesweeper.server.LoadGenerator [--clients N] [--seconds S] [--warmup S] [--think MILLIS]
+ *        [--mix look:60,dig:20,flag:10,deflag:10] [--size SIZE_X,SIZE_Y] [--nio | --executor EXECUTOR]
+ *        [--connect HOST:PORT]
+ *
+ * The mix gives the relative weight of each request: look, dig, flag, deflag, help or stats; moves go to
+ * random squares. The local server runs in debug mode on a random board of the given size, so digging a mine
+ * does not end a client. With --connect, the server is the one at HOST:PORT instead, which must be in debug
+ * mode too. Prints the requests per second, and the median, 99th and 99.9th percentile and max latency seen
+ * by the clients after the warmup; being closed-loop, it measures the latency at the throughput the server
+ * reaches, not at a fixed offered load.
+ */
+public class LoadGenerator {
+
+    private static final List<String> REQUESTS = List.of("look", "dig", "flag", "deflag", "help", "stats");
+    private static final List<String> MOVES = List.of("dig", "flag", "deflag");
+    private static final Pattern HELLO = Pattern.compile("Board: (\\d+) columns by (\\d+) rows");
+
+    private final String host;
+    private final int port;
+    private final Map<String, Integer> mix;
+    private final int totalWeight;
+    private final long thinkMillis;
+
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final LongAdder errors = new LongAdder();
+    private volatile boolean measuring = false;
+    private volatile boolean stopping = false;
+
+    /**
+     * Make a load generator for a server.
+     *
+     * @param host host of the server
+     * @param port port of the server
+     * @param mix weight of each request ("look", "dig", "flag", "deflag", "help" or "stats"), each >= 0,
+     *            at least one > 0
+     * @param thinkMillis time each client waits after a reply before its next request, >= 0
+     */
+    LoadGenerator(String host, int port, Map<String, Integer> mix, long thinkMillis) {
+        this.host = host;
+        this.port = port;
+        this.mix = new LinkedHashMap<>(mix);
+        this.totalWeight = mix.values().stream().mapToInt(Integer::intValue).sum();
+        this.thinkMillis = thinkMillis;
+        if (totalWeight <= 0) {
+            throw new IllegalArgumentException("empty mix " + mix);
+        }
+    }
+
+    /**
+     * Run the clients.
+     *
+     * @param clients number of clients, > 0
+     * @param warmup time to run before measuring
+     * @param measured time to measure after the warmup
+     * @param unit unit of warmup and measured
+     * @return requests answered per second while measuring; latencies() has their latencies
+     * @throws InterruptedException if interrupted while waiting for the clients
+     */
+    double run(int clients, long warmup, long measured, TimeUnit unit) throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            long seed = i;
+            Thread thread = new Thread(() -> client(seed), "load-" + i);
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+        unit.sleep(warmup);
+        long before = latencies.count();
+        long start = System.nanoTime();
+        measuring = true;
+        unit.sleep(measured);
+        measuring = false;
+        long answered = latencies.count() - before;
+        long elapsed = System.nanoTime() - start;
+        stopping = true;
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return answered * 1e9 / elapsed;
+    }
+
+    /**
+     * @return latencies, in nanoseconds, of the requests answered while measuring
+     */
+    LatencyHistogram latencies() {
+        return latencies;
+    }
+
+    /**
+     * @return number of clients that failed, e.g. could not connect or were disconnected
+     */
+    long errors() {
+        return errors.sum();
+    }
+
+    /*
+     * One client: connect, then send requests and read their replies until stopping.
+     */
+    private void client(long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        try (Socket socket = new Socket(host, port)) {
+            socket.setTcpNoDelay(true);
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            OutputStream out = socket.getOutputStream();
+            Matcher hello = HELLO.matcher(in.readLine());
+            if (!hello.find()) {
+                throw new IOException("unexpected HELLO");
+            }
+            int width = Integer.parseInt(hello.group(1));
+            int height = Integer.parseInt(hello.group(2));
+            while (!stopping) {
+                String request = pick(random);
+                if (MOVES.contains(request)) {
+                    request += " " + random.nextInt(width) + " " + random.nextInt(height);
+                }
+                long start = System.nanoTime();
+                out.write((request + "\n").getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                readReply(in, request, height);
+                long latency = System.nanoTime() - start;
+                if (measuring) {
+                    latencies.record(latency);
+                }
+                if (thinkMillis > 0) {
+                    Thread.sleep(thinkMillis);
+                }
+            }
+            out.write("bye\n".getBytes(StandardCharsets.US_ASCII));
+        } catch (IOException | InterruptedException e) {
+            errors.increment();
+        }
+    }
+
+    /*
+     * Pick a request kind at random, by weight.
+     */
+    private String pick(SplittableRandom random) {
+        int choice = random.nextInt(totalWeight);
+        for (Map.Entry<String, Integer> entry : mix.entrySet()) {
+            choice -= entry.getValue();
+            if (choice < 0) {
+                return entry.getKey();
+            }
+        }
+        throw new AssertionError(choice);
+    }
+
+    /*
+     * Read the whole text reply to request, from a server in debug mode whose board has the given height.
+     */
+    private static void readReply(BufferedReader in, String request, int height) throws IOException {
+        String line = readLine(in);
+        if (request.equals("stats")) {
+            // the report ends with the lock hold times
+            while (!line.startsWith("lock hold")) {
+                line = readLine(in);
+            }
+        } else if (!request.equals("help") && !line.equals("BOOM!")) {
+            // the rest of the board
+            for (int row = 1; row < height; row++) {
+                readLine(in);
+            }
+        }
+    }
+
+    private static String readLine(BufferedReader in) throws IOException {
+        String line = in.readLine();
+        if (line == null) {
+            throw new IOException("server closed the connection");
+        }
+        return line;
+    }
+
+    /*
+     * Parse a mix such as "look:60,dig:20".
+     */
+    private static Map<String, Integer> parseMix(String text) {
+        Map<String, Integer> mix = new LinkedHashMap<>();
+        for (String part : text.split(",")) {
+            String[] kindAndWeight = part.split(":");
+            String kind = kindAndWeight[0];
+            if (!REQUESTS.contains(kind)) {
+                throw new IllegalArgumentException("unknown request in mix: " + kind);
+            }
+            mix.put(kind, Integer.parseInt(kindAndWeight[1]));
+        }
+        return mix;
+    }
+
+    /**
+     * Run the load generator.
+     *
+     * @param args options as described above
+     * @throws IOException if the local server cannot be started
+     * @throws InterruptedException if interrupted while running
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int clients = 16;
+        long seconds = 10;
+        long warmup = 5;
+        long think = 0;
+        Map<String, Integer> mix = parseMix("look:60,dig:20,flag:10,deflag:10");
+        int sizeX = 100;
+        int sizeY = 100;
+        boolean nio = false;
+        String executor = "platform";
+        String connect = null;
+        for (int i = 0; i < args.length; i += 2) {
+            String value = args[i].equals("--nio") ? null : args[i + 1];
+            switch (args[i]) {
+            case "--clients": clients = Integer.parseInt(value); break;
+            case "--seconds": seconds = Long.parseLong(value); break;
+            case "--warmup": warmup = Long.parseLong(value); break;
+            case "--think": think = Long.parseLong(value); break;
+            case "--mix": mix = parseMix(value); break;
+            case "--size":
+                sizeX = Integer.parseInt(value.split(",")[0]);
+                sizeY = Integer.parseInt(value.split(",")[1]);
+                break;
+            case "--nio": nio = true; i--; break;
+            case "--executor": executor = value; break;
+            case "--connect": connect = value; break;
+            default: throw new IllegalArgumentException("unknown option: " + args[i]);
+            }
+        }
+
+        MinesweeperServer server = null;
+        String host = "127.0.0.1";
+        int port;
+        if (connect == null) {
+            Board board = Board.random(sizeX, sizeY, 0.25, new SplittableRandom(42));
+            MinesweeperServer local = new MinesweeperServer(board, 0, true, nio,
+                    nio ? null : ConnectionExecutors.create(executor));
+            Thread serving = new Thread(() -> {
+                try {
+                    local.serve();
+                } catch (IOException ioe) {
+                    ioe.printStackTrace();
+                }
+            });
+            serving.setDaemon(true);
+            serving.start();
+            server = local;
+            port = local.port();
+        } else {
+            host = connect.substring(0, connect.lastIndexOf(':'));
+            port = Integer.parseInt(connect.substring(connect.lastIndexOf(':') + 1));
+        }
+
+        LoadGenerator generator = new LoadGenerator(host, port, mix, think);
+        double throughput = generator.run(clients, warmup, seconds, TimeUnit.SECONDS);
+        LatencyHistogram latencies = generator.latencies();
+        System.out.printf("%d clients, mix %s, think %d ms: %,.0f requests/s%n", clients, mix, think, throughput);
+        System.out.printf("latency p50 %.1f us, p99 %.1f us, p99.9 %.1f us, max %.1f us%n",
+                latencies.percentile(0.5) / 1000.0, latencies.percentile(0.99) / 1000.0,
+                latencies.percentile(0.999) / 1000.0, latencies.max() / 1000.0);
+        if (generator.errors() > 0) {
+            System.out.println(generator.errors() + " clients failed");
+        }
+        if (server != null) {
+            System.out.println(String.join("\n", server.report()));
+            server.shutdown();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import minesweeper.Board;
+
+/**
+ * Runs LoadGenerator briefly, so that the harness keeps working as the server changes.
+ */
+public class LoadGeneratorTest {
+
+    // Testing strategy:
+    //   server runs with threads, or with --nio
+    //   mix of every request kind, replies of one line (help, BOOM!), a board, and several lines (stats)
+
+    private static void load(boolean nio) throws IOException, InterruptedException {
+        MinesweeperServer server = TestServers.serve(new MinesweeperServer(
+                new Board(20, 10, new int[][] { { 3, 3 }, { 15, 8 } }), 0, true, nio,
+                nio ? null : ConnectionExecutors.create("platform")));
+        try {
+            LoadGenerator generator = new LoadGenerator("127.0.0.1", server.port(),
+                    Map.of("look", 3, "dig", 3, "flag", 2, "deflag", 2, "help", 1, "stats", 1), 0);
+            double throughput = generator.run(4, 100, 300, TimeUnit.MILLISECONDS);
+            assertEquals(0, generator.errors());
+            assertTrue(generator.latencies().count() > 0);
+            assertTrue(throughput > 0);
+            assertTrue(generator.latencies().percentile(0.99) <= generator.latencies().max());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void testWithThreads() throws IOException, InterruptedException {
+        load(false);
+    }
+
+    @Test(timeout = 20000)
+    public void testWithNio() throws IOException, InterruptedException {
+        load(true);
+    }
+}
@@ -0,0 +1,91 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.Test;
+
+import minesweeper.Board;
+import minesweeper.Move;
+
+/**
+ * Tests Metrics, and the stats request of handleRequest.
+ */
+public class MetricsTest {
+
+    // Testing strategy:
+    //   clients connected: none, some, some left
+    //   requests: none of a kind (left out of the report), some, in a batch
+    //   bytes read by a RequestReader
+    //   stats in text and in binary
+
+    private static String text(Reply reply, boolean binary) {
+        StringBuilder text = new StringBuilder();
+        for (ByteBuffer buffer : reply.buffers(binary)) {
+            while (buffer.hasRemaining()) {
+                text.append((char) buffer.get());
+            }
+        }
+        return text.toString();
+    }
+
+    @Test
+    public void testStats() throws IOException {
+        MinesweeperServer server = new MinesweeperServer(new Board(3, 3, new int[][] { { 2, 2 } }), 0, true, false,
+                ConnectionExecutors.create("platform"));
+        try {
+            Session alice = server.connect();
+            Session bob = server.connect();
+            server.disconnect(bob);
+            server.handleRequest(alice, "flag 0 0");
+            server.handleRequest(alice, "look");
+            server.handleRequest(alice, "look");
+            alice.setBatching(Session.Batching.ACK);
+            server.handleBatch(alice, List.of(new Move(Move.Kind.DEFLAG, 0, 0)));
+
+            String stats = text(server.handleRequest(alice, "stats"), false);
+            assertTrue(stats, stats.startsWith("connections 1, accepted 2\n"
+                    + "rooms 1, players in lobby 1, watching 0\n"));
+            assertTrue(stats, stats.contains("\nflag: count 1, "));
+            assertTrue(stats, stats.contains("\nlook: count 2, "));
+            assertTrue(stats, stats.contains("\nbatch: count 1, "));
+            assertFalse("no digs yet", stats.contains("\ndig: "));
+            // the batch took a lock once; a flag takes none
+            assertTrue(stats, stats.contains("\nlock wait in lobby: count 1, "));
+            assertTrue(stats, stats.contains("\nlock hold in lobby: count 1, "));
+            assertTrue(stats, stats.endsWith("\n"));
+
+            // the request itself is counted once it has been answered
+            assertTrue(text(server.handleRequest(alice, "stats"), false).contains("\nstats: count 1, "));
+
+            // in binary, a MESSAGE frame per line
+            String frames = text(server.handleRequest(alice, new Command().parse("stats")), true);
+            assertTrue(frames, frames.contains("connections 1, accepted 2"));
+            assertFalse(frames, frames.contains("\n"));
+
+            server.disconnect(alice);
+            assertEquals(0, server.metrics().connections());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void testBytesRead() throws IOException {
+        Metrics metrics = new Metrics();
+        byte[] requests = "look\nhelp\n".getBytes(StandardCharsets.US_ASCII);
+        RequestReader in = new RequestReader(new ByteArrayInputStream(requests), metrics);
+        Command command = new Command();
+        assertTrue(in.next(command));
+        assertTrue(in.next(command));
+        assertFalse(in.next(command));
+        assertEquals(requests.length, metrics.bytesRead());
+        RoomRegistry rooms = new RoomRegistry(new Board(1, 1, new int[][] {}), 1, name -> null);
+        assertTrue(metrics.report(rooms.lobby(), rooms).contains("read: bytes 10"));
+    }
+}
@@ -0,0 +1,145 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import minesweeper.Board;
+
+/**
+ * Tests OutputBuffer, and that the server coalesces the replies to pipelined requests into few writes.
+ */
+public class OutputBufferTest {
+
+    // Testing strategy:
+    //   OutputBuffer: small buffers (copied), big buffers (written where they are), mixed, empty;
+    //   written to a blocking channel, or to a non-blocking one that fills up
+    //   server: threads or --nio; requests sent one at a time, or pipelined in one write
+
+    private static ByteBuffer ascii(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /*
+     * Connected pair of channels: [0] is the client, [1] the server's end.
+     */
+    private static SocketChannel[] connectedPair() throws IOException {
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress("127.0.0.1", 0));
+            SocketChannel client = SocketChannel.open(server.getLocalAddress());
+            return new SocketChannel[] { client, server.accept() };
+        }
+    }
+
+    private static String readAll(SocketChannel channel, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            assertNotEquals(-1, channel.read(buffer));
+        }
+        return new String(buffer.array(), StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void testCoalesced() throws IOException {
+        SocketChannel[] pair = connectedPair();
+        try {
+            WriteStats stats = new WriteStats();
+            OutputBuffer output = new OutputBuffer(stats);
+            assertTrue(output.isEmpty());
+            String big = "x".repeat(OutputBuffer.COALESCE_LIMIT + 1);
+            output.add(new ByteBuffer[] { ascii("one\n") });
+            output.add(new ByteBuffer[] { ascii("two\n"), ascii(""), ascii(big) });
+            output.add(new ByteBuffer[] { ascii("three\n") });
+            assertEquals(4 + 4 + big.length() + 6, output.size());
+            assertTrue(output.writeTo(pair[1]));
+            assertTrue(output.isEmpty());
+            assertEquals("one\ntwo\n" + big + "three\n", readAll(pair[0], 14 + big.length()));
+            assertEquals(3, stats.replies());
+            assertEquals("one gathering write", 1, stats.writes());
+            assertEquals(14 + big.length(), stats.bytes());
+
+            // the copies start over once everything is written
+            output.add(new ByteBuffer[] { ascii("four\n") });
+            assertTrue(output.writeTo(pair[1]));
+            assertEquals("four\n", readAll(pair[0], 5));
+        } finally {
+            pair[0].close();
+            pair[1].close();
+        }
+    }
+
+    @Test
+    public void testNonBlockingFull() throws IOException {
+        SocketChannel[] pair = connectedPair();
+        try {
+            pair[1].configureBlocking(false);
+            OutputBuffer output = new OutputBuffer(new WriteStats());
+            // far more than the socket buffers hold, so the first write cannot take it all
+            byte[] board = new byte[16 * 1024 * 1024];
+            output.add(new ByteBuffer[] { ascii("BOARD 1\n"), ByteBuffer.wrap(board) });
+            assertFalse(output.writeTo(pair[1]));
+            long left = output.size();
+            assertTrue(left > 0 && left < board.length + 8);
+
+            assertEquals("BOARD 1\n", readAll(pair[0], 8));
+            long read = 8;
+            while (!output.writeTo(pair[1])) {
+                ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+                read += pair[0].read(buffer);
+            }
+            ByteBuffer rest = ByteBuffer.allocate(1 << 16);
+            while (read < board.length + 8) {
+                rest.clear();
+                read += pair[0].read(rest);
+            }
+            assertEquals(board.length + 8, read);
+            assertTrue(output.isEmpty());
+        } finally {
+            pair[0].close();
+            pair[1].close();
+        }
+    }
+
+    /*
+     * Pipeline 20 help requests in one write to a server, then leave; returns how many writes it took to reply.
+     */
+    private static long pipelined(boolean nio) throws IOException, InterruptedException {
+        MinesweeperServer server = TestServers.serve(new MinesweeperServer(new Board(3, 3, new int[][] {}), 0, true,
+                nio, nio ? null : ConnectionExecutors.create("platform")));
+        try (Socket socket = TestServers.connect(server.port())) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            assertTrue(in.readLine().startsWith("Welcome"));
+            long before = server.writeStats().writes();
+            socket.getOutputStream().write("help\n".repeat(20).getBytes(StandardCharsets.US_ASCII));
+            for (int i = 0; i < 20; i++) {
+                assertEquals(TestServers.HELP, in.readLine());
+            }
+            // the server counts a write after it has been made; once it has closed the connection, it has counted them all
+            socket.getOutputStream().write("bye\n".getBytes(StandardCharsets.US_ASCII));
+            in.readLine();
+            assertNull(in.readLine());
+            return server.writeStats().writes() - before;
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void testPipelinedWithThreads() throws IOException, InterruptedException {
+        // the 20 requests may arrive in a few reads, but never need a write each (plus one for bye)
+        assertTrue(pipelined(false) < 20);
+    }
+
+    @Test(timeout = 20000)
+    public void testPipelinedWithNio() throws IOException, InterruptedException {
+        assertTrue(pipelined(true) < 20);
+    }
+}
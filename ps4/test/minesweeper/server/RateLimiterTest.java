@@ -0,0 +1,50 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Tests RateLimiter.
+ */
+public class RateLimiterTest {
+
+    // Testing strategy:
+    //   requests: within the burst, just past it, at exactly the rate, after a long quiet time
+    //   one request at a time, or several at once (a batch)
+    //   clock: positive or negative nanoTime()
+
+    private static final long MILLI = 1_000_000;
+
+    @Test
+    public void testBurst() {
+        RateLimiter limiter = new RateLimiter(10);
+        long now = -5_000 * MILLI;
+        for (int i = 0; i < 9; i++) {
+            assertEquals(0, limiter.acquire(now, 1));
+        }
+        // the 10th goes through too, but the 11th has to wait a tenth of a second
+        assertEquals(100 * MILLI, limiter.acquire(now, 1));
+        // at exactly the rate from then on
+        assertEquals(100 * MILLI, limiter.acquire(now + 100 * MILLI, 1));
+        assertEquals(50 * MILLI, limiter.acquire(now + 250 * MILLI, 1));
+    }
+
+    @Test
+    public void testQuietDoesNotSaveUp() {
+        RateLimiter limiter = new RateLimiter(10);
+        assertEquals(0, limiter.acquire(0, 1));
+        // an hour later, still only a burst of 10
+        long later = 3_600_000 * MILLI;
+        assertEquals(0, limiter.acquire(later, 9));
+        assertEquals(100 * MILLI, limiter.acquire(later, 1));
+    }
+
+    @Test
+    public void testBatch() {
+        RateLimiter limiter = new RateLimiter(100);
+        assertEquals(0, limiter.acquire(7 * MILLI, 50));
+        // 150 requests at once, 50 more than the burst: the next one has to wait 51 intervals
+        assertEquals(510 * MILLI, limiter.acquire(7 * MILLI, 100));
+    }
+}
@@ -0,0 +1,232 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import minesweeper.Board;
+
+/**
+ * Tests RoomRegistry, and moving between rooms with Session and handleRequest.
+ */
+public class RoomRegistryTest {
+
+    // Testing strategy:
+    //   room: lobby, new room, existing room
+    //   players leaving: some left, last one left (lobby or other room)
+    //   one or many threads entering and leaving at once
+    //   players watching or not, counted while others enter and leave
+    //   join while watching or not, to the same or another room, or to an invalid name
+    //   new room's board slow to build, while others enter a room in the same bin, or the same room
+    //   lobby smaller or bigger than MAX_ROOM_SIZE
+
+    private static final String HELP_LINE = "Commands: look | dig x y | flag x y | deflag x y | help | bye\n";
+
+    private static RoomRegistry registry(AtomicInteger created) {
+        return new RoomRegistry(new Board(3, 3, new int[][] {}), 4, name -> {
+            created.incrementAndGet();
+            return new Board(3, 3, new int[][] {});
+        });
+    }
+
+    @Test
+    public void testLobbyAlwaysExists() {
+        AtomicInteger created = new AtomicInteger();
+        RoomRegistry rooms = registry(created);
+        assertEquals(1, rooms.size());
+        Session player = new Session();
+        Room lobby = rooms.enter(RoomRegistry.LOBBY, player);
+        assertSame(rooms.lobby(), lobby);
+        assertEquals(1, lobby.players());
+        rooms.leave(lobby, player);
+        assertEquals(0, lobby.players());
+        assertEquals("lobby is kept even when empty", 1, rooms.size());
+        assertSame(lobby, rooms.enter(RoomRegistry.LOBBY, player));
+        assertEquals(0, created.get());
+    }
+
+    @Test
+    public void testRoomCreatedOnceAndDroppedWhenEmpty() {
+        AtomicInteger created = new AtomicInteger();
+        RoomRegistry rooms = registry(created);
+        Session alice = new Session();
+        Session bob = new Session();
+        Room first = rooms.enter("a", alice);
+        Room second = rooms.enter("a", bob);
+        assertSame(first, second);
+        assertEquals(2, first.players());
+        assertEquals(1, created.get());
+        assertEquals(2, rooms.size());
+
+        rooms.leave(first, alice);
+        assertEquals(2, rooms.size());
+        rooms.leave(second, bob);
+        assertEquals(1, rooms.size());
+
+        Room again = rooms.enter("a", alice);
+        assertNotSame("a new game", first, again);
+        assertEquals(2, created.get());
+    }
+
+    @Test(timeout = 20000)
+    public void testConcurrentEnterAndLeave() throws InterruptedException {
+        AtomicInteger created = new AtomicInteger();
+        RoomRegistry rooms = registry(created);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            threads.add(new Thread(() -> {
+                Session player = new Session();
+                for (int i = 0; i < 10000; i++) {
+                    Room room = rooms.enter("room" + (i % 5), player);
+                    assertTrue(room.players() > 0);
+                    rooms.leave(room, player);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals("every room emptied and dropped", 1, rooms.size());
+    }
+
+    @Test(timeout = 20000)
+    public void testSlowBoardBlocksOnlyItsRoom() throws InterruptedException {
+        CountDownLatch building = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger created = new AtomicInteger();
+        // one shard, and names with the same hash, so both rooms are in the same bin of the same map
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        RoomRegistry rooms = new RoomRegistry(new Board(3, 3, new int[][] {}), 1, name -> {
+            created.incrementAndGet();
+            if (name.equals("Aa")) {
+                building.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ie) {
+                    throw new AssertionError(ie);
+                }
+            }
+            return new Board(3, 3, new int[][] {});
+        });
+        Session alice = new Session();
+        Session bob = new Session();
+        List<Room> entered = new ArrayList<>();
+        Thread slow = new Thread(() -> entered.add(rooms.enter("Aa", alice)));
+        Thread waiting = new Thread(() -> rooms.enter("Aa", bob));
+        slow.start();
+        building.await();
+        waiting.start();
+
+        // the bin is not locked while the board is built
+        Session carol = new Session();
+        Room other = rooms.enter("BB", carol);
+        rooms.leave(other, carol);
+        assertTrue(slow.isAlive());
+
+        release.countDown();
+        slow.join();
+        waiting.join();
+        assertEquals("Aa built once for both its players, and BB once", 2, created.get());
+        assertEquals(2, entered.get(0).players());
+    }
+
+    @Test
+    public void testNewRoomBoardSizeCapped() throws Exception {
+        MinesweeperServer server = new MinesweeperServer(new Board(MinesweeperServer.MAX_ROOM_SIZE + 500, 2,
+                new int[][] {}), 0, true, false, ConnectionExecutors.create("platform"));
+        try {
+            Session alice = server.connect();
+            assertEquals("Joined room x. Board: " + MinesweeperServer.MAX_ROOM_SIZE
+                    + " columns by 2 rows. Players: 1 including you.\n", text(server.handleRequest(alice, "join x")));
+            server.disconnect(alice);
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void testWatchersCountedWhilePlayersComeAndGo() throws InterruptedException {
+        RoomRegistry rooms = registry(new AtomicInteger());
+        Session watcher = new Session();
+        watcher.watch();
+        Room lobby = rooms.enter(RoomRegistry.LOBBY, watcher);
+        Session other = new Session();
+        rooms.enter(RoomRegistry.LOBBY, other);
+        assertEquals(2, lobby.players());
+        assertEquals(1, lobby.watchers());
+
+        Thread churn = new Thread(() -> {
+            for (int i = 0; i < 100000; i++) {
+                Session player = new Session();
+                rooms.leave(rooms.enter(RoomRegistry.LOBBY, player), player);
+            }
+        });
+        churn.start();
+        while (churn.isAlive()) {
+            // counting never blocks the others, and sees the players who stay
+            assertTrue(lobby.players() >= 2);
+            assertEquals(1, lobby.watchers());
+        }
+        churn.join();
+        assertEquals(2, lobby.players());
+    }
+
+    @Test
+    public void testJoin() throws Exception {
+        MinesweeperServer server = new MinesweeperServer(new Board(3, 3, new int[][] {}), 0, true, false,
+                ConnectionExecutors.create("platform"));
+        try {
+            Session alice = server.connect();
+            Session bob = server.connect();
+            assertTrue(server.helloMessage(bob).contains("Players: 2 including you"));
+
+            assertEquals("Joined room x. Board: 3 columns by 3 rows. Players: 1 including you.\n",
+                    text(server.handleRequest(alice, "join x")));
+            assertEquals("x", alice.room().name());
+            assertEquals("Joined room x. Board: 3 columns by 3 rows. Players: 1 including you.\n",
+                    text(server.handleRequest(alice, "join x")));
+
+            // separate games
+            server.handleRequest(alice, "flag 0 0");
+            assertTrue(text(server.handleRequest(alice, "look")).startsWith("F - -"));
+            assertTrue(text(server.handleRequest(bob, "look")).startsWith("- - -"));
+
+            // a watcher gets the new room's board, and watches it from then on
+            server.handleRequest(bob, "watch");
+            Reply joined = server.handleRequest(bob, "join x");
+            assertTrue(joined.isWatch());
+            assertSame(alice.room().board(), joined.watched());
+            assertTrue(text(joined).startsWith("Joined room x. Board: 3 columns by 3 rows. Players: 2 including you.\n"
+                    + "BOARD 1\nF - -\n"));
+
+            assertEquals(HELP_LINE, text(server.handleRequest(bob, "join no spaces")));
+            assertEquals(HELP_LINE, text(server.handleRequest(bob, "join " + "x".repeat(33))));
+
+            server.disconnect(alice);
+            server.disconnect(bob);
+            server.disconnect(bob);
+            assertNull(bob.room());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    private static String text(Reply reply) {
+        StringBuilder text = new StringBuilder();
+        for (ByteBuffer buffer : reply.buffers(false)) {
+            while (buffer.hasRemaining()) {
+                text.append((char) buffer.get());
+            }
+        }
+        return text.toString();
+    }
+}
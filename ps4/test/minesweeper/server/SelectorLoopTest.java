@@ -0,0 +1,150 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.net.Socket;
+
+import org.junit.Test;
+
+/**
+ * Tests the --nio mode, which must speak exactly the same protocol as the threaded mode.
+ */
+public class SelectorLoopTest {
+
+    // Testing strategy:
+    //   one client, several clients at once
+    //   request line ends with "\n" or "\r\n", is valid, invalid, or longer than the read buffer
+    //   response is a board, the help message, or Goodbye!
+    //   look-since a current, older, or future version
+
+    // port of the --nio server the tests share, in debug mode on board_file_5; 0 until the first test starts it
+    private static int port = 0;
+
+    private static synchronized int port() throws IOException {
+        if (port == 0) {
+            port = TestServers.start("--nio");
+        }
+        return port;
+    }
+
+    private static Socket connect() throws IOException {
+        return TestServers.connect(port());
+    }
+
+    @Test(timeout = 10000)
+    public void testHelloLookHelpAndBye() throws IOException {
+        try (Socket socket = connect()) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+
+            assertTrue("expected HELLO message", in.readLine().startsWith("Welcome to Minesweeper. Board: 7 columns by 7 rows."));
+
+            out.println("look");
+            for (int row = 0; row < 7; row++) {
+                assertEquals(7 * 2 - 1, in.readLine().length());
+            }
+
+            out.println("help");
+            assertEquals(TestServers.HELP, in.readLine());
+
+            out.println("not a command");
+            assertEquals(TestServers.HELP, in.readLine());
+
+            out.println("bye");
+            assertEquals("You chose to leave the game. Goodbye!", in.readLine());
+            assertNull("expected server to close the connection", in.readLine());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testLookSince() throws IOException {
+        try (Socket socket = connect()) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+            in.readLine();
+
+            // the first look-since gets some version to start from, as a delta or the whole board
+            out.println("look-since 0");
+            String[] header = in.readLine().split(" ");
+            long version = Long.parseLong(header[1]);
+            if (header[0].equals("BOARD")) {
+                for (int row = 0; row < 7; row++) {
+                    assertEquals(7 * 2 - 1, in.readLine().length());
+                }
+            } else {
+                assertEquals("DELTA", header[0]);
+                for (int i = Integer.parseInt(header[2]); i > 0; i--) {
+                    assertTrue(in.readLine().matches("\\d \\d [-F0-8]"));
+                }
+            }
+
+            out.println("look-since " + version);
+            assertEquals("DELTA " + version + " 0", in.readLine());
+
+            out.println("flag 4 5");
+            for (int row = 0; row < 7; row++) {
+                in.readLine();
+            }
+            out.println("deflag 4 5");
+            for (int row = 0; row < 7; row++) {
+                in.readLine();
+            }
+            out.println("look-since " + version);
+            assertEquals("DELTA " + (version + 2) + " 1", in.readLine());
+            assertEquals("4 5 -", in.readLine());
+
+            out.println("look-since 99999999999");
+            assertEquals("BOARD " + (version + 2), in.readLine());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testCarriageReturnAndOverlongLines() throws IOException {
+        try (Socket socket = connect()) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            OutputStream out = socket.getOutputStream();
+            in.readLine();
+
+            out.write("help\r\n".getBytes());
+            out.flush();
+            assertEquals(TestServers.HELP, in.readLine());
+
+            StringBuilder longLine = new StringBuilder();
+            for (int i = 0; i < 1000; i++) {
+                longLine.append("look ");
+            }
+            longLine.append("\nhelp\n");
+            out.write(longLine.toString().getBytes());
+            out.flush();
+            assertEquals("overlong line is invalid", TestServers.HELP, in.readLine());
+            assertEquals("the next line is still handled", TestServers.HELP, in.readLine());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testManyClientsOnOneThread() throws IOException {
+        Socket[] sockets = new Socket[50];
+        try {
+            for (int i = 0; i < sockets.length; i++) {
+                sockets[i] = connect();
+            }
+            // pipeline a request on every connection before reading any response
+            for (Socket socket : sockets) {
+                socket.getOutputStream().write("help\n".getBytes());
+                socket.getOutputStream().flush();
+            }
+            for (Socket socket : sockets) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                assertTrue(in.readLine().startsWith("Welcome"));
+                assertEquals(TestServers.HELP, in.readLine());
+            }
+        } finally {
+            for (Socket socket : sockets) {
+                if (socket != null) {
+                    socket.close();
+                }
+            }
+        }
+    }
+}
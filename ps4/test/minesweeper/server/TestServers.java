@@ -0,0 +1,100 @@
+package minesweeper.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Random;
+
+/**
+ * Servers and connections for the tests that talk to a MinesweeperServer over real sockets.
+ */
+final class TestServers {
+
+    /** The help message, which is also the reply to any invalid request. */
+    static final String HELP = "Commands: look | dig x y | flag x y | deflag x y | help | bye";
+
+    private static final String LOCALHOST = "127.0.0.1";
+
+    private TestServers() {
+        // only static methods
+    }
+
+    /**
+     * Start a debug server through main(), on board_file_5 (7x7, mines at (4,1) and (0,6)), on a random port.
+     *
+     * @param mode extra arguments for main(), e.g. "--nio" or "--executor", "pool:1"
+     * @return the port the server listens on, once it has started
+     * @throws IOException if board_file_5 cannot be found
+     */
+    static int start(String... mode) throws IOException {
+        URL boardURL = ClassLoader.getSystemClassLoader().getResource("minesweeper/boards/board_file_5");
+        if (boardURL == null) {
+            throw new IOException("Failed to locate board_file_5");
+        }
+        String boardPath;
+        try {
+            boardPath = new File(boardURL.toURI()).getAbsolutePath();
+        } catch (URISyntaxException urise) {
+            throw new IOException("Invalid URL " + boardURL, urise);
+        }
+        int port = 4000 + new Random().nextInt(1 << 15);
+        String[] args = new String[mode.length + 5];
+        System.arraycopy(mode, 0, args, 0, mode.length);
+        System.arraycopy(new String[] { "--debug", "--port", Integer.toString(port), "--file", boardPath },
+                0, args, mode.length, 5);
+        Thread server = new Thread(() -> MinesweeperServer.main(args));
+        server.setDaemon(true);
+        server.start();
+        return port;
+    }
+
+    /**
+     * Run a server's serve() on a daemon thread.
+     *
+     * @param server server to run, which the caller must shut down
+     * @return server
+     */
+    static MinesweeperServer serve(MinesweeperServer server) {
+        Thread serving = new Thread(() -> {
+            try {
+                server.serve();
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+            }
+        });
+        serving.setDaemon(true);
+        serving.start();
+        return server;
+    }
+
+    /**
+     * Connect to a local server, waiting for it to start listening if need be.
+     * Reads from the socket give up after 5 seconds.
+     *
+     * @param port port the server listens on
+     * @return a connected socket, which the caller must close
+     * @throws IOException if the server does not accept the connection within 10 seconds
+     */
+    static Socket connect(int port) throws IOException {
+        // the server may take a while to start listening when the machine is busy
+        long deadline = System.currentTimeMillis() + 10000;
+        while (true) {
+            try {
+                Socket socket = new Socket(LOCALHOST, port);
+                socket.setSoTimeout(5000);
+                return socket;
+            } catch (ConnectException ce) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IOException("could not connect to server", ce);
+                }
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException ie) {
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.net.Socket;
+
+import org.junit.Test;
+
+import minesweeper.Board;
+
+/**
+ * Tests the watch command, in both the thread-per-connection and the --nio modes.
+ */
+public class WatchTest {
+
+    // Testing strategy:
+    //   server runs with threads, on a pool of one thread, or with --nio
+    //   watcher is sent no change, one change, or changes while it does not read
+    //   watcher makes requests of its own while watching, then leaves
+
+    private static void skipBoard(BufferedReader in) throws IOException {
+        for (int row = 0; row < 7; row++) {
+            assertEquals(7 * 2 - 1, in.readLine().length());
+        }
+    }
+
+    /*
+     * Play one watcher and one player against a fresh server.
+     */
+    private static void watchAndPlay(int port) throws IOException {
+        try (Socket watcher = TestServers.connect(port); Socket player = TestServers.connect(port)) {
+            BufferedReader watcherIn = new BufferedReader(new InputStreamReader(watcher.getInputStream()));
+            PrintWriter watcherOut = new PrintWriter(watcher.getOutputStream(), true);
+            BufferedReader playerIn = new BufferedReader(new InputStreamReader(player.getInputStream()));
+            PrintWriter playerOut = new PrintWriter(player.getOutputStream(), true);
+            watcherIn.readLine();
+            playerIn.readLine();
+
+            watcherOut.println("watch");
+            String header = watcherIn.readLine();
+            assertTrue(header, header.startsWith("BOARD "));
+            long version = Long.parseLong(header.substring("BOARD ".length()));
+            skipBoard(watcherIn);
+
+            // no change, no push
+            watcherOut.println("help");
+            assertEquals(TestServers.HELP, watcherIn.readLine());
+
+            playerOut.println("flag 4 5");
+            skipBoard(playerIn);
+            assertEquals("DELTA " + (version + 1) + " 1", watcherIn.readLine());
+            assertEquals("4 5 F", watcherIn.readLine());
+
+            // several changes while the watcher is not reading arrive in at most as many updates
+            for (int i = 0; i < 10; i++) {
+                playerOut.println(i % 2 == 0 ? "deflag 4 5" : "flag 4 5");
+                skipBoard(playerIn);
+            }
+            long seen = version + 1;
+            while (seen < version + 11) {
+                String[] delta = watcherIn.readLine().split(" ");
+                assertEquals("DELTA", delta[0]);
+                assertTrue(Long.parseLong(delta[1]) > seen);
+                seen = Long.parseLong(delta[1]);
+                for (int i = Integer.parseInt(delta[2]); i > 0; i--) {
+                    assertTrue(watcherIn.readLine().matches("4 5 [-F]"));
+                }
+            }
+            assertEquals(version + 11, seen);
+
+            watcherOut.println("bye");
+            assertEquals("You chose to leave the game. Goodbye!", watcherIn.readLine());
+            assertNull("expected server to close the connection", watcherIn.readLine());
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void testWatchWithThreads() throws IOException {
+        watchAndPlay(TestServers.start());
+    }
+
+    @Test(timeout = 20000)
+    public void testWatchOnOnePooledThread() throws IOException {
+        // the watcher's reader holds the only pooled thread, so its writer must run elsewhere
+        try (Socket watcher = TestServers.connect(TestServers.start("--executor", "pool:1"))) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(watcher.getInputStream()));
+            PrintWriter out = new PrintWriter(watcher.getOutputStream(), true);
+            in.readLine();
+
+            out.println("watch");
+            String header = in.readLine();
+            assertTrue(header, header.startsWith("BOARD "));
+            long version = Long.parseLong(header.substring("BOARD ".length()));
+            skipBoard(in);
+
+            // the watcher's own flag is answered with the board, and pushed as an update, in either order
+            out.println("flag 4 5");
+            String first = in.readLine();
+            if (first.startsWith("DELTA")) {
+                assertEquals("DELTA " + (version + 1) + " 1", first);
+                assertEquals("4 5 F", in.readLine());
+                skipBoard(in);
+            } else {
+                assertEquals(7 * 2 - 1, first.length());
+                for (int row = 1; row < 7; row++) {
+                    assertEquals(7 * 2 - 1, in.readLine().length());
+                }
+                assertEquals("DELTA " + (version + 1) + " 1", in.readLine());
+                assertEquals("4 5 F", in.readLine());
+            }
+
+            out.println("bye");
+            assertEquals("You chose to leave the game. Goodbye!", in.readLine());
+            assertNull("expected server to close the connection", in.readLine());
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void testWatchWithNio() throws IOException {
+        watchAndPlay(TestServers.start("--nio"));
+    }
+
+    @Test(timeout = 10000)
+    public void testOutboxCoalescesChanges() throws InterruptedException {
+        Board board = new Board(10, 10, new int[][] {});
+        Outbox outbox = new Outbox(2);
+        outbox.put(Reply.watch(board, board.render()));
+        assertTrue(outbox.take().isWatch());
+        outbox.put(Reply.message("first", false));
+        board.flag(0, 0);
+        board.flag(1, 0);
+        board.flag(2, 0);
+
+        assertEquals("queued replies go first", 6, outbox.take().size());
+        Reply update = outbox.take();
+        assertEquals("one update for three changes", "DELTA 3 3\n0 0 F\n1 0 F\n2 0 F\n".length(), update.size());
+
+        outbox.close();
+        assertNull(outbox.take());
+        outbox.stopWatching();
+    }
+}